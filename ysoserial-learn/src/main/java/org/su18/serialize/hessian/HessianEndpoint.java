@@ -0,0 +1,225 @@
+package org.su18.serialize.hessian;
+
+import com.caucho.burlap.io.BurlapInput;
+import com.caucho.hessian.io.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地 Hessian HTTP 服务端替身，用来测试自己的 Hessian 服务面对 org.su18.serialize.hessian 中各条链时的表现
+ * 收到的 POST 请求体会按照 /hessian /hessian2 /burlap 路径选择 HessianInput / Hessian2Input / BurlapInput 反序列化
+ * <p>
+ * 类的加载通过 SerializerFactory 中的 ClassFactory 控制，可以通过 ClassPolicy 配置白名单，
+ * 不在白名单中的类会被 ClassFactory 替换为 HashMap，从而观察过滤前后的吞吐差异
+ * <p>
+ * 只监听 127.0.0.1，端口为 0 时使用随机端口
+ *
+ * @author su18
+ */
+public class HessianEndpoint {
+
+	/**
+	 * ClassFactory 配置策略
+	 */
+	public interface ClassPolicy {
+
+		void apply(ClassFactory factory);
+	}
+
+	/**
+	 * 不做任何限制，等同于默认的 Hessian 服务
+	 */
+	public static final ClassPolicy ALLOW_ALL = new ClassPolicy() {
+		@Override
+		public void apply(ClassFactory factory) {
+		}
+	};
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final SerializerFactory serializerFactory;
+
+	private final AtomicLong decoded = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+
+	static {
+		// HttpServer 默认不开启 TCP_NODELAY，响应头和响应体分两次写出时会被延迟 ACK 拖慢约 40ms
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	public HessianEndpoint(int port, int threads, ClassPolicy policy) throws IOException {
+		// SerializerFactory 内部缓存了各个类的序列化器，所有请求共用一个
+		this.serializerFactory = new SerializerFactory();
+		this.serializerFactory.setAllowNonSerializable(true);
+		policy.apply(this.serializerFactory.getClassFactory());
+
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/hessian", new DecodeHandler("hessian"));
+		this.server.createContext("/hessian2", new DecodeHandler("hessian2"));
+		this.server.createContext("/burlap", new DecodeHandler("burlap"));
+	}
+
+	/**
+	 * 白名单策略，pattern 的写法与 ClassFactory.allow 一致，例如 java.util.*
+	 *
+	 * @param patterns 允许的类
+	 * @return 返回 ClassPolicy
+	 */
+	public static ClassPolicy allowList(final String... patterns) {
+		return new ClassPolicy() {
+			@Override
+			public void apply(ClassFactory factory) {
+				factory.setWhitelist(true);
+				for (String pattern : patterns) {
+					factory.allow(pattern);
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8081;
+
+		// 传入第二个参数时开启白名单
+		ClassPolicy policy = args.length > 1 ? allowList(args[1].split(",")) : ALLOW_ALL;
+
+		HessianEndpoint endpoint = new HessianEndpoint(port, Runtime.getRuntime().availableProcessors() * 2, policy);
+		endpoint.start();
+		System.out.println("* Hessian endpoint listening on " + endpoint.getAddress());
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	public long getDecoded() {
+		return decoded.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * 与 HessianUtils.hessianSerializeToObj 相同的解码逻辑，但使用服务端共享的 SerializerFactory
+	 *
+	 * @param bytes 请求体
+	 * @param type  hessian / hessian2 / burlap
+	 * @return 返回反序列化后的对象
+	 * @throws IOException 抛出异常
+	 */
+	public Object decode(byte[] bytes, String type) throws IOException {
+		InputStream          is = new ByteArrayInputStream(bytes);
+		AbstractHessianInput input;
+
+		switch (type) {
+			case "hessian2":
+				input = new Hessian2Input(is);
+				break;
+			case "burlap":
+				input = new BurlapInput(is);
+				break;
+			default:
+				input = new HessianInput(is);
+		}
+
+		input.setSerializerFactory(serializerFactory);
+		return input.readObject();
+	}
+
+	private class DecodeHandler implements HttpHandler {
+
+		private final String type;
+
+		DecodeHandler(String type) {
+			this.type = type;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			byte[] response;
+			int    code;
+
+			try {
+				Object result = decode(readBody(exchange), type);
+				decoded.incrementAndGet();
+				code = 200;
+				response = (result == null ? "null" : result.getClass().getName()).getBytes("UTF-8");
+			} catch (Throwable t) {
+				failed.incrementAndGet();
+				code = 500;
+				response = t.getClass().getName().getBytes("UTF-8");
+			}
+
+			exchange.sendResponseHeaders(code, response.length);
+			OutputStream os = exchange.getResponseBody();
+			os.write(response);
+			os.close();
+		}
+	}
+
+	private static byte[] readBody(HttpExchange exchange) throws IOException {
+		InputStream is     = exchange.getRequestBody();
+		String      length = exchange.getRequestHeaders().getFirst("Content-Length");
+		byte[]      buffer = new byte[length != null ? Integer.parseInt(length) : 4096];
+		int         size   = 0;
+		int         n;
+
+		for (; ; ) {
+			if (size == buffer.length) {
+				if (length != null) {
+					break;
+				}
+				byte[] grown = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, size);
+				buffer = grown;
+			}
+			if ((n = is.read(buffer, size, buffer.length - size)) == -1) {
+				break;
+			}
+			size += n;
+		}
+		is.close();
+
+		if (size == buffer.length) {
+			return buffer;
+		}
+		byte[] body = new byte[size];
+		System.arraycopy(buffer, 0, body, 0, size);
+		return body;
+	}
+}
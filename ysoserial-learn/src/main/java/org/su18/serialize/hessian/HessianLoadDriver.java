@@ -0,0 +1,188 @@
+package org.su18.serialize.hessian;
+
+import com.caucho.burlap.io.BurlapOutput;
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianOutput;
+import org.su18.serialize.lab.LatencyRecorder;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HessianEndpoint 的压测工具，多个线程循环 POST 同一个 payload，统计吞吐与延迟分位数
+ * <p>
+ * 用法：java HessianLoadDriver [hessian|hessian2|burlap] [payload 文件] [并发数] [秒数]
+ * 不指定 payload 文件（或传入 -）时使用一个普通的 HashMap，分别在无白名单和有白名单的本地服务上各跑一轮
+ *
+ * @author su18
+ */
+public class HessianLoadDriver {
+
+	private final URL url;
+
+	private final byte[] body;
+
+	private final int connections;
+
+	private final long durationNanos;
+
+	private final AtomicLong errors = new AtomicLong();
+
+
+	public HessianLoadDriver(URL url, byte[] body, int connections, long durationMillis) {
+		this.url = url;
+		this.body = body;
+		this.connections = connections;
+		this.durationNanos = durationMillis * 1000000L;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String type        = args.length > 0 ? args[0] : "hessian2";
+		byte[] body        = args.length > 1 && !"-".equals(args[1]) ? readFile(args[1]) : serialize(sample(), type);
+		int    connections = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		long   seconds     = args.length > 3 ? Long.parseLong(args[3]) : 10;
+		int    threads     = Runtime.getRuntime().availableProcessors() * 2;
+
+		HessianEndpoint.ClassPolicy[] policies = new HessianEndpoint.ClassPolicy[]{
+				HessianEndpoint.ALLOW_ALL,
+				HessianEndpoint.allowList("java.util.*", "java.lang.*")
+		};
+		String[] names = new String[]{"allow-all", "allow-list"};
+
+		for (int i = 0; i < policies.length; i++) {
+			HessianEndpoint endpoint = new HessianEndpoint(0, threads, policies[i]);
+			endpoint.start();
+			try {
+				URL url = new URL("http", "127.0.0.1", endpoint.getAddress().getPort(), "/" + type);
+
+				HessianLoadDriver driver   = new HessianLoadDriver(url, body, connections, seconds * 1000);
+				LatencyRecorder   recorder = new LatencyRecorder();
+				long              elapsed  = driver.run(recorder);
+
+				System.out.println(recorder.summary(type + " " + names[i], elapsed) + ", errors=" + driver.getErrors()
+						+ ", decoded=" + endpoint.getDecoded() + ", failed=" + endpoint.getFailed());
+			} finally {
+				endpoint.stop();
+			}
+		}
+	}
+
+	/**
+	 * 运行压测，阻塞直到时间结束
+	 *
+	 * @param recorder 延迟记录
+	 * @return 返回实际耗时（纳秒）
+	 * @throws InterruptedException 中断异常
+	 */
+	public long run(final LatencyRecorder recorder) throws InterruptedException {
+		final long           start    = System.nanoTime();
+		final long           deadline = start + durationNanos;
+		final CountDownLatch done     = new CountDownLatch(connections);
+
+		for (int i = 0; i < connections; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					byte[] buffer = new byte[512];
+					try {
+						while (System.nanoTime() < deadline) {
+							long begin = System.nanoTime();
+							if (post(buffer)) {
+								recorder.record(System.nanoTime() - begin);
+							} else {
+								errors.incrementAndGet();
+							}
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "hessian-load-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		done.await();
+		return System.nanoTime() - start;
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * 发送一次请求，读完响应以便 HttpURLConnection 复用 keep-alive 连接
+	 */
+	private boolean post(byte[] buffer) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setDoOutput(true);
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", "x-application/hessian");
+
+			OutputStream os = connection.getOutputStream();
+			os.write(body);
+			os.close();
+
+			int         code = connection.getResponseCode();
+			InputStream is   = code == 200 ? connection.getInputStream() : connection.getErrorStream();
+			if (is != null) {
+				while (is.read(buffer) != -1) {
+					// drain
+				}
+				is.close();
+			}
+			return code == 200;
+		} catch (IOException e) {
+			if (connection != null) {
+				connection.disconnect();
+			}
+			return false;
+		}
+	}
+
+	private static HashMap<String, Object> sample() {
+		HashMap<String, Object> map = new HashMap<>();
+		map.put("name", "su18");
+		map.put("id", 18);
+		map.put("tags", new String[]{"hessian", "lab"});
+		return map;
+	}
+
+	private static byte[] serialize(Object object, String type) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		AbstractHessianOutput out;
+
+		switch (type) {
+			case "hessian2":
+				out = new Hessian2Output(bos);
+				break;
+			case "burlap":
+				out = new BurlapOutput(bos);
+				break;
+			default:
+				out = new HessianOutput(bos);
+		}
+
+		out.writeObject(object);
+		out.flush();
+		return bos.toByteArray();
+	}
+
+	private static byte[] readFile(String file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			return bytes;
+		} finally {
+			raf.close();
+		}
+	}
+}
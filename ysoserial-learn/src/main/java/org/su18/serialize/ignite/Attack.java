@@ -7,6 +7,8 @@ import java.io.OutputStreamWriter;
 import java.net.Socket;
 
 /**
+ * 重复发送或压测可以使用 org.su18.serialize.lab.PayloadDelivery
+ *
  * @author su18
  */
 public class Attack {
@@ -21,11 +23,17 @@ public class Attack {
 
 	public static void writeStream(OutputStream outputStream, String file) throws Exception {
 		FileInputStream fis = new FileInputStream(file);
-		byte[] b = new byte[1024];
-		while (fis.read(b) != -1) {
-			outputStream.write(b);
+		try {
+			byte[] b = new byte[1024];
+			int    n;
+			// 只写出实际读到的长度，否则最后一块会带上上一次读取的残留数据
+			while ((n = fis.read(b)) != -1) {
+				outputStream.write(b, 0, n);
+			}
+			outputStream.flush();
+		} finally {
+			fis.close();
 		}
-		outputStream.flush();
 	}
 
 	public static void main(String[] args) throws Exception {
@@ -0,0 +1,300 @@
+package org.su18.serialize.ignite;
+
+import org.apache.ignite.IgniteCheckedException;
+import org.apache.ignite.internal.marshaller.optimized.OptimizedMarshaller;
+import org.apache.ignite.marshaller.Marshaller;
+import org.apache.ignite.marshaller.jdk.JdkMarshaller;
+import org.su18.serialize.lab.AsyncLog;
+import org.su18.serialize.lab.Canary;
+import org.su18.serialize.lab.LatencyRecorder;
+import org.su18.serialize.rmi.client.exploit.RMIClientExploitServer;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 不启动 Ignite 集群，直接用 Ignite 的 marshaller 解码各条链，测量解码耗时以及链是否触发
+ * <p>
+ * 构造时只初始化一次 IgniteTestResources（GridTestKernelContext、GridResourceProcessor）和各个 marshaller，
+ * 每个 marshaller 使用 MarshallerContextTestImpl 作为上下文，注入 IgniteMock 后就可以脱离节点使用：
+ * jdk        JdkMarshaller，就是普通的 ObjectInputStream 加上 Ignite 的类名过滤
+ * optimized  OptimizedMarshaller，自己实现的流格式，但仍然会调用 readObject
+ * binary     BinaryMarshaller，集合、Map 按 binary 格式重建，有 readObject 的类回退到 optimized
+ * <p>
+ * 每条链先用对应的 marshaller 序列化一次，之后反复 unmarshal；所有 (marshaller, 链) 组合同时在线程池中运行，
+ * 解码期间由 Canary 判断是否走到了 Runtime.exec
+ * <p>
+ * 也可以加载 ysuserial 生成的 .bin 文件。这些是 JDK 序列化数据，只交给 jdk marshaller 解码：
+ * optimized 和 binary 需要先在本地反序列化出链对象才能用自己的格式重新序列化，而这一步就会触发链
+ * <p>
+ * 用法：java IgniteMarshallerLab [-n 次数] [-t 线程数] [文件或目录...]，目录中加载所有 .bin 文件，
+ * 不指定文件时使用 CC6 和一个普通 HashMap 测试全部 marshaller
+ *
+ * @author su18
+ */
+public class IgniteMarshallerLab {
+
+	private final IgniteTestResources resources = new IgniteTestResources();
+
+	private final Map<String, Marshaller> marshallers = new LinkedHashMap<String, Marshaller>();
+
+	private final Map<String, Object> chains = new LinkedHashMap<String, Object>();
+
+	private final Map<String, byte[]> payloads = new LinkedHashMap<String, byte[]>();
+
+	private final ClassLoader loader = IgniteMarshallerLab.class.getClassLoader();
+
+
+	public IgniteMarshallerLab() throws IgniteCheckedException {
+		marshallers.put("jdk", prepare(new JdkMarshaller(), true));
+		marshallers.put("optimized", prepare(new OptimizedMarshaller(), true));
+		// 已经设置好 MarshallerContextTestImpl 和 BinaryContext
+		marshallers.put("binary", prepare(IgniteTestResources.getMarshaller(), false));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int        iterations = 2000;
+		int        threads    = Runtime.getRuntime().availableProcessors();
+		List<File> files      = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-n".equals(args[i])) {
+				iterations = Integer.parseInt(args[++i]);
+			} else if ("-t".equals(args[i])) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				File file = new File(args[i]);
+				if (file.isDirectory()) {
+					File[] bins = file.listFiles(new FilenameFilter() {
+						@Override
+						public boolean accept(File dir, String name) {
+							return name.endsWith(".bin");
+						}
+					});
+					if (bins != null) {
+						Arrays.sort(bins);
+						files.addAll(Arrays.asList(bins));
+					}
+				} else {
+					files.add(file);
+				}
+			}
+		}
+
+		if (!Canary.installOrReport()) {
+			return;
+		}
+		AsyncLog.getDefault().setEnabled(false);
+
+		IgniteMarshallerLab lab = new IgniteMarshallerLab();
+		if (files.isEmpty()) {
+			HashMap<String, String> control = new HashMap<String, String>();
+			control.put("key", "value");
+			lab.add("CC6", RMIClientExploitServer.getEvilClass());
+			lab.add("HashMap", control);
+		} else {
+			for (File file : files) {
+				lab.addSerialized(file.getName(), Files.readAllBytes(file.toPath()));
+			}
+		}
+
+		for (Result result : lab.run(iterations, threads)) {
+			System.out.println(result);
+		}
+	}
+
+	/**
+	 * 添加一条链，使用链对象而不是序列化数据，每个 marshaller 需要用自己的格式序列化
+	 *
+	 * @param name  名称
+	 * @param chain 链对象
+	 */
+	public void add(String name, Object chain) {
+		chains.put(name, chain);
+	}
+
+	/**
+	 * 添加 JDK 序列化数据，只由 jdk marshaller 解码
+	 *
+	 * @param name  名称
+	 * @param bytes ObjectOutputStream 输出的完整数据
+	 */
+	public void addSerialized(String name, byte[] bytes) {
+		payloads.put(name, bytes);
+	}
+
+	/**
+	 * marshaller 名称，按添加顺序
+	 */
+	public Set<String> getMarshallers() {
+		return Collections.unmodifiableSet(marshallers.keySet());
+	}
+
+	/**
+	 * 运行所有组合
+	 *
+	 * @param iterations 每个组合解码的次数
+	 * @param threads    线程数
+	 * @return 返回每个组合的结果，按 marshaller、链的添加顺序，序列化数据排在链对象之后
+	 * @throws InterruptedException 中断异常
+	 */
+	public List<Result> run(int iterations, int threads) throws InterruptedException {
+		List<Result>    results  = new ArrayList<Result>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (Map.Entry<String, Marshaller> marshaller : marshallers.entrySet()) {
+				for (Map.Entry<String, Object> chain : chains.entrySet()) {
+					Result result = new Result(marshaller.getKey(), chain.getKey());
+					results.add(result);
+					try {
+						result.bytes = marshaller.getValue().marshal(chain.getValue());
+					} catch (Exception e) {
+						result.failure = "marshal: " + e;
+						continue;
+					}
+					tasks.add(task(marshaller.getValue(), result, iterations));
+				}
+				if (marshaller.getValue() instanceof JdkMarshaller) {
+					for (Map.Entry<String, byte[]> payload : payloads.entrySet()) {
+						Result result = new Result(marshaller.getKey(), payload.getKey());
+						result.bytes = payload.getValue();
+						results.add(result);
+						tasks.add(task(marshaller.getValue(), result, iterations));
+					}
+				}
+			}
+			executor.invokeAll(tasks);
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	private Callable<Void> task(final Marshaller marshaller, final Result result, final int iterations) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() {
+				long start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					decode(marshaller, result);
+				}
+				result.elapsed = System.nanoTime() - start;
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * 解码一次
+	 */
+	private void decode(final Marshaller marshaller, final Result result) {
+		long           begin   = System.nanoTime();
+		Canary.Decoded decoded = Canary.decode(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return marshaller.unmarshal(result.bytes, loader);
+			}
+		});
+		result.recorder.record(System.nanoTime() - begin);
+
+		// canary 抛出的 SecurityException 会被包装在 IgniteCheckedException 或者 FunctorException 中
+		Throwable failure = decoded.getFailure();
+		if (failure != null && result.failure == null) {
+			result.failure = rootCause(failure).toString();
+		}
+		if (decoded.isFired()) {
+			result.fired.incrementAndGet();
+		} else if (failure != null) {
+			result.errors.incrementAndGet();
+		}
+	}
+
+	private Marshaller prepare(Marshaller marshaller, boolean context) throws IgniteCheckedException {
+		if (context) {
+			marshaller.setContext(new MarshallerContextTestImpl());
+		}
+		resources.inject(marshaller);
+		return marshaller;
+	}
+
+	private static Throwable rootCause(Throwable e) {
+		while (e.getCause() != null && e.getCause() != e) {
+			e = e.getCause();
+		}
+		return e;
+	}
+
+	/**
+	 * 一个 (marshaller, 链) 组合的结果
+	 */
+	public static final class Result {
+
+		private final String marshaller;
+
+		private final String chain;
+
+		private final LatencyRecorder recorder = new LatencyRecorder();
+
+		private final AtomicLong fired = new AtomicLong();
+
+		private final AtomicLong errors = new AtomicLong();
+
+		private volatile byte[] bytes;
+
+		private volatile String failure;
+
+		private volatile long elapsed;
+
+		Result(String marshaller, String chain) {
+			this.marshaller = marshaller;
+			this.chain = chain;
+		}
+
+		public String getMarshaller() {
+			return marshaller;
+		}
+
+		public String getChain() {
+			return chain;
+		}
+
+		public LatencyRecorder getRecorder() {
+			return recorder;
+		}
+
+		/**
+		 * 序列化后的长度，序列化失败时为 -1
+		 */
+		public int getSize() {
+			return bytes != null ? bytes.length : -1;
+		}
+
+		public long getFired() {
+			return fired.get();
+		}
+
+		public long getErrors() {
+			return errors.get();
+		}
+
+		/**
+		 * 第一次失败的原因，canary 拦截也会记录在这里
+		 */
+		public String getFailure() {
+			return failure;
+		}
+
+		@Override
+		public String toString() {
+			if (bytes == null) {
+				return marshaller + " " + chain + ": " + failure;
+			}
+			return recorder.summary(marshaller + " " + chain, elapsed) + String.format(", size=%d, fired=%d, errors=%d%s",
+					bytes.length, getFired(), getErrors(), failure != null ? ", first=" + failure : "");
+		}
+	}
+}
@@ -10,7 +10,8 @@ import org.apache.ignite.internal.util.typedef.internal.U;
 import java.io.InputStream;
 
 /**
- *
+ * 批量读取并统计吞吐可以使用 IpcSharedMemoryLab
+ * <p>
  * https://github.com/apache/ignite/blob/master/modules/core/src/main/java/org/apache/ignite/internal/util/ipc/shmem/IpcSharedMemoryServerEndpoint.java
  *
  * @author su18
@@ -0,0 +1,353 @@
+package org.su18.serialize.ignite;
+
+import org.apache.ignite.IgniteCheckedException;
+import org.apache.ignite.internal.util.ipc.IpcEndpoint;
+import org.apache.ignite.internal.util.ipc.shmem.IpcSharedMemoryClientEndpoint;
+import org.apache.ignite.internal.util.ipc.shmem.IpcSharedMemoryServerEndpoint;
+import org.apache.ignite.internal.util.typedef.internal.U;
+import org.apache.ignite.logger.NullLogger;
+import org.su18.serialize.lab.AsyncLog;
+import org.su18.serialize.lab.Canary;
+import org.su18.serialize.lab.DeserializationSimulator;
+import org.su18.serialize.lab.LatencyRecorder;
+import org.su18.serialize.rmi.client.exploit.RMIClientExploitServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ignite 共享内存 IPC 的实验端点，替代 IgniteTest 中每次 read 一个字节再 sleep 50ms 的读取方式
+ * <p>
+ * 服务端使用 IpcSharedMemoryServerEndpoint，每个客户端由线程池中的一个线程处理：每次尽量把共享内存中的数据整块读入
+ * 复用的缓冲区，从中切出完整的消息反序列化，缓冲区只在消息比它大时扩容。消息格式与 DeserializationSimulator 的 framed 模式相同，
+ * 4 字节大端长度后面是一个完整的序列化流，因此同一批 payload 可以分别通过共享内存和 TCP 发送，比较两种传输方式
+ * <p>
+ * 统计收到的字节数、消息数、解码延迟，以及由 Canary 判断的触发次数。加载共享内存本地库时会执行 chmod，
+ * 需要先 start 再安装 Canary
+ * <p>
+ * 用法：java IpcSharedMemoryLab [-n 次数] [文件...]，不指定文件时使用 CC6 和一个普通 HashMap，
+ * 分别通过共享内存和 TCP 发送同样的数据并打印两边的 消息/秒 和 MB/秒
+ *
+ * @author su18
+ */
+public class IpcSharedMemoryLab implements Closeable {
+
+	private static final int MAX_FRAME = 64 * 1024 * 1024;
+
+	private final IpcSharedMemoryServerEndpoint server;
+
+	private final ExecutorService workers;
+
+	private final Thread acceptor;
+
+	private final LatencyRecorder recorder = new LatencyRecorder();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong messages = new AtomicLong();
+
+	private final AtomicLong fired = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong connections = new AtomicLong();
+
+	private volatile boolean closed;
+
+
+	/**
+	 * @param port    握手使用的 TCP 端口，默认是 IpcSharedMemoryServerEndpoint.DFLT_IPC_PORT
+	 * @param threads 工作线程数，同时处理的客户端数
+	 * @throws IgniteCheckedException 启动失败，例如当前平台没有共享内存的本地库
+	 */
+	public IpcSharedMemoryLab(int port, int threads) throws IgniteCheckedException {
+		this.server = new IpcSharedMemoryServerEndpoint(U.defaultWorkDirectory());
+		new IgniteTestResources().inject(server);
+		this.server.setPort(port);
+		this.workers = Executors.newFixedThreadPool(threads);
+		this.acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "shmem-accept-" + port);
+		this.acceptor.setDaemon(true);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int          repeat = 20000;
+		List<byte[]> corpus = new ArrayList<byte[]>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-n".equals(args[i])) {
+				repeat = Integer.parseInt(args[++i]);
+			} else {
+				corpus.add(Files.readAllBytes(new File(args[i]).toPath()));
+			}
+		}
+		if (corpus.isEmpty()) {
+			corpus.add(serialize(RMIClientExploitServer.getEvilClass()));
+			corpus.add(serialize(new java.util.HashMap<String, String>()));
+		}
+
+		byte[] frames = frame(corpus);
+		long   total  = (long) repeat * corpus.size();
+
+		// 加载共享内存本地库时会执行 chmod，需要在安装 Canary 之前启动
+		IpcSharedMemoryLab lab = new IpcSharedMemoryLab(IpcSharedMemoryServerEndpoint.DFLT_IPC_PORT, 4).start();
+		long               start;
+		try {
+			if (!Canary.installOrReport()) {
+				return;
+			}
+			AsyncLog.getDefault().setEnabled(false);
+
+			start = System.nanoTime();
+			IpcSharedMemoryClientEndpoint client = new IpcSharedMemoryClientEndpoint(lab.getPort(), new NullLogger());
+			try {
+				write(client.outputStream(), frames, repeat);
+			} finally {
+				client.close();
+			}
+			lab.await(total, 60000);
+			System.out.println(lab.report("shmem", System.nanoTime() - start));
+		} finally {
+			lab.close();
+		}
+
+		DeserializationSimulator simulator = new DeserializationSimulator(
+				new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), true, 4, DeserializationSimulator.ALLOW_ALL).start();
+		try {
+			start = System.nanoTime();
+			Socket socket = new Socket("127.0.0.1", simulator.getPort());
+			try {
+				socket.setTcpNoDelay(true);
+				write(socket.getOutputStream(), frames, repeat);
+				socket.shutdownOutput();
+				// 等服务端处理完后关闭
+				socket.getInputStream().read();
+			} finally {
+				socket.close();
+			}
+			long elapsed = System.nanoTime() - start;
+			long count   = 0;
+			for (DeserializationSimulator.ChainStats stats : simulator.getChains().values()) {
+				count += stats.getRecorder().getCount();
+			}
+			System.out.println(String.format("tcp: messages=%d, %.1f msg/s, %.1f MB/s", count, count / (elapsed / 1e9),
+					frames.length * (double) repeat / 1048576 / (elapsed / 1e9)));
+			System.out.println(simulator.report());
+		} finally {
+			simulator.close();
+		}
+	}
+
+	public IpcSharedMemoryLab start() throws IgniteCheckedException {
+		server.start();
+		acceptor.start();
+		return this;
+	}
+
+	public int getPort() {
+		return server.getPort();
+	}
+
+	private void accept() {
+		while (!closed) {
+			final IpcEndpoint endpoint;
+			try {
+				endpoint = server.accept();
+			} catch (IgniteCheckedException e) {
+				if (!closed) {
+					e.printStackTrace();
+				}
+				return;
+			}
+			connections.incrementAndGet();
+			try {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(endpoint);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				endpoint.close();
+			}
+		}
+	}
+
+	/**
+	 * 处理一个客户端直到对端关闭。buffer[start, end) 是已经读入但还没有解码的数据
+	 */
+	private void serve(IpcEndpoint endpoint) {
+		byte[] buffer = new byte[256 * 1024];
+		int    start  = 0;
+		int    end    = 0;
+		try {
+			InputStream in = endpoint.inputStream();
+			for (; ; ) {
+				int n = in.read(buffer, end, buffer.length - end);
+				if (n < 0) {
+					break;
+				}
+				end += n;
+				bytes.addAndGet(n);
+
+				// 解码缓冲区中所有完整的消息
+				while (end - start >= 4) {
+					int length = readInt(buffer, start);
+					if (length < 0 || length > MAX_FRAME) {
+						throw new IOException("invalid frame length: " + length);
+					}
+					if (end - start - 4 < length) {
+						break;
+					}
+					decode(buffer, start + 4, length);
+					start += 4 + length;
+				}
+
+				// 剩余的半条消息移到开头，放不下时扩容
+				if (start > 0) {
+					System.arraycopy(buffer, start, buffer, 0, end - start);
+					end -= start;
+					start = 0;
+				}
+				if (end >= 4) {
+					int need = 4 + readInt(buffer, 0);
+					if (need > buffer.length) {
+						byte[] grown = new byte[Math.max(need, buffer.length * 2)];
+						System.arraycopy(buffer, 0, grown, 0, end);
+						buffer = grown;
+					}
+				}
+			}
+		} catch (IOException | IgniteCheckedException e) {
+			if (!closed) {
+				errors.incrementAndGet();
+			}
+		} finally {
+			endpoint.close();
+		}
+	}
+
+	private void decode(final byte[] buffer, final int offset, final int length) {
+		long           begin   = System.nanoTime();
+		Canary.Decoded decoded = Canary.decode(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return new ObjectInputStream(new ByteArrayInputStream(buffer, offset, length)).readObject();
+			}
+		});
+		recorder.record(System.nanoTime() - begin);
+		messages.incrementAndGet();
+		if (decoded.isFired()) {
+			fired.incrementAndGet();
+		} else if (decoded.getFailure() != null) {
+			errors.incrementAndGet();
+		}
+	}
+
+	private static int readInt(byte[] b, int offset) {
+		return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16) | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+	}
+
+	/**
+	 * 等待处理完指定数量的消息
+	 *
+	 * @return 超时返回 false
+	 */
+	public boolean await(long count, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (messages.get() < count) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public long getMessages() {
+		return messages.get();
+	}
+
+	public long getFired() {
+		return fired.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getConnections() {
+		return connections.get();
+	}
+
+	public LatencyRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * @param name         名称
+	 * @param elapsedNanos 统计的时间范围
+	 */
+	public String report(String name, long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		return String.format("%s: messages=%d, %.1f msg/s, %.1f MB/s, fired=%d, errors=%d%n", name, getMessages(),
+				getMessages() / seconds, getBytes() / 1048576.0 / seconds, getFired(), getErrors())
+				+ recorder.summary(name + " decode", elapsedNanos);
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		server.close();
+		workers.shutdownNow();
+	}
+
+	/**
+	 * 把每个 payload 加上长度头后拼在一起，发送时一次写出
+	 */
+	public static byte[] frame(List<byte[]> corpus) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream      dos = new DataOutputStream(bos);
+		for (byte[] payload : corpus) {
+			dos.writeInt(payload.length);
+			dos.write(payload);
+		}
+		dos.close();
+		return bos.toByteArray();
+	}
+
+	/**
+	 * 重复写出同一组消息
+	 */
+	public static void write(OutputStream out, byte[] frames, int repeat) throws IOException {
+		for (int i = 0; i < repeat; i++) {
+			out.write(frames);
+		}
+		out.flush();
+	}
+
+	private static byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream    oos = new ObjectOutputStream(bos);
+		oos.writeObject(object);
+		oos.close();
+		return bos.toByteArray();
+	}
+}
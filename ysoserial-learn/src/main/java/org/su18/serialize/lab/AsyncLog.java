@@ -0,0 +1,195 @@
+package org.su18.serialize.lab;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志，业务线程只把日志放入环形缓冲，由单独的后台线程格式化并写出，不会在 System.err 的锁上互相等待
+ * <p>
+ * 缓冲满时直接丢弃并计数，不阻塞业务线程。日志格式为 key=value，便于 grep：
+ * 12:00:00.000 [jrmp-worker-1] call remote=/127.0.0.1:50000 objID=[0:0:0, 2] dgc=true
+ * <p>
+ * 默认开启，可以通过 -Dsu18.log=false 或 setEnabled(false) 关闭，关闭后调用方应当用 isEnabled 判断，避免拼接参数
+ *
+ * @author su18
+ */
+public class AsyncLog {
+
+	private static final AsyncLog DEFAULT = new AsyncLog(System.err, 8192, !"false".equals(System.getProperty("su18.log")));
+
+	private final PrintStream out;
+
+	private final AtomicReferenceArray<Entry> ring;
+
+	private final int mask;
+
+	/**
+	 * 下一个写入位置，由生产者 CAS 占用
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * 下一个读取位置，只有后台线程修改
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile boolean enabled;
+
+	private volatile Thread writer;
+
+
+	/**
+	 * @param out      输出
+	 * @param capacity 缓冲大小，向上取整为 2 的幂
+	 * @param enabled  是否开启
+	 */
+	public AsyncLog(PrintStream out, int capacity, boolean enabled) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.out = out;
+		this.ring = new AtomicReferenceArray<Entry>(size);
+		this.mask = size - 1;
+		this.enabled = enabled;
+	}
+
+	public static AsyncLog getDefault() {
+		return DEFAULT;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * 记录一条日志
+	 *
+	 * @param event 事件名
+	 * @param kv    交替出现的 key 和 value
+	 */
+	public void log(String event, Object... kv) {
+		if (!enabled) {
+			return;
+		}
+
+		long seq;
+		for (; ; ) {
+			seq = tail.get();
+			if (seq - head.get() > mask) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (tail.compareAndSet(seq, seq + 1)) {
+				break;
+			}
+		}
+
+		ensureWriter();
+		ring.set((int) seq & mask, new Entry(System.currentTimeMillis(), Thread.currentThread().getName(), event, kv));
+	}
+
+	/**
+	 * 等待已经放入缓冲的日志全部写出
+	 *
+	 * @param timeoutMillis 超时时间
+	 * @return 全部写出时返回 true
+	 */
+	public boolean flush(long timeoutMillis) {
+		long target   = tail.get();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (head.get() < target) {
+			if (System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		return true;
+	}
+
+	private void ensureWriter() {
+		if (writer != null) {
+			return;
+		}
+		synchronized (this) {
+			if (writer == null) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						drain();
+					}
+				}, "async-log");
+				thread.setDaemon(true);
+				thread.start();
+				writer = thread;
+			}
+		}
+	}
+
+	/**
+	 * 后台线程，按顺序取出日志。槽位已被占用但还没有写入时短暂自旋，缓冲为空时逐步延长休眠
+	 */
+	private void drain() {
+		SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+		StringBuilder    sb     = new StringBuilder(256);
+		long             idle   = 0;
+
+		for (; ; ) {
+			long  seq   = head.get();
+			int   index = (int) seq & mask;
+			Entry entry = ring.get(index);
+
+			if (entry == null) {
+				if (seq == tail.get()) {
+					out.flush();
+					idle = Math.min(idle + 1, 100);
+					LockSupport.parkNanos(idle * 10000L);
+				} else {
+					Thread.yield();
+				}
+				continue;
+			}
+
+			idle = 0;
+			ring.set(index, null);
+
+			sb.setLength(0);
+			sb.append(format.format(new Date(entry.millis))).append(" [").append(entry.thread).append("] ").append(entry.event);
+			for (int i = 0; i + 1 < entry.kv.length; i += 2) {
+				sb.append(' ').append(entry.kv[i]).append('=').append(entry.kv[i + 1]);
+			}
+			out.println(sb);
+			head.lazySet(seq + 1);
+		}
+	}
+
+	private static final class Entry {
+
+		final long millis;
+
+		final String thread;
+
+		final String event;
+
+		final Object[] kv;
+
+		Entry(long millis, String thread, String event, Object[] kv) {
+			this.millis = millis;
+			this.thread = thread;
+			this.event = event;
+			this.kv = kv;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package org.su18.serialize.lab;
+
+import java.security.Permission;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 命令执行 canary，install 安装一个只覆盖 checkExec 的 SecurityManager，记录并阻止命令执行，其他权限全部放行，
+ * 因此链可以完整跑到 Runtime.exec 而不会真的执行命令
+ * <p>
+ * 解码前调用 arm，结束后调用 disarm 取回本线程在这期间被拦截的第一条命令，用来判断一次解码是否触发了链，
+ * decode 把这两步和异常处理合在一起。SecurityManager 影响整个 JVM，只应在实验进程中使用
+ *
+ * @author su18
+ */
+public final class Canary {
+
+	private static final ThreadLocal<String[]> ARMED = new ThreadLocal<String[]>();
+
+	private static final AtomicLong HITS = new AtomicLong();
+
+	private static volatile boolean installed;
+
+	private Canary() {
+	}
+
+	/**
+	 * 安装 SecurityManager，重复调用只安装一次
+	 *
+	 * @return 是否安装成功，JDK 18 之后需要 -Djava.security.manager=allow
+	 */
+	public static synchronized boolean install() {
+		if (installed) {
+			return true;
+		}
+		try {
+			System.setSecurityManager(new CanarySecurityManager());
+			installed = true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		} catch (SecurityException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 供实验程序的 main 使用，安装失败时在 stderr 说明原因
+	 *
+	 * @return 是否安装成功
+	 */
+	public static boolean installOrReport() {
+		if (install()) {
+			return true;
+		}
+		System.err.println("* canary not installed (JDK 18+ needs -Djava.security.manager=allow), refusing to deserialize");
+		return false;
+	}
+
+	public static boolean isInstalled() {
+		return installed;
+	}
+
+	/**
+	 * 在 arm 和 disarm 之间执行一次解码
+	 * <p>
+	 * canary 抛出的 SecurityException 通常会被链中的反射调用包装成其他异常，因此解码抛出的 Exception 都作为结果返回；
+	 * Error 只有由 canary 引起时才作为结果返回，其他 Error（例如 OutOfMemoryError）在 disarm 之后原样抛出
+	 *
+	 * @param decoder 解码过程，通常是 readObject
+	 * @return 返回解码结果
+	 */
+	public static Decoded decode(Callable<?> decoder) {
+		Object    value   = null;
+		Throwable failure = null;
+		String    command;
+		arm();
+		try {
+			value = decoder.call();
+		} catch (Exception e) {
+			failure = e;
+		} catch (Error e) {
+			if (!causedByCanary(e)) {
+				throw e;
+			}
+			failure = e;
+		} finally {
+			command = disarm();
+		}
+		return new Decoded(value, failure, command);
+	}
+
+	private static boolean causedByCanary(Throwable e) {
+		for (int i = 0; e != null && i < 32; i++, e = e.getCause()) {
+			if (e instanceof CanaryException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 开始记录当前线程被拦截的命令
+	 */
+	public static void arm() {
+		ARMED.set(new String[1]);
+	}
+
+	/**
+	 * 停止记录
+	 *
+	 * @return 返回 arm 之后当前线程第一条被拦截的命令，没有时返回 null
+	 */
+	public static String disarm() {
+		String[] hit = ARMED.get();
+		ARMED.remove();
+		return hit != null ? hit[0] : null;
+	}
+
+	/**
+	 * 拦截的命令总数，包括没有 arm 的线程
+	 */
+	public static long getHits() {
+		return HITS.get();
+	}
+
+	/**
+	 * 一次 decode 的结果
+	 */
+	public static final class Decoded {
+
+		private final Object value;
+
+		private final Throwable failure;
+
+		private final String command;
+
+		Decoded(Object value, Throwable failure, String command) {
+			this.value = value;
+			this.failure = failure;
+			this.command = command;
+		}
+
+		/**
+		 * 解码得到的对象，失败时为 null
+		 */
+		public Object getValue() {
+			return value;
+		}
+
+		/**
+		 * 解码抛出的异常，成功时为 null
+		 */
+		public Throwable getFailure() {
+			return failure;
+		}
+
+		/**
+		 * 被拦截的第一条命令，没有触发时为 null
+		 */
+		public String getCommand() {
+			return command;
+		}
+
+		public boolean isFired() {
+			return command != null;
+		}
+	}
+
+	private static final class CanaryException extends SecurityException {
+
+		private static final long serialVersionUID = 1L;
+
+		CanaryException(String message) {
+			super(message);
+		}
+	}
+
+	private static final class CanarySecurityManager extends SecurityManager {
+
+		@Override
+		public void checkPermission(Permission perm) {
+		}
+
+		@Override
+		public void checkPermission(Permission perm, Object context) {
+		}
+
+		@Override
+		public void checkExec(String cmd) {
+			HITS.incrementAndGet();
+			String[] hit = ARMED.get();
+			if (hit != null && hit[0] == null) {
+				hit[0] = cmd;
+			}
+			AsyncLog log = AsyncLog.getDefault();
+			if (log.isEnabled()) {
+				log.log("canary", "cmd", cmd, "armed", hit != null);
+			}
+			throw new CanaryException("canary blocked exec: " + cmd);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package org.su18.serialize.lab;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的 HTTP codebase 服务，替代单独启动的 python -m http.server 之类的 web 服务，
+ * 供 C3P0、Resin、RMI codebase、URLClassLoader 等需要远程加载类或 jar 的场景使用
+ * <p>
+ * 内容放在内存中的路径表里，put 时就把状态行、响应头和内容拼接成一个只读的 direct buffer，
+ * 请求到来时只 duplicate 后直接写入 SocketChannel，不再经过堆内复制；多个 pipeline 的响应用 gathering write 一次写出
+ * <p>
+ * 单个 selector 线程处理全部连接，支持 HTTP/1.1 keep-alive，只处理 GET 和 HEAD，默认只监听 127.0.0.1
+ * <p>
+ * 用法：java CodebaseServer [端口]，生成一个空类放到 codebase 中，再用 URLClassLoader 加载验证
+ *
+ * @author su18
+ */
+public class CodebaseServer extends SelectorServer {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static final int MAX_REQUEST = 8192;
+
+	private static final Entry NOT_FOUND = new Entry(404, "Not Found", "text/plain", "not found".getBytes(ASCII));
+
+	private static final Entry NOT_ALLOWED = new Entry(405, "Method Not Allowed", "text/plain", "method not allowed".getBytes(ASCII));
+
+	private static final Entry BAD_REQUEST = new Entry(400, "Bad Request", "text/plain", "bad request".getBytes(ASCII));
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+
+	/**
+	 * @param address 监听地址，端口为 0 时由系统分配
+	 * @throws IOException 监听失败
+	 */
+	public CodebaseServer(InetSocketAddress address) throws IOException {
+		super(address, "codebase-http");
+	}
+
+	/**
+	 * 监听 127.0.0.1 上的随机端口
+	 */
+	public CodebaseServer() throws IOException {
+		this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+	}
+
+	public static void main(String[] args) throws Exception {
+		long           start  = System.nanoTime();
+		int            port   = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+		CodebaseServer server = new CodebaseServer(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port)).start();
+		System.out.printf("* Codebase %s started in %.1fms%n", server.getURL(), (System.nanoTime() - start) / 1e6);
+
+		CtClass clazz = ClassPool.getDefault().makeClass("su18.CodebaseProbe");
+		server.putClass(clazz.getName(), clazz.toBytecode());
+
+		LatencyRecorder recorder = new LatencyRecorder();
+		long            begin    = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			long           t      = System.nanoTime();
+			URLClassLoader loader = new URLClassLoader(new URL[]{server.getURL()}, null);
+			loader.loadClass("su18.CodebaseProbe");
+			loader.close();
+			recorder.record(System.nanoTime() - t);
+		}
+		System.out.println(recorder.summary("URLClassLoader.loadClass", System.nanoTime() - begin));
+		System.out.println("requests=" + server.getRequests() + ", misses=" + server.getMisses()
+				+ ", connections=" + server.getConnections() + ", hits=" + server.getHits("/su18/CodebaseProbe.class"));
+		server.close();
+	}
+
+	public CodebaseServer start() {
+		startLoop();
+		return this;
+	}
+
+	/**
+	 * codebase 地址，以 / 结尾，可以直接作为 URLClassLoader 或 java.rmi.server.codebase 的值
+	 */
+	public URL getURL() {
+		try {
+			InetAddress address = channel.socket().getInetAddress();
+			String      host    = address.isAnyLocalAddress() ? "127.0.0.1" : address.getHostAddress();
+			return new URL("http", host, getPort(), "/");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 放入一个文件，已存在时替换
+	 *
+	 * @param path        以 / 开头的路径
+	 * @param content     内容
+	 * @param contentType Content-Type
+	 */
+	public void put(String path, byte[] content, String contentType) {
+		if (!path.startsWith("/")) {
+			path = "/" + path;
+		}
+		entries.put(path, new Entry(200, "OK", contentType, content));
+	}
+
+	/**
+	 * 按类名放入字节码，路径为 /a/b/C.class
+	 */
+	public void putClass(String className, byte[] bytecode) {
+		put("/" + className.replace('.', '/') + ".class", bytecode, "application/java-vm");
+	}
+
+	public void putJar(String path, byte[] jar) {
+		put(path, jar, "application/java-archive");
+	}
+
+	public boolean remove(String path) {
+		return entries.remove(path.startsWith("/") ? path : "/" + path) != null;
+	}
+
+	/**
+	 * 某个路径被请求成功的次数，路径不存在时返回 -1
+	 */
+	public long getHits(String path) {
+		Entry entry = entries.get(path.startsWith("/") ? path : "/" + path);
+		return entry == null ? -1 : entry.hits.get();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	Connection newConnection() {
+		return new Connection();
+	}
+
+	@Override
+	void read(SelectionKey key) throws IOException {
+		SocketChannel client     = (SocketChannel) key.channel();
+		Connection    connection = (Connection) key.attachment();
+		int           n          = client.read(connection.input);
+		if (n < 0) {
+			// 客户端关闭了写方向，写完已经排队的响应后关闭
+			connection.closeAfterWrite = true;
+			if (connection.output.isEmpty()) {
+				close(key);
+				return;
+			}
+		}
+
+		// 处理缓冲中完整的请求，可能有多个 pipeline 的请求
+		ByteBuffer input = connection.input;
+		input.flip();
+		int end;
+		while (!connection.closeAfterWrite && (end = headerEnd(input)) >= 0) {
+			String request = new String(input.array(), input.position(), end - input.position(), ASCII);
+			input.position(end + 4);
+			handle(connection, request);
+		}
+		input.compact();
+
+		if (!input.hasRemaining() && connection.output.isEmpty()) {
+			// 请求头超过缓冲大小
+			connection.queue(BAD_REQUEST, false);
+			connection.closeAfterWrite = true;
+		}
+		if (!connection.output.isEmpty()) {
+			write(key);
+		}
+	}
+
+	/**
+	 * 查找请求头结束的 \r\n\r\n
+	 *
+	 * @return 返回 \r\n\r\n 在数组中的起始位置，不完整时返回 -1
+	 */
+	private static int headerEnd(ByteBuffer input) {
+		byte[] array = input.array();
+		for (int i = input.position(), limit = input.limit() - 3; i < limit; i++) {
+			if (array[i] == '\r' && array[i + 1] == '\n' && array[i + 2] == '\r' && array[i + 3] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void handle(Connection connection, String request) {
+		requests.incrementAndGet();
+
+		int      lineEnd = request.indexOf("\r\n");
+		String   line    = lineEnd < 0 ? request : request.substring(0, lineEnd);
+		String   headers = lineEnd < 0 ? "" : request.substring(lineEnd).toLowerCase();
+		String[] parts   = line.split(" ");
+		if (parts.length != 3) {
+			connection.queue(BAD_REQUEST, false);
+			connection.closeAfterWrite = true;
+			return;
+		}
+
+		// HTTP/1.1 默认保持连接，HTTP/1.0 需要显式声明
+		boolean keepAlive = "HTTP/1.1".equals(parts[2]) ? !headers.contains("\r\nconnection: close")
+				: headers.contains("\r\nconnection: keep-alive");
+		boolean head      = "HEAD".equals(parts[0]);
+		if (!head && !"GET".equals(parts[0])) {
+			connection.queue(NOT_ALLOWED, false);
+			connection.closeAfterWrite = true;
+			return;
+		}
+
+		String path  = parts[1];
+		int    query = path.indexOf('?');
+		if (query >= 0) {
+			path = path.substring(0, query);
+		}
+		Entry entry = entries.get(path);
+		if (entry == null) {
+			misses.incrementAndGet();
+			entry = NOT_FOUND;
+		} else {
+			entry.hits.incrementAndGet();
+		}
+		connection.queue(entry, head);
+		if (!keepAlive) {
+			connection.closeAfterWrite = true;
+		}
+
+		if (log.isEnabled()) {
+			log.log("codebase", "method", parts[0], "path", path, "status", entry.status, "keepAlive", keepAlive);
+		}
+	}
+
+	/**
+	 * 预先编码好的响应
+	 */
+	private static final class Entry {
+
+		private final int status;
+
+		private final ByteBuffer response;
+
+		private final int headerLength;
+
+		private final AtomicLong hits = new AtomicLong();
+
+		Entry(int status, String reason, String contentType, byte[] content) {
+			byte[] header = ("HTTP/1.1 " + status + " " + reason + "\r\n"
+					+ "Server: su18-codebase\r\n"
+					+ "Content-Type: " + contentType + "\r\n"
+					+ "Content-Length: " + content.length + "\r\n\r\n").getBytes(ASCII);
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect(header.length + content.length);
+			buffer.put(header).put(content).flip();
+			this.status = status;
+			this.response = buffer.asReadOnlyBuffer();
+			this.headerLength = header.length;
+		}
+
+		/**
+		 * 每个请求使用独立的 position/limit，共享同一块内存
+		 */
+		ByteBuffer slice(boolean head) {
+			ByteBuffer duplicate = response.duplicate();
+			if (head) {
+				duplicate.limit(headerLength);
+			}
+			return duplicate;
+		}
+	}
+
+	private static final class Connection extends SelectorServer.Connection {
+
+		Connection() {
+			super(MAX_REQUEST);
+		}
+
+		void queue(Entry entry, boolean head) {
+			output.add(entry.slice(head));
+		}
+	}
+}
@@ -0,0 +1,453 @@
+package org.su18.serialize.lab;
+
+import org.su18.serialize.rmi.jrmp.JRMPServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模拟存在反序列化漏洞的 TCP 服务，用于测量端到端的吞吐，例如 ignite.Attack 发送 CC6WithHashSet.bin 的 10500 端口
+ * <p>
+ * 两种数据格式：
+ * unframed  每个连接一个 ObjectInputStream，连续 readObject 直到对端关闭
+ * framed    每条数据前有 4 字节大端长度，每条数据单独创建 ObjectInputStream，与 PayloadDelivery -framed 对应
+ * <p>
+ * 类过滤通过 resolveClass 实现，ClassFilter 可以替换；是否触发链由 Canary 判断，main 中默认安装，
+ * 安装失败时不启动，只有指定 -no-canary 才会在没有 Canary 的情况下接收数据
+ * <p>
+ * 连接由固定大小的线程池处理，每次 readObject 按链统计解码延迟和结果，链以流中第一个类（根对象的类）区分，
+ * 例如 java.util.HashSet（CC6）、java.util.PriorityQueue（CC2/CB1）
+ * <p>
+ * 用法：java DeserializationSimulator [端口] [-framed] [-w 线程数] [-deny 前缀,前缀] [-no-canary]，每 5 秒打印一次统计
+ *
+ * @author su18
+ */
+public class DeserializationSimulator implements Closeable {
+
+	/**
+	 * 类过滤，返回 false 时拒绝反序列化该类
+	 */
+	public interface ClassFilter {
+
+		boolean accept(String className);
+	}
+
+	public static final ClassFilter ALLOW_ALL = new ClassFilter() {
+		@Override
+		public boolean accept(String className) {
+			return true;
+		}
+	};
+
+	public enum Outcome {
+		OK, REJECTED, CANARY, ERROR
+	}
+
+	private static final int MAX_FRAME = 64 * 1024 * 1024;
+
+	private static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+	private final AsyncLog log = AsyncLog.getDefault();
+
+	private final ConcurrentMap<String, ChainStats> chains = new ConcurrentHashMap<String, ChainStats>();
+
+	private final ServerSocket server;
+
+	private final ExecutorService workers;
+
+	private final boolean framed;
+
+	private final ClassFilter filter;
+
+	private final AtomicLong connections = new AtomicLong();
+
+	private final long start = System.nanoTime();
+
+	private final Thread acceptor;
+
+	private volatile boolean closed;
+
+
+	/**
+	 * @param address 监听地址
+	 * @param framed  是否带长度头
+	 * @param threads 工作线程数，同时处理的连接数
+	 * @param filter  类过滤
+	 * @throws IOException 监听失败
+	 */
+	public DeserializationSimulator(InetSocketAddress address, boolean framed, int threads, ClassFilter filter) throws IOException {
+		this.server = new ServerSocket();
+		this.server.setReuseAddress(true);
+		this.server.bind(address, 1024);
+		this.framed = framed;
+		this.filter = filter;
+		this.workers = Executors.newFixedThreadPool(threads, new JRMPServer.DaemonThreadFactory("deser-worker"));
+		this.acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "deser-accept-" + server.getLocalPort());
+		this.acceptor.setDaemon(true);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int         port    = args.length > 0 && !args[0].startsWith("-") ? Integer.parseInt(args[0]) : 10500;
+		boolean     framed  = false;
+		int         threads = Runtime.getRuntime().availableProcessors() * 2;
+		ClassFilter filter  = ALLOW_ALL;
+		boolean     canary  = true;
+		for (int i = 0; i < args.length; i++) {
+			if ("-framed".equals(args[i])) {
+				framed = true;
+			} else if ("-w".equals(args[i])) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-deny".equals(args[i])) {
+				filter = denyPrefixes(args[++i].split(","));
+			} else if ("-no-canary".equals(args[i])) {
+				canary = false;
+			}
+		}
+
+		if (!canary) {
+			System.err.println("* -no-canary, commands reached by a chain WILL be executed");
+		} else if (!Canary.installOrReport()) {
+			System.err.println("* pass -no-canary to simulate without it");
+			return;
+		}
+		DeserializationSimulator simulator = new DeserializationSimulator(
+				new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), framed, threads, filter).start();
+		System.err.println("* Simulating on " + simulator.getPort() + (framed ? " (framed)" : "") + ", workers=" + threads);
+		for (; ; ) {
+			Thread.sleep(5000);
+			System.out.println(simulator.report());
+		}
+	}
+
+	/**
+	 * 拒绝以指定前缀开头的类，数组类按元素类型判断
+	 */
+	public static ClassFilter denyPrefixes(final String... prefixes) {
+		return new ClassFilter() {
+			@Override
+			public boolean accept(String className) {
+				String name = className;
+				if (name.startsWith("[")) {
+					name = name.substring(name.lastIndexOf('[') + 1);
+					name = name.startsWith("L") ? name.substring(1) : name;
+				}
+				for (String prefix : prefixes) {
+					if (prefix.length() > 0 && name.startsWith(prefix)) {
+						return false;
+					}
+				}
+				return true;
+			}
+		};
+	}
+
+	public DeserializationSimulator start() {
+		acceptor.start();
+		return this;
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public long getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * 各条链的统计，按链名排序
+	 */
+	public Map<String, ChainStats> getChains() {
+		return new TreeMap<String, ChainStats>(chains);
+	}
+
+	private void accept() {
+		while (!closed) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				if (closed) {
+					return;
+				}
+				// 例如文件描述符耗尽，暂停一下再继续接收，不停止监听
+				if (log.isEnabled()) {
+					log.log("accept.error", "port", getPort(), "error", e);
+				}
+				try {
+					Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+				continue;
+			}
+			connections.incrementAndGet();
+			try {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				closeQuietly(socket);
+			}
+		}
+	}
+
+	/**
+	 * 处理一个连接，直到对端关闭或者流无法继续读取
+	 */
+	private void serve(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+			if (framed) {
+				DataInputStream dis = new DataInputStream(in);
+				for (; ; ) {
+					int length;
+					try {
+						length = dis.readInt();
+					} catch (EOFException e) {
+						break;
+					}
+					if (length < 0 || length > MAX_FRAME) {
+						break;
+					}
+					byte[] frame = new byte[length];
+					dis.readFully(frame);
+					decodeFrame(frame);
+				}
+			} else {
+				FilteringInputStream ois = new FilteringInputStream(in, filter);
+				// 一个流中可能有多个对象，对端关闭或者流损坏之后停止
+				boolean usable = true;
+				while (usable) {
+					usable = decode(ois);
+				}
+			}
+		} catch (IOException ignored) {
+		} finally {
+			closeQuietly(socket);
+		}
+	}
+
+	/**
+	 * 解码一条 framed 数据
+	 */
+	private void decodeFrame(byte[] frame) {
+		long begin = System.nanoTime();
+		try {
+			decode(new FilteringInputStream(new ByteArrayInputStream(frame), filter), begin);
+		} catch (IOException e) {
+			// 流头错误
+			record(new Decode(), Outcome.ERROR, System.nanoTime() - begin);
+		}
+	}
+
+	private boolean decode(FilteringInputStream ois) {
+		return decode(ois, System.nanoTime());
+	}
+
+	/**
+	 * 读取一个对象并记录结果
+	 *
+	 * @param begin 开始时间，framed 模式包括创建 ObjectInputStream 读取流头的时间
+	 * @return 流是否还能继续读取
+	 */
+	private boolean decode(final FilteringInputStream ois, long begin) {
+		Decode decode = new Decode();
+		ois.decode = decode;
+		Canary.Decoded decoded = Canary.decode(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return ois.readObject();
+			}
+		});
+
+		Throwable failure = decoded.getFailure();
+		if (failure instanceof EOFException && decode.chain == null) {
+			// 在对象边界上结束，不是一次解码
+			return false;
+		}
+		if (decode.chain == null && decoded.getValue() != null) {
+			// String 等不经过 resolveClass
+			decode.chain = decoded.getValue().getClass().getName();
+		}
+		// 异常之后流的位置不确定，不再继续读取
+		boolean usable  = failure == null;
+		Outcome outcome = decoded.isFired() ? Outcome.CANARY : usable ? Outcome.OK : decode.rejected ? Outcome.REJECTED : Outcome.ERROR;
+		record(decode, outcome, System.nanoTime() - begin);
+		return usable;
+	}
+
+	private void record(Decode decode, Outcome outcome, long nanos) {
+		String     name  = decode.chain != null ? decode.chain : "(empty)";
+		ChainStats stats = chains.get(name);
+		if (stats == null) {
+			ChainStats created = new ChainStats(name);
+			stats = chains.putIfAbsent(name, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		stats.record(outcome, nanos);
+	}
+
+	/**
+	 * 每条链一行
+	 */
+	public String report() {
+		long          elapsed = System.nanoTime() - start;
+		StringBuilder sb      = new StringBuilder();
+		sb.append("connections=").append(getConnections()).append(", canary=").append(Canary.getHits());
+		for (ChainStats stats : getChains().values()) {
+			sb.append('\n').append(stats.summary(elapsed));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 清空统计
+	 */
+	public void reset() {
+		chains.clear();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		closeQuietly(server);
+		workers.shutdownNow();
+		try {
+			workers.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	/**
+	 * 一次解码过程中的状态
+	 */
+	private static final class Decode {
+
+		private String chain;
+
+		private boolean rejected;
+	}
+
+	/**
+	 * 一条链的统计
+	 */
+	public static final class ChainStats {
+
+		private final String name;
+
+		private final LatencyRecorder recorder = new LatencyRecorder();
+
+		private final AtomicLong[] outcomes = new AtomicLong[Outcome.values().length];
+
+		ChainStats(String name) {
+			this.name = name;
+			for (int i = 0; i < outcomes.length; i++) {
+				outcomes[i] = new AtomicLong();
+			}
+		}
+
+		void record(Outcome outcome, long nanos) {
+			outcomes[outcome.ordinal()].incrementAndGet();
+			recorder.record(nanos);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCount(Outcome outcome) {
+			return outcomes[outcome.ordinal()].get();
+		}
+
+		public LatencyRecorder getRecorder() {
+			return recorder;
+		}
+
+		public String summary(long elapsedNanos) {
+			List<String> parts = new ArrayList<String>();
+			for (Outcome outcome : Outcome.values()) {
+				long count = getCount(outcome);
+				if (count > 0) {
+					parts.add(outcome.name().toLowerCase() + "=" + count);
+				}
+			}
+			return recorder.summary(name, elapsedNanos) + ", " + parts;
+		}
+	}
+
+	/**
+	 * 在 resolveClass 中记录根对象的类并执行过滤
+	 */
+	private static final class FilteringInputStream extends ObjectInputStream {
+
+		private final ClassFilter filter;
+
+		private Decode decode;
+
+		FilteringInputStream(InputStream in, ClassFilter filter) throws IOException {
+			super(in);
+			this.filter = filter;
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			check(desc.getName());
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+			for (String name : interfaces) {
+				check(name);
+			}
+			return super.resolveProxyClass(interfaces);
+		}
+
+		private void check(String name) throws InvalidClassException {
+			if (decode != null && decode.chain == null) {
+				decode.chain = name;
+			}
+			if (!filter.accept(name)) {
+				if (decode != null) {
+					decode.rejected = true;
+				}
+				throw new InvalidClassException(name, "rejected by filter");
+			}
+		}
+	}
+}
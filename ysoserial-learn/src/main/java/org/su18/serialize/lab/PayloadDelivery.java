@@ -0,0 +1,300 @@
+package org.su18.serialize.lab;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 把 payload 文件发送到实验环境的 TCP 端口，每次发送使用一个新连接，发送完成后关闭写方向
+ * <p>
+ * 两种方式：
+ * TRANSFER  每次通过 FileChannel.transferTo 直接从文件发送到 socket，数据不经过用户态缓冲
+ * MAPPED    文件第一次使用时映射到内存并按路径缓存，之后每次只写出缓冲的 duplicate；长度或修改时间变化时重新映射并替换旧的映射
+ * <p>
+ * framed 为 true 时先写 4 字节大端长度，与 DeserializationSimulator 的 framed 模式对应，超过 2GB 的文件不能 framed 发送
+ * <p>
+ * 用法：java PayloadDelivery 文件 [host:port] [-mode transfer|mapped] [-n 次数] [-rate 每秒次数] [-c 线程数] [-framed]
+ *
+ * @author su18
+ */
+public class PayloadDelivery {
+
+	public enum Mode {
+		TRANSFER, MAPPED
+	}
+
+	private static final Map<String, Mapping> MAPPED = new ConcurrentHashMap<String, Mapping>();
+
+	private final InetSocketAddress target;
+
+	private final Mode mode;
+
+	private final boolean framed;
+
+	private final int timeoutMillis;
+
+	private final AtomicLong sent = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong missed = new AtomicLong();
+
+
+	public PayloadDelivery(InetSocketAddress target, Mode mode, boolean framed, int timeoutMillis) {
+		this.target = target;
+		this.mode = mode;
+		this.framed = framed;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: PayloadDelivery <file> [host:port] [-mode transfer|mapped] [-n repeat] [-rate n] [-c threads] [-framed]");
+			return;
+		}
+
+		File    file    = new File(args[0]);
+		String  target  = args.length > 1 && !args[1].startsWith("-") ? args[1] : "127.0.0.1:10500";
+		Mode    mode    = Mode.MAPPED;
+		int     repeat  = 1;
+		double  rate    = 0;
+		int     threads = 1;
+		boolean framed  = false;
+		for (int i = 1; i < args.length; i++) {
+			if ("-mode".equals(args[i])) {
+				mode = Mode.valueOf(args[++i].toUpperCase());
+			} else if ("-n".equals(args[i])) {
+				repeat = Integer.parseInt(args[++i]);
+			} else if ("-rate".equals(args[i])) {
+				rate = Double.parseDouble(args[++i]);
+			} else if ("-c".equals(args[i])) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-framed".equals(args[i])) {
+				framed = true;
+			}
+		}
+
+		int               colon    = target.lastIndexOf(':');
+		InetSocketAddress address  = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+		PayloadDelivery   delivery = new PayloadDelivery(address, mode, framed, 5000);
+		LatencyRecorder   recorder = new LatencyRecorder();
+		long              elapsed  = delivery.run(file, repeat, rate, threads, recorder);
+
+		System.out.println(recorder.summary(file.getName() + " -> " + address + " " + mode, elapsed) + String.format(
+				", %.1f MB/s, errors=%d, missed=%d", delivery.getBytes() / 1048576.0 / (elapsed / 1e9), delivery.getErrors(), delivery.getMissed()));
+	}
+
+	/**
+	 * 发送一次
+	 *
+	 * @param file payload 文件
+	 * @return 返回发送的字节数，包括长度头
+	 * @throws IOException 连接或发送失败
+	 */
+	public long send(File file) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().setSoTimeout(timeoutMillis);
+			channel.socket().connect(target, timeoutMillis);
+
+			long written = mode == Mode.MAPPED ? sendMapped(channel, file) : sendTransfer(channel, file);
+			channel.socket().shutdownOutput();
+			sent.incrementAndGet();
+			bytes.addAndGet(written);
+			return written;
+		} finally {
+			channel.close();
+		}
+	}
+
+	private long sendTransfer(SocketChannel channel, File file) throws IOException {
+		FileChannel in = new RandomAccessFile(file, "r").getChannel();
+		try {
+			long size     = in.size();
+			long written  = framed ? writeFully(channel, header(size)) : 0;
+			long position = 0;
+			while (position < size) {
+				long n = in.transferTo(position, size - position, channel);
+				if (n <= 0 && in.size() < size) {
+					throw new IOException("file truncated while sending: " + file);
+				}
+				position += n;
+			}
+			return written + size;
+		} finally {
+			in.close();
+		}
+	}
+
+	private long sendMapped(SocketChannel channel, File file) throws IOException {
+		ByteBuffer buffer = map(file).duplicate();
+		return framed ? writeFully(channel, header(buffer.remaining()), buffer) : writeFully(channel, buffer);
+	}
+
+	/**
+	 * 阻塞模式下 gathering write 直到全部写完
+	 */
+	private static long writeFully(SocketChannel channel, ByteBuffer... buffers) throws IOException {
+		long written = 0;
+		while (buffers[buffers.length - 1].hasRemaining()) {
+			written += channel.write(buffers);
+		}
+		return written;
+	}
+
+	private static ByteBuffer header(long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("payload of " + size + " bytes does not fit in a 4-byte frame length");
+		}
+		ByteBuffer header = ByteBuffer.allocate(4);
+		header.putInt((int) size).flip();
+		return header;
+	}
+
+	/**
+	 * 映射文件并缓存，每个路径只保留一个映射，文件长度或修改时间变化后重新映射并替换旧的映射
+	 */
+	public static MappedByteBuffer map(File file) throws IOException {
+		String  path     = file.getCanonicalPath();
+		long    length   = file.length();
+		long    modified = file.lastModified();
+		Mapping mapping  = MAPPED.get(path);
+		if (mapping == null || mapping.length != length || mapping.modified != modified) {
+			MappedByteBuffer buffer;
+			FileChannel      channel = new RandomAccessFile(file, "r").getChannel();
+			try {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				buffer.load();
+			} finally {
+				// 映射在通道关闭后仍然有效
+				channel.close();
+			}
+			// 旧的映射不再被引用，由 GC 释放
+			mapping = new Mapping(length, modified, buffer);
+			MAPPED.put(path, mapping);
+		}
+		return mapping.buffer;
+	}
+
+	/**
+	 * 重复发送
+	 *
+	 * @param file     payload 文件
+	 * @param repeat   次数
+	 * @param rate     每秒次数，小于等于 0 时每个线程发完一次立即发送下一次
+	 * @param threads  线程数
+	 * @param recorder 每次发送的延迟，固定节奏时从计划时间开始计算
+	 * @return 返回总耗时（纳秒）
+	 * @throws InterruptedException 中断异常
+	 */
+	public long run(final File file, final int repeat, double rate, int threads, final LatencyRecorder recorder) throws InterruptedException {
+		final BlockingQueue<Long> queue = new ArrayBlockingQueue<Long>(Math.max(1024, threads * 64));
+		final CountDownLatch      done  = new CountDownLatch(threads);
+		final AtomicLong          next  = new AtomicLong();
+		final boolean             paced = rate > 0;
+		long                      start = System.nanoTime();
+
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (; ; ) {
+							long scheduled;
+							if (paced) {
+								scheduled = queue.take();
+								if (scheduled == Long.MIN_VALUE) {
+									break;
+								}
+							} else if (next.getAndIncrement() < repeat) {
+								scheduled = System.nanoTime();
+							} else {
+								break;
+							}
+							try {
+								send(file);
+								recorder.record(System.nanoTime() - scheduled);
+							} catch (IOException e) {
+								errors.incrementAndGet();
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "payload-delivery-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		if (paced) {
+			double interval = 1e9 / rate;
+			for (long n = 0; n < repeat; n++) {
+				long scheduled = start + (long) (n * interval);
+				long wait      = scheduled - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				if (!queue.offer(scheduled)) {
+					missed.incrementAndGet();
+				}
+			}
+			for (int i = 0; i < threads; i++) {
+				queue.put(Long.MIN_VALUE);
+			}
+		}
+		done.await();
+		return System.nanoTime() - start;
+	}
+
+	public long getSent() {
+		return sent.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getMissed() {
+		return missed.get();
+	}
+
+	/**
+	 * 缓存的映射，以及映射时文件的长度和修改时间
+	 */
+	private static final class Mapping {
+
+		private final long length;
+
+		private final long modified;
+
+		private final MappedByteBuffer buffer;
+
+		Mapping(long length, long modified, MappedByteBuffer buffer) {
+			this.length = length;
+			this.modified = modified;
+			this.buffer = buffer;
+		}
+	}
+}
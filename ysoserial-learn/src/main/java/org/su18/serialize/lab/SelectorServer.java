@@ -0,0 +1,252 @@
+package org.su18.serialize.lab;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个 selector 线程的 NIO 服务端，CodebaseServer 和 LdapReferenceServer 共用的 accept、写出和关闭逻辑
+ * <p>
+ * 子类实现 newConnection 和 read：read 从 Connection.input 中解析完整的请求，把响应放入 Connection.output 后调用 write，
+ * 多个响应用 gathering write 一次写出，写不完时注册 OP_WRITE 继续
+ * <p>
+ * 单个连接出错只关闭该连接。accept 失败（例如文件描述符耗尽）时记录日志，暂停 ACCEPT_BACKOFF_MILLIS 后继续接收，
+ * 已建立的连接不受影响，监听只在 close 时停止
+ *
+ * @author su18
+ */
+abstract class SelectorServer implements Closeable {
+
+	private static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+	protected final AsyncLog log = AsyncLog.getDefault();
+
+	private final AtomicLong connections = new AtomicLong();
+
+	final ServerSocketChannel channel;
+
+	private final Selector selector;
+
+	private final SelectionKey acceptKey;
+
+	private final Thread thread;
+
+	private volatile boolean closed;
+
+	/**
+	 * 暂停 accept 时恢复的时间，0 表示没有暂停，只在 selector 线程中访问
+	 */
+	private long acceptResume;
+
+
+	/**
+	 * @param address 监听地址，端口为 0 时由系统分配
+	 * @param name    selector 线程名的前缀
+	 * @throws IOException 监听失败
+	 */
+	SelectorServer(InetSocketAddress address, String name) throws IOException {
+		this.selector = Selector.open();
+		this.channel = ServerSocketChannel.open();
+		try {
+			this.channel.socket().setReuseAddress(true);
+			this.channel.socket().bind(address, 1024);
+			this.channel.configureBlocking(false);
+			this.acceptKey = this.channel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			closeQuietly(channel);
+			closeQuietly(selector);
+			throw e;
+		}
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, name + "-" + getPort());
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * 新连接的状态
+	 */
+	abstract Connection newConnection();
+
+	/**
+	 * 连接可读时调用，抛出异常时关闭该连接
+	 */
+	abstract void read(SelectionKey key) throws IOException;
+
+	void startLoop() {
+		thread.start();
+	}
+
+	public int getPort() {
+		return channel.socket().getLocalPort();
+	}
+
+	public long getConnections() {
+		return connections.get();
+	}
+
+	private void loop() {
+		try {
+			while (!closed) {
+				if (acceptResume == 0) {
+					selector.select();
+				} else {
+					selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(acceptResume - System.nanoTime())));
+					if (System.nanoTime() - acceptResume >= 0) {
+						acceptResume = 0;
+						if (acceptKey.isValid()) {
+							acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+						}
+					}
+				}
+
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key == acceptKey) {
+						accept();
+						continue;
+					}
+					try {
+						if (key.isReadable()) {
+							read(key);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(key);
+						}
+					} catch (IOException e) {
+						close(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			if (!closed && log.isEnabled()) {
+				log.log("selector.error", "thread", thread.getName(), "error", e);
+			}
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			closeQuietly(selector);
+		}
+	}
+
+	/**
+	 * 接收全部等待中的连接，单个连接初始化失败时只关闭该连接，accept 本身失败时暂停接收
+	 */
+	private void accept() {
+		for (; ; ) {
+			SocketChannel client;
+			try {
+				client = channel.accept();
+			} catch (IOException e) {
+				if (!closed) {
+					if (log.isEnabled()) {
+						log.log("accept.error", "thread", thread.getName(), "error", e);
+					}
+					acceptKey.interestOps(0);
+					acceptResume = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_BACKOFF_MILLIS);
+				}
+				return;
+			}
+			if (client == null) {
+				return;
+			}
+			try {
+				client.configureBlocking(false);
+				client.socket().setTcpNoDelay(true);
+				client.register(selector, SelectionKey.OP_READ, newConnection());
+				connections.incrementAndGet();
+			} catch (IOException e) {
+				closeQuietly(client);
+			}
+		}
+	}
+
+	/**
+	 * 写出连接中排队的响应，写不完时等待可写，写完后按 closeAfterWrite 关闭连接
+	 */
+	void write(SelectionKey key) throws IOException {
+		SocketChannel          client     = (SocketChannel) key.channel();
+		Connection             connection = (Connection) key.attachment();
+		ArrayDeque<ByteBuffer> output     = connection.output;
+
+		while (!output.isEmpty()) {
+			client.write(output.toArray(new ByteBuffer[output.size()]));
+			while (!output.isEmpty() && !output.peek().hasRemaining()) {
+				output.poll();
+			}
+			if (!output.isEmpty()) {
+				// 发送缓冲已满，等待可写
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+		}
+		if (connection.closeAfterWrite) {
+			close(key);
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	static void close(SelectionKey key) {
+		key.cancel();
+		closeQuietly(key.channel());
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	/**
+	 * 停止服务，关闭全部连接
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closeQuietly(channel);
+		// 没有 start 时 selector 线程不会关闭 selector
+		closeQuietly(selector);
+	}
+
+	/**
+	 * 连接状态，只在 selector 线程中访问
+	 */
+	static class Connection {
+
+		final ByteBuffer input;
+
+		final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+
+		boolean closeAfterWrite;
+
+		Connection(int inputSize) {
+			this.input = ByteBuffer.allocate(inputSize);
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package org.su18.serialize.rmi;
+
+import org.su18.serialize.lab.LatencyRecorder;
+import org.su18.serialize.rmi.client.exploit.EvilServer;
+import org.su18.serialize.rmi.client.exploit.JRMPClientExploitDGC;
+import org.su18.serialize.rmi.client.exploit.JRMPListener;
+import org.su18.serialize.rmi.client.exploit.RMIClientExploitRegistry;
+import org.su18.serialize.rmi.client.exploit.RMIClientExploitServer;
+import org.su18.serialize.rmi.jrmp.JRMPServer;
+import org.su18.serialize.rmi.server.RemoteObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 进程内的 RMI 实验环境，在 127.0.0.1 的临时端口上启动 Registry、远程对象和 JRMPListener/EvilServer
+ * <p>
+ * 原来的 RMIRegistry、RMIServer 需要手动启动，固定使用 1099 和 13333 端口，还要从资源中加载 policy 文件，
+ * 同一时间只能跑一个场景。这里每个实例使用自己的 RMIServerSocketFactory，Registry 和远程对象各自占用一个系统分配的端口，
+ * 多个实例可以在同一个 JVM 中并行，互不干扰；不安装 SecurityManager，也不需要 policy 文件和 codebase
+ * <p>
+ * java.rmi.server.hostname 未设置时设置为 127.0.0.1，保证导出的 stub 指向本地回环地址
+ * <p>
+ * 用法：java RMILab [并行实例数]，在每个实例上依次执行 Registry、Server、DGC、JRMPListener 四个场景，payload 为字符串
+ *
+ * @author su18
+ */
+public class RMILab implements Closeable {
+
+	private static final String LOOPBACK = "127.0.0.1";
+
+	static {
+		if (System.getProperty("java.rmi.server.hostname") == null) {
+			System.setProperty("java.rmi.server.hostname", LOOPBACK);
+		}
+	}
+
+	private final LoopbackSocketFactory registryFactory = new LoopbackSocketFactory();
+
+	private final LoopbackSocketFactory serverFactory = new LoopbackSocketFactory();
+
+	private final List<Remote> exported = new ArrayList<Remote>();
+
+	private final List<JRMPListener> listeners = new ArrayList<JRMPListener>();
+
+	private Registry registry;
+
+
+	public static void main(String[] args) throws Exception {
+		int             count    = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		ExecutorService executor = Executors.newFixedThreadPool(count);
+		LatencyRecorder recorder = new LatencyRecorder();
+		long            start    = System.nanoTime();
+
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for (int i = 0; i < count; i++) {
+			futures.add(executor.submit(scenarios(i, recorder)));
+		}
+		try {
+			for (Future<String> future : futures) {
+				System.out.println(future.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		System.out.println(recorder.summary("rmi lab x" + count, System.nanoTime() - start));
+	}
+
+	/**
+	 * 在一个新的实验环境中执行全部场景
+	 */
+	private static Callable<String> scenarios(final int index, final LatencyRecorder recorder) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				long          begin   = System.nanoTime();
+				String        payload = "su18-lab-" + index;
+				StringBuilder result  = new StringBuilder("#" + index);
+
+				RMILab lab = new RMILab();
+				try {
+					lab.startRegistry();
+					lab.bind("Hello");
+					result.append(" registry=").append(lab.getRegistryPort()).append(" server=").append(lab.getServerPort());
+
+					// 场景一：rebind 动态代理，高版本会被 Registry 的过滤器拒绝
+					try {
+						RMIClientExploitRegistry.exploit(lab.getRegistry(), payload);
+						result.append(" | registry: bound");
+					} catch (Exception e) {
+						result.append(" | registry: ").append(rootCause(e));
+					}
+
+					// 场景二：把 payload 作为 Object 参数传给远程对象
+					RemoteInterface stub = (RemoteInterface) lab.lookup("Hello");
+					result.append(" | server: ").append(RMIClientExploitServer.exploit(stub, payload));
+
+					// 场景三：DGC dirty 调用
+					JRMPClientExploitDGC.makeDGCCall(LOOPBACK, lab.getRegistryPort(), payload);
+					result.append(" | dgc: sent");
+
+					// 场景四：客户端连接 JRMPListener，Return 中带回 payload
+					JRMPListener listener = lab.startListener(payload, JRMPServer.Mode.NIO);
+					try {
+						LocateRegistry.getRegistry(LOOPBACK, lab.getPort(listener)).lookup("Hello");
+						result.append(" | listener: no exception");
+					} catch (Exception e) {
+						result.append(" | listener: ").append(listener.waitFor(1000) ? rootCause(e) : "not called");
+					}
+				} finally {
+					lab.close();
+				}
+				recorder.record(System.nanoTime() - begin);
+				return result.toString();
+			}
+		};
+	}
+
+	private static String rootCause(Throwable e) {
+		while (e.getCause() != null && e.getCause() != e) {
+			e = e.getCause();
+		}
+		return e.getClass().getSimpleName() + ": " + e.getMessage();
+	}
+
+	/**
+	 * 在临时端口上创建 Registry，每个实例只能创建一次
+	 *
+	 * @return 返回 Registry 实现，在同一个 JVM 中直接调用
+	 * @throws RemoteException 导出失败
+	 */
+	public synchronized Registry startRegistry() throws RemoteException {
+		if (registry != null) {
+			throw new IllegalStateException("registry already started on " + getRegistryPort());
+		}
+		registry = LocateRegistry.createRegistry(0, null, registryFactory);
+		exported.add(registry);
+		return registry;
+	}
+
+	public int getRegistryPort() {
+		return registryFactory.getPort();
+	}
+
+	/**
+	 * 远程对象监听的端口，使用 bind(String) 或者以 getServerSocketFactory() 导出对象后才有值
+	 */
+	public int getServerPort() {
+		return serverFactory.getPort();
+	}
+
+	/**
+	 * 远程对象使用的 RMIServerSocketFactory，只监听 127.0.0.1
+	 */
+	public RMIServerSocketFactory getServerSocketFactory() {
+		return serverFactory;
+	}
+
+	/**
+	 * 通过网络连接 Registry 的 stub，与远程客户端的行为一致
+	 *
+	 * @return 返回 RegistryImpl_Stub
+	 * @throws RemoteException 异常
+	 */
+	public Registry getRegistry() throws RemoteException {
+		if (registry == null) {
+			throw new IllegalStateException("registry not started");
+		}
+		return LocateRegistry.getRegistry(LOOPBACK, getRegistryPort());
+	}
+
+	/**
+	 * 导出一个 RemoteObject 并绑定到本实例的 Registry
+	 *
+	 * @param name 绑定名称
+	 * @return 返回远程对象
+	 * @throws RemoteException 导出或绑定失败
+	 */
+	public RemoteObject bind(String name) throws RemoteException {
+		RemoteObject object = new RemoteObject(name, 0, null, serverFactory);
+		bind(name, object);
+		return object;
+	}
+
+	/**
+	 * 绑定一个已经导出的远程对象，close 时一并取消导出
+	 *
+	 * @param name   绑定名称
+	 * @param object 远程对象
+	 * @throws RemoteException 绑定失败
+	 */
+	public void bind(String name, Remote object) throws RemoteException {
+		synchronized (this) {
+			exported.add(object);
+		}
+		getRegistry().rebind(name, object);
+	}
+
+	public Remote lookup(String name) throws RemoteException, NotBoundException {
+		return getRegistry().lookup(name);
+	}
+
+	/**
+	 * 在临时端口上启动 JRMPListener，payload 放在 BadAttributeValueExpException 中返回
+	 *
+	 * @param payloadObject payload
+	 * @param mode          并发方式
+	 * @return 返回 JRMPListener
+	 * @throws IOException 监听失败
+	 */
+	public JRMPListener startListener(Object payloadObject, JRMPServer.Mode mode) throws IOException {
+		return track(new JRMPListener(0, payloadObject, mode).start());
+	}
+
+	/**
+	 * 在临时端口上启动 EvilServer，直接返回 payload
+	 *
+	 * @param payloadObject payload
+	 * @return 返回 EvilServer
+	 * @throws IOException 监听失败
+	 */
+	public EvilServer startEvilServer(Object payloadObject) throws IOException {
+		EvilServer server = new EvilServer(0, payloadObject);
+		server.start();
+		return track(server);
+	}
+
+	private synchronized <T extends JRMPListener> T track(T listener) {
+		listeners.add(listener);
+		return listener;
+	}
+
+	/**
+	 * JRMPListener 实际监听的端口
+	 */
+	public int getPort(JRMPListener listener) {
+		return listener.getServer().getAddress().getPort();
+	}
+
+	/**
+	 * 关闭监听，强制取消导出全部远程对象和 Registry，释放端口
+	 */
+	@Override
+	public synchronized void close() {
+		for (JRMPListener listener : listeners) {
+			listener.close();
+		}
+		listeners.clear();
+
+		for (Remote object : exported) {
+			try {
+				UnicastRemoteObject.unexportObject(object, true);
+			} catch (NoSuchObjectException ignored) {
+			}
+		}
+		exported.clear();
+		registry = null;
+	}
+
+	/**
+	 * 只监听 127.0.0.1，记录系统分配的端口。每个实例各自持有不同的工厂，RMI 不会把它们合并到同一个端口上
+	 */
+	private static final class LoopbackSocketFactory implements RMIServerSocketFactory {
+
+		private volatile int port;
+
+		@Override
+		public ServerSocket createServerSocket(int port) throws IOException {
+			ServerSocket socket = new ServerSocket(port, 50, InetAddress.getByName(LOOPBACK));
+			this.port = socket.getLocalPort();
+			return socket;
+		}
+
+		int getPort() {
+			return port;
+		}
+	}
+}
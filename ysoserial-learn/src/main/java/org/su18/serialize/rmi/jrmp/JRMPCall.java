@@ -0,0 +1,66 @@
+package org.su18.serialize.rmi.jrmp;
+
+import java.net.InetSocketAddress;
+import java.rmi.server.ObjID;
+import java.util.Arrays;
+
+/**
+ * 解析出的 JRMP Call 头部：目标对象 ObjID、方法编号（或接口 hash 模式下的 -1）、方法 hash
+ * 对 DGC（ObjID 编号为 2）的调用还会读取第一个参数 ObjID[]
+ *
+ * @author su18
+ */
+public class JRMPCall {
+
+	/**
+	 * DGC 对象的编号
+	 */
+	public static final int DGC_ID = 2;
+
+	private final InetSocketAddress remote;
+
+	private final ObjID objID;
+
+	private final int op;
+
+	private final long hash;
+
+	private final ObjID[] dgcIds;
+
+	public JRMPCall(InetSocketAddress remote, ObjID objID, int op, long hash, ObjID[] dgcIds) {
+		this.remote = remote;
+		this.objID = objID;
+		this.op = op;
+		this.hash = hash;
+		this.dgcIds = dgcIds;
+	}
+
+	public InetSocketAddress getRemote() {
+		return remote;
+	}
+
+	public ObjID getObjID() {
+		return objID;
+	}
+
+	public int getOp() {
+		return op;
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	public ObjID[] getDgcIds() {
+		return dgcIds;
+	}
+
+	public boolean isDGC() {
+		return objID.hashCode() == DGC_ID;
+	}
+
+	@Override
+	public String toString() {
+		return "JRMPCall{" + objID + ", op=" + op + ", hash=" + hash + (dgcIds != null ? ", dgc=" + Arrays.toString(dgcIds) : "") + "}";
+	}
+}
@@ -0,0 +1,317 @@
+package org.su18.serialize.rmi.jrmp;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JRMP 流量抓包，把服务端收发的原始字节写入一个只追加的文件，供 JRMPReplayer 回放
+ * <p>
+ * IO 线程只复制数据并放入无锁队列，由唯一的写线程批量写入文件，不会在磁盘 IO 上阻塞；
+ * 队列中待写入的数据超过上限时丢弃并计数
+ * <p>
+ * 文件格式：8 字节文件头 JRMPCAP1，之后每条记录为
+ * long 距离抓包开始的纳秒数、long 会话编号、byte 类型、int 长度、数据
+ * OPEN 记录的数据为客户端地址（UTF-8），CLOSE 记录没有数据
+ *
+ * @author su18
+ */
+public class JRMPCapture implements Closeable {
+
+	public static final byte OPEN = 0, INBOUND = 1, OUTBOUND = 2, CLOSE = 3;
+
+	private static final byte[] MAGIC = "JRMPCAP1".getBytes(Charset.forName("US-ASCII"));
+
+	private static final int RECORD_HEADER = 8 + 8 + 1 + 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final FileChannel channel;
+
+	private final long maxPending;
+
+	private final long start = System.nanoTime();
+
+	private final Queue<Record> queue = new ConcurrentLinkedQueue<Record>();
+
+	private final AtomicLong sessions = new AtomicLong();
+
+	private final AtomicLong pending = new AtomicLong();
+
+	private final AtomicLong records = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread writer;
+
+	private volatile boolean closed;
+
+	private volatile IOException failure;
+
+
+	/**
+	 * @param file       抓包文件，已存在时覆盖
+	 * @param maxPending 队列中允许堆积的最大字节数
+	 * @throws IOException 打开文件失败
+	 */
+	public JRMPCapture(File file, long maxPending) throws IOException {
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+		try {
+			this.channel.truncate(0);
+			this.channel.write(ByteBuffer.wrap(MAGIC));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		this.maxPending = maxPending;
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "jrmp-capture");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	public JRMPCapture(File file) throws IOException {
+		this(file, 64L * 1024 * 1024);
+	}
+
+	/**
+	 * 开始一个会话
+	 *
+	 * @param remote 客户端地址
+	 * @return 返回会话编号
+	 */
+	public long open(InetSocketAddress remote) {
+		long   session = sessions.incrementAndGet();
+		byte[] address = String.valueOf(remote).getBytes(UTF8);
+		offer(new Record(System.nanoTime() - start, session, OPEN, address));
+		return session;
+	}
+
+	public void close(long session) {
+		offer(new Record(System.nanoTime() - start, session, CLOSE, new byte[0]));
+	}
+
+	public void record(long session, byte type, byte[] data, int offset, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(data, offset, copy, 0, length);
+		offer(new Record(System.nanoTime() - start, session, type, copy));
+	}
+
+	/**
+	 * 复制 src 中剩余的数据，不改变 src 的 position
+	 */
+	public void record(long session, byte type, ByteBuffer src) {
+		byte[] copy = new byte[src.remaining()];
+		src.duplicate().get(copy);
+		offer(new Record(System.nanoTime() - start, session, type, copy));
+	}
+
+	private void offer(Record record) {
+		if (closed || pending.get() > maxPending) {
+			dropped.incrementAndGet();
+			return;
+		}
+		pending.addAndGet(record.data.length);
+		queue.add(record);
+	}
+
+	public long getRecords() {
+		return records.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * 写线程，把队列中的记录合并到一个缓冲中写出
+	 */
+	private void drain() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+		long       idle   = 0;
+
+		try {
+			for (; ; ) {
+				Record record = queue.poll();
+				if (record == null) {
+					flush(buffer);
+					if (closed && queue.isEmpty()) {
+						break;
+					}
+					idle = Math.min(idle + 1, 100);
+					LockSupport.parkNanos(idle * 10000L);
+					continue;
+				}
+				idle = 0;
+				pending.addAndGet(-record.data.length);
+
+				if (buffer.remaining() < RECORD_HEADER + record.data.length) {
+					flush(buffer);
+				}
+				if (buffer.remaining() < RECORD_HEADER + record.data.length) {
+					// 单条记录比缓冲还大，直接写出
+					ByteBuffer large = ByteBuffer.allocate(RECORD_HEADER + record.data.length);
+					record.writeTo(large);
+					large.flip();
+					while (large.hasRemaining()) {
+						channel.write(large);
+					}
+				} else {
+					record.writeTo(buffer);
+				}
+				records.incrementAndGet();
+				bytes.addAndGet(record.data.length);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			failure = e;
+			closed = true;
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private void flush(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * 停止接收新记录，等待队列写完后关闭文件
+	 *
+	 * @throws IOException 写入过程中出现的异常
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * 读取抓包文件中的全部记录
+	 *
+	 * @param file 抓包文件
+	 * @return 按写入顺序返回
+	 * @throws IOException 文件格式错误，包括记录的类型未知、长度为负数或者超过文件剩余的大小
+	 */
+	public static List<Record> read(File file) throws IOException {
+		List<Record>    list     = new ArrayList<Record>();
+		long            size     = file.length();
+		long            position = MAGIC.length;
+		DataInputStream in       = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new StreamCorruptedException("not a JRMP capture file");
+			}
+			for (; ; ) {
+				long time;
+				try {
+					time = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+				long session = in.readLong();
+				byte type    = in.readByte();
+				int  length  = in.readInt();
+				if (type < OPEN || type > CLOSE) {
+					throw new StreamCorruptedException("invalid record type " + type + " at " + position);
+				}
+				position += RECORD_HEADER;
+				if (length < 0 || length > size - position) {
+					throw new StreamCorruptedException("invalid record length " + length + " at " + (position - RECORD_HEADER));
+				}
+				byte[] data = new byte[length];
+				in.readFully(data);
+				position += length;
+				list.add(new Record(time, session, type, data));
+			}
+		} finally {
+			in.close();
+		}
+		return list;
+	}
+
+	/**
+	 * 一条抓包记录
+	 */
+	public static final class Record {
+
+		private final long time;
+
+		private final long session;
+
+		private final byte type;
+
+		private final byte[] data;
+
+		Record(long time, long session, byte type, byte[] data) {
+			this.time = time;
+			this.session = session;
+			this.type = type;
+			this.data = data;
+		}
+
+		void writeTo(ByteBuffer buffer) {
+			buffer.putLong(time).putLong(session).put(type).putInt(data.length).put(data);
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public long getSession() {
+			return session;
+		}
+
+		public byte getType() {
+			return type;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		@Override
+		public String toString() {
+			String[] names = {"OPEN", "IN", "OUT", "CLOSE"};
+			String   name  = type >= 0 && type < names.length ? names[type] : "TYPE" + type;
+			return String.format("%.3fms #%d %s %s", time / 1e6, session, name,
+					type == OPEN ? new String(data, UTF8) : data.length + "B");
+		}
+	}
+}
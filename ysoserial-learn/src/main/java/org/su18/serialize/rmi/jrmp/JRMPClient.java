@@ -0,0 +1,392 @@
+package org.su18.serialize.rmi.jrmp;
+
+import sun.rmi.transport.TransportConstants;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.UID;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 复用连接的 JRMP 客户端，只连接构造时指定的一个实验环境地址
+ * <p>
+ * 与 JRMPClientExploitDGC 每个 payload 一次 SingleOpProtocol 握手不同，这里使用 StreamProtocol 保持连接，
+ * 多个 PreparedCall 连续写出后再依次读取 Return（pipeline）。服务端在某个 Call 之后关闭连接时
+ * （例如我们自己的 JRMPServer 每个连接只处理一条消息，或者反序列化失败后流中残留了数据），
+ * 尚未收到 Return 的 Call 会在新连接上重发
+ * <p>
+ * 返回值和异常会在客户端反序列化，只允许 Throwable 的子类、StackTraceElement、String、基本类型的包装类、基本类型数组，
+ * 以及 ObjID、UID 和 DGC dirty 返回的 Lease、VMID。其余类视为流已损坏，该 Call 的结果记为 unreadable（与 ExceptionalReturn 区分），
+ * 并重新建立连接。实例不是线程安全的，每个线程使用自己的客户端
+ * <p>
+ * 用法：java JRMPClient host:port [调用次数] [pipeline 深度]
+ *
+ * @author su18
+ */
+public class JRMPClient implements Closeable {
+
+	/**
+	 * 连接空闲超过这个时间后，复用前先发送 Ping 确认
+	 */
+	private static final long PING_AFTER = TimeUnit.SECONDS.toNanos(15);
+
+	private final InetSocketAddress endpoint;
+
+	private final int timeoutMillis;
+
+	private Socket socket;
+
+	private DataInputStream in;
+
+	private OutputStream out;
+
+	private long lastUsed;
+
+	private long connects;
+
+	private long calls;
+
+	private long retries;
+
+
+	public JRMPClient(InetSocketAddress endpoint, int timeoutMillis) {
+		if (endpoint.isUnresolved()) {
+			throw new IllegalArgumentException("unresolved endpoint " + endpoint);
+		}
+		this.endpoint = endpoint;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: JRMPClient <host:port> [calls] [depth]");
+			return;
+		}
+
+		int               colon    = args[0].lastIndexOf(':');
+		InetSocketAddress endpoint = new InetSocketAddress(args[0].substring(0, colon), Integer.parseInt(args[0].substring(colon + 1)));
+		int               count    = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int               depth    = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+		List<PreparedCall> list = new ArrayList<PreparedCall>();
+		for (int i = 0; i < count; i++) {
+			list.add(PreparedCall.DGC_DIRTY.prepare("jrmp-client-" + i));
+		}
+
+		JRMPClient client = new JRMPClient(endpoint, 5000);
+		try {
+			long         start   = System.nanoTime();
+			List<Result> results = client.pipeline(list, depth);
+			long         elapsed = System.nanoTime() - start;
+
+			int exceptional = 0, unreadable = 0;
+			for (Result result : results) {
+				if (result.isUnreadable()) {
+					unreadable++;
+				} else if (result.isExceptional()) {
+					exceptional++;
+				}
+			}
+			System.out.printf("%d calls in %.1fms, connects=%d, retries=%d, exceptional=%d, unreadable=%d%n", results.size(), elapsed / 1e6,
+					client.getConnects(), client.getRetries(), exceptional, unreadable);
+			System.out.println("first: " + results.get(0));
+		} finally {
+			client.close();
+		}
+	}
+
+	public InetSocketAddress getEndpoint() {
+		return endpoint;
+	}
+
+	public long getConnects() {
+		return connects;
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	public long getRetries() {
+		return retries;
+	}
+
+	/**
+	 * 发送一个 Call 并等待 Return
+	 */
+	public Result call(PreparedCall call) throws IOException {
+		return pipeline(Arrays.asList(call), 1).get(0);
+	}
+
+	/**
+	 * 在同一个连接上发送多个 Call，最多 depth 个 Call 未收到 Return
+	 *
+	 * @param list  Call 列表
+	 * @param depth pipeline 深度
+	 * @return 按顺序返回每个 Call 的结果
+	 * @throws IOException 新建立的连接上仍然无法完成任何一个 Call
+	 */
+	public List<Result> pipeline(List<PreparedCall> list, int depth) throws IOException {
+		Result[] results = new Result[list.size()];
+		int      next    = 0;
+		boolean  fresh   = false;
+
+		while (next < results.length) {
+			if (socket == null) {
+				connect();
+				fresh = true;
+			} else if (System.nanoTime() - lastUsed > PING_AFTER && !ping()) {
+				continue;
+			}
+
+			int         end     = Math.min(results.length, next + Math.max(1, depth));
+			int         before  = next;
+			IOException failure = null;
+			try {
+				for (int i = next; i < end; i++) {
+					list.get(i).writeTo(out);
+				}
+				out.flush();
+
+				for (int i = next; i < end; i++) {
+					long started = System.nanoTime();
+					try {
+						results[i] = readReturn(list.get(i), started);
+					} catch (ObjectStreamException e) {
+						// 返回数据无法安全读取，记录后重新连接
+						results[i] = Result.unreadable(e, System.nanoTime() - started);
+						next = i + 1;
+						throw e;
+					} catch (ClassNotFoundException e) {
+						results[i] = Result.unreadable(e, System.nanoTime() - started);
+						next = i + 1;
+						throw new InvalidClassException(e.getMessage());
+					}
+					next = i + 1;
+					calls++;
+				}
+				lastUsed = System.nanoTime();
+				fresh = false;
+			} catch (IOException e) {
+				failure = e;
+				disconnect();
+			}
+
+			if (failure != null) {
+				if (next == before && fresh) {
+					throw failure;
+				}
+				retries += end - next;
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * 发送 Ping
+	 *
+	 * @return 收到 PingAck 时返回 true，否则关闭连接并返回 false
+	 */
+	public boolean ping() {
+		try {
+			if (socket == null) {
+				connect();
+			}
+			out.write(TransportConstants.Ping);
+			out.flush();
+			if (in.read() == TransportConstants.PingAck) {
+				lastUsed = System.nanoTime();
+				return true;
+			}
+		} catch (IOException ignored) {
+		}
+		disconnect();
+		return false;
+	}
+
+	/**
+	 * 建立连接并完成 StreamProtocol 握手
+	 */
+	private void connect() throws IOException {
+		Socket s = new Socket();
+		try {
+			s.setTcpNoDelay(true);
+			s.setKeepAlive(true);
+			s.setSoTimeout(timeoutMillis);
+			s.connect(endpoint, timeoutMillis);
+
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 16 * 1024));
+			DataInputStream  dis = new DataInputStream(new BufferedInputStream(s.getInputStream(), 16 * 1024));
+
+			dos.writeInt(TransportConstants.Magic);
+			dos.writeShort(TransportConstants.Version);
+			dos.writeByte(TransportConstants.StreamProtocol);
+			dos.flush();
+
+			if (dis.readByte() != TransportConstants.ProtocolAck) {
+				throw new StreamCorruptedException("protocol not acknowledged by " + endpoint);
+			}
+			// 服务端看到的客户端地址，回送给服务端
+			String host = dis.readUTF();
+			dis.readInt();
+			dos.writeUTF(host);
+			dos.writeInt(0);
+
+			socket = s;
+			in = dis;
+			out = dos;
+			lastUsed = System.nanoTime();
+			connects++;
+		} catch (IOException e) {
+			s.close();
+			throw e;
+		}
+	}
+
+	private Result readReturn(PreparedCall call, long started) throws IOException, ClassNotFoundException {
+		int op = in.read();
+		if (op < 0) {
+			throw new EOFException("connection closed by " + endpoint);
+		} else if (op != TransportConstants.Return) {
+			throw new StreamCorruptedException("unexpected transport op " + op);
+		}
+
+		ObjectInputStream ois  = new ReturnInputStream(in);
+		byte              type = ois.readByte();
+		UID.read(ois);
+
+		boolean exceptional = type == TransportConstants.ExceptionalReturn;
+		Object  value       = exceptional || call.returnsValue() ? ois.readObject() : null;
+		return new Result(exceptional, value, System.nanoTime() - started);
+	}
+
+	private void disconnect() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+		}
+		socket = null;
+		in = null;
+		out = null;
+	}
+
+	@Override
+	public void close() {
+		disconnect();
+	}
+
+	/**
+	 * 一次 Call 的结果
+	 */
+	public static final class Result {
+
+		private final boolean exceptional;
+
+		private final boolean unreadable;
+
+		private final Object value;
+
+		private final long nanos;
+
+		Result(boolean exceptional, Object value, long nanos) {
+			this(exceptional, false, value, nanos);
+		}
+
+		private Result(boolean exceptional, boolean unreadable, Object value, long nanos) {
+			this.exceptional = exceptional;
+			this.unreadable = unreadable;
+			this.value = value;
+			this.nanos = nanos;
+		}
+
+		static Result unreadable(Exception cause, long nanos) {
+			return new Result(false, true, cause, nanos);
+		}
+
+		/**
+		 * 服务端返回了 ExceptionalReturn
+		 */
+		public boolean isExceptional() {
+			return exceptional;
+		}
+
+		/**
+		 * 返回数据中有不允许的类或者数据损坏，没有读取，此时 value 是读取时的异常
+		 */
+		public boolean isUnreadable() {
+			return unreadable;
+		}
+
+		public Object getValue() {
+			return value;
+		}
+
+		/**
+		 * 从开始读取该 Return 到读取完成的时间
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			return (unreadable ? "unreadable " : exceptional ? "exception " : "return ") + value;
+		}
+	}
+
+	/**
+	 * 只允许 Throwable 的子类和 ALLOWED 中的类，以及它们的数组和基本类型数组。不读取 codebase 注解，由 ObjectInputStream 跳过
+	 */
+	private static final class ReturnInputStream extends ObjectInputStream {
+
+		private static final Set<String> ALLOWED = new HashSet<String>(Arrays.asList(
+				"java.lang.String", "java.lang.Number", "java.lang.Boolean", "java.lang.Byte", "java.lang.Character",
+				"java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+				"java.lang.StackTraceElement", "java.rmi.server.ObjID", "java.rmi.server.UID",
+				// DGC dirty 正常返回的 Lease，VMID 中还有一个 byte[]
+				"java.rmi.dgc.Lease", "java.rmi.dgc.VMID",
+				// Throwable 的 suppressedExceptions 字段，默认值是 Collections.unmodifiableList(new ArrayList())
+				"java.util.ArrayList", "java.util.Collections$UnmodifiableRandomAccessList",
+				"java.util.Collections$UnmodifiableList", "java.util.Collections$UnmodifiableCollection"));
+
+		ReturnInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			String name = desc.getName();
+			if (name.startsWith("[")) {
+				name = name.substring(name.lastIndexOf('[') + 1);
+				if (!name.startsWith("L")) {
+					// 基本类型数组
+					return super.resolveClass(desc);
+				}
+				name = name.substring(1, name.length() - 1);
+			}
+			if (ALLOWED.contains(name)) {
+				return super.resolveClass(desc);
+			}
+
+			// 只加载不初始化，确认是 Throwable 的子类后才会继续读取数据
+			Class<?> type      = super.resolveClass(desc);
+			Class<?> component = type;
+			while (component.isArray()) {
+				component = component.getComponentType();
+			}
+			if (!Throwable.class.isAssignableFrom(component)) {
+				throw new InvalidClassException(desc.getName(), "not allowed in return");
+			}
+			return type;
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+			throw new InvalidClassException("proxy", "not allowed in return");
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package org.su18.serialize.rmi.jrmp;
+
+import sun.rmi.transport.TransportConstants;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.rmi.server.ObjID;
+import java.rmi.server.UID;
+import java.util.Arrays;
+
+/**
+ * 服务端单个连接的 JRMP 协议状态机，与 IO 方式无关
+ * 收到的数据通过 append 追加到缓冲中，process 尽可能向前推进状态，数据不足时等待下一次追加，
+ * 需要发送的数据写入 output。阻塞模式和 NIO 模式共用同一个状态机
+ * <p>
+ * 与原 JRMPListener 一致，每个连接只处理一条消息，处理完成后关闭
+ *
+ * @author su18
+ */
+final class JRMPConnection {
+
+	private static final int HANDSHAKE = 0, CLIENT_ENDPOINT = 1, MESSAGE = 2, DONE = 3;
+
+	private static final int UID_SIZE = 14;
+
+	private final InetSocketAddress remote;
+
+	private final Responder responder;
+
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream(1024);
+
+	private byte[] buffer = new byte[512];
+
+	private int start;
+
+	private int end;
+
+	private int state = HANDSHAKE;
+
+	private JRMPCall call;
+
+	private boolean ping;
+
+	/**
+	 * 各阶段开始的时间点，由 JRMPMetrics 统计，0 表示未到达
+	 */
+	final long acceptedAt;
+
+	long startedAt;
+
+	long firstByteAt;
+
+	long messageAt;
+
+	long callAt;
+
+	/**
+	 * 建立连接时的抓包文件和会话编号，未开启抓包时为 null
+	 */
+	JRMPCapture capture;
+
+	long session;
+
+	JRMPConnection(InetSocketAddress remote, Responder responder, long acceptedAt) {
+		this.remote = remote;
+		this.responder = responder;
+		this.acceptedAt = acceptedAt;
+		this.startedAt = acceptedAt;
+	}
+
+	void append(ByteBuffer src) {
+		int length = src.remaining();
+		if (firstByteAt == 0) {
+			firstByteAt = System.nanoTime();
+		}
+		ensure(length);
+		src.get(buffer, end, length);
+		end += length;
+	}
+
+	void append(byte[] bytes, int offset, int length) {
+		if (firstByteAt == 0) {
+			firstByteAt = System.nanoTime();
+		}
+		ensure(length);
+		System.arraycopy(bytes, offset, buffer, end, length);
+		end += length;
+	}
+
+	private void ensure(int length) {
+		if (end + length <= buffer.length) {
+			return;
+		}
+		if (start > 0) {
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+		if (end + length > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, end + length));
+		}
+	}
+
+	/**
+	 * 推进状态机
+	 *
+	 * @return 消息处理完成、输出发送完毕后应当关闭连接时返回 true
+	 * @throws IOException 协议错误
+	 */
+	boolean process() throws IOException {
+		for (; ; ) {
+			int available = end - start;
+			switch (state) {
+				case HANDSHAKE: {
+					if (available < 7) {
+						return false;
+					}
+					int   magic    = readInt(start);
+					short version  = (short) readShort(start + 4);
+					byte  protocol = buffer[start + 6];
+					if (magic != TransportConstants.Magic || version != TransportConstants.Version) {
+						throw new StreamCorruptedException("not a JRMP connection");
+					}
+					start += 7;
+
+					if (protocol == TransportConstants.StreamProtocol) {
+						DataOutputStream out = new DataOutputStream(output);
+						out.writeByte(TransportConstants.ProtocolAck);
+						// 不做反向 DNS 解析
+						out.writeUTF(remote.getAddress().getHostAddress());
+						out.writeInt(remote.getPort());
+						state = CLIENT_ENDPOINT;
+					} else if (protocol == TransportConstants.SingleOpProtocol) {
+						messageAt = System.nanoTime();
+						state = MESSAGE;
+					} else {
+						throw new IOException("unsupported protocol " + protocol);
+					}
+					break;
+				}
+				case CLIENT_ENDPOINT: {
+					// 客户端回送自己的 host 和 port，内容不使用
+					if (available < 2) {
+						return false;
+					}
+					int length = 2 + readShort(start) + 4;
+					if (available < length) {
+						return false;
+					}
+					start += length;
+					messageAt = System.nanoTime();
+					state = MESSAGE;
+					break;
+				}
+				case MESSAGE: {
+					if (available < 1) {
+						return false;
+					}
+					int op = buffer[start] & 0xff;
+					switch (op) {
+						case TransportConstants.Call:
+							call = readCall();
+							if (call == null) {
+								return false;
+							}
+							callAt = System.nanoTime();
+							output.write(TransportConstants.Return);
+							try {
+								responder.respond(call, output);
+							} catch (RuntimeException e) {
+								throw new IOException("responder failed", e);
+							}
+							break;
+						case TransportConstants.Ping:
+							output.write(TransportConstants.PingAck);
+							ping = true;
+							break;
+						case TransportConstants.DGCAck:
+							if (available < 1 + UID_SIZE) {
+								return false;
+							}
+							break;
+						default:
+							throw new IOException("unknown transport op " + op);
+					}
+					start = end;
+					state = DONE;
+					return true;
+				}
+				default:
+					return true;
+			}
+		}
+	}
+
+	/**
+	 * 尝试从缓冲中解析 Call 头部，数据不完整时返回 null
+	 */
+	private JRMPCall readCall() throws IOException {
+		try {
+			ObjectInputStream ois = new CallInputStream(new ByteArrayInputStream(buffer, start + 1, end - start - 1));
+			ObjID   objID = ObjID.read(ois);
+			int     op    = ois.readInt();
+			long    hash  = ois.readLong();
+			ObjID[] ids   = null;
+			if (objID.hashCode() == JRMPCall.DGC_ID) {
+				// 参数不是 ObjID[] 时（例如 String payload）不记录，仍然正常返回
+				Object arg = ois.readObject();
+				ids = arg instanceof ObjID[] ? (ObjID[]) arg : null;
+			}
+			return new JRMPCall(remote, objID, op, hash, ids);
+		} catch (EOFException e) {
+			return null;
+		} catch (OptionalDataException e) {
+			if (e.eof) {
+				return null;
+			}
+			throw e;
+		} catch (ClassNotFoundException e) {
+			throw new InvalidClassException(e.getMessage());
+		}
+	}
+
+	boolean isPing() {
+		return ping;
+	}
+
+	InetSocketAddress getRemote() {
+		return remote;
+	}
+
+	int outputSize() {
+		return output.size();
+	}
+
+	boolean hasOutput() {
+		return output.size() > 0;
+	}
+
+	/**
+	 * 取出待发送的数据
+	 */
+	ByteBuffer takeOutput() {
+		ByteBuffer result = ByteBuffer.wrap(output.toByteArray());
+		output.reset();
+		return result;
+	}
+
+	void writeOutput(OutputStream out) throws IOException {
+		output.writeTo(out);
+		output.reset();
+	}
+
+	JRMPCall getCall() {
+		return call;
+	}
+
+	private int readInt(int offset) {
+		return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16) | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+	}
+
+	private int readShort(int offset) {
+		return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+	}
+
+	/**
+	 * 只允许解析 Call 头部需要的类
+	 */
+	private static final class CallInputStream extends ObjectInputStream {
+
+		CallInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if ("[Ljava.rmi.server.ObjID;".equals(desc.getName())) {
+				return ObjID[].class;
+			} else if ("java.rmi.server.ObjID".equals(desc.getName())) {
+				return ObjID.class;
+			} else if ("java.rmi.server.UID".equals(desc.getName())) {
+				return UID.class;
+			}
+			throw new IOException("Not allowed to read object");
+		}
+	}
+}
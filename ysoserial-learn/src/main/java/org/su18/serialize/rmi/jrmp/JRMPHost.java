@@ -0,0 +1,590 @@
+package org.su18.serialize.rmi.jrmp;
+
+import org.su18.serialize.lab.AsyncLog;
+
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * 在多个端口上同时提供 JRMP 服务，所有端口共用一个 selector 线程和一个工作线程池
+ * <p>
+ * selector 线程只负责 accept、读写和超时，协议解析和 Responder 在工作线程中执行，执行期间该连接不再监听读事件，
+ * 执行结果通过任务队列交回 selector 线程写出。每个端口对应一个 Binding，其中的 Future 在第一个 Call 的返回数据
+ * 写出后完成，编排脚本可以同时等待多个端口而不需要为每个端口占用一个线程
+ * <p>
+ * 用法：java JRMPHost 端口...，每个端口返回不同的字符串
+ *
+ * @author su18
+ */
+public class JRMPHost implements Closeable {
+
+	/**
+	 * 某个端口第一次完成 Call 时的回调，在工作线程中执行
+	 */
+	public interface Callback {
+
+		void served(Binding binding, JRMPCall call);
+	}
+
+	private final int workers;
+
+	private final long timeoutNanos;
+
+	private final AsyncLog log = AsyncLog.getDefault();
+
+	private final Map<Integer, Binding> bindings = new ConcurrentHashMap<Integer, Binding>();
+
+	/**
+	 * 其它线程提交给 selector 线程执行的任务，注册、注销端口以及工作线程的处理结果都通过这里交给 selector
+	 */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	private final CountDownLatch terminated = new CountDownLatch(1);
+
+	private Selector selector;
+
+	/**
+	 * 暂停 accept 的端口恢复的时间，0 表示没有暂停
+	 */
+	private long acceptResume;
+
+	private ExecutorService executor;
+
+	private volatile boolean closed;
+
+
+	public JRMPHost(int workers, long timeoutMillis) {
+		this.workers = workers;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	public JRMPHost() {
+		this(Runtime.getRuntime().availableProcessors(), 5000);
+	}
+
+	public static void main(String[] args) throws Exception {
+		final JRMPHost host = new JRMPHost().start();
+		List<Binding>  list = new ArrayList<Binding>();
+		for (String arg : args.length > 0 ? args : new String[]{"13333", "13334"}) {
+			int port = Integer.parseInt(arg);
+			list.add(host.bind(port, new ReturnResponder("jrmp-host-" + port, ReturnResponder.BAD_ATTRIBUTE_VALUE, null)));
+			System.err.println("* Opening JRMP listener on " + port);
+		}
+
+		for (Binding binding : list) {
+			binding.addCallback(new Callback() {
+				@Override
+				public void served(Binding binding, JRMPCall call) {
+					System.err.println("* Port " + binding.getPort() + " served " + call);
+				}
+			});
+		}
+
+		// 等待全部端口都被访问过
+		for (Binding binding : list) {
+			binding.get();
+		}
+		System.err.println("* All ports served");
+		host.close();
+	}
+
+	/**
+	 * 启动 selector 线程和工作线程池
+	 *
+	 * @return 返回自身
+	 * @throws IOException 打开 selector 失败
+	 */
+	public JRMPHost start() throws IOException {
+		selector = Selector.open();
+		executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new JRMPServer.DaemonThreadFactory("jrmp-host-worker"));
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				selectLoop();
+			}
+		}, "jrmp-host-selector");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * 在指定端口上监听，绑定在调用线程中完成，端口被占用时直接抛出异常
+	 *
+	 * @param port      端口，0 表示随机端口
+	 * @param responder 该端口使用的 Responder
+	 * @return 返回 Binding
+	 * @throws IOException 绑定失败
+	 */
+	public Binding bind(int port, Responder responder) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("host closed");
+		}
+
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.socket().setReuseAddress(true);
+		channel.bind(new InetSocketAddress(port), 1024);
+		channel.configureBlocking(false);
+
+		final Binding binding = new Binding(this, channel, responder);
+		bindings.put(binding.getPort(), binding);
+		binding.objectName = binding.metrics.register("JRMPHost", binding.getPort());
+
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					channel.register(selector, SelectionKey.OP_ACCEPT, binding);
+				} catch (IOException e) {
+					error(null, e);
+					binding.close();
+				}
+			}
+		});
+		return binding;
+	}
+
+	public Binding getBinding(int port) {
+		return bindings.get(port);
+	}
+
+	public List<Binding> getBindings() {
+		return new ArrayList<Binding>(bindings.values());
+	}
+
+	/**
+	 * 关闭全部端口和连接，未完成的 Future 被取消
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (Binding binding : bindings.values()) {
+			binding.close();
+		}
+		if (selector != null) {
+			selector.wakeup();
+			try {
+				terminated.await(timeoutNanos, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void submit(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	private void selectLoop() {
+		ByteBuffer buffer    = ByteBuffer.allocateDirect(16 * 1024);
+		long       sweepTick = Math.max(TimeUnit.MILLISECONDS.toNanos(10), timeoutNanos / 10);
+		long       nextSweep = System.nanoTime() + sweepTick;
+
+		try {
+			while (!closed) {
+				long wakeup = acceptResume != 0 && acceptResume - nextSweep < 0 ? acceptResume : nextSweep;
+				long wait   = TimeUnit.NANOSECONDS.toMillis(wakeup - System.nanoTime());
+				selector.select(Math.max(1, wait));
+				if (acceptResume != 0 && System.nanoTime() - acceptResume >= 0) {
+					acceptResume = 0;
+					resumeAccept();
+				}
+
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					try {
+						if (key.isAcceptable()) {
+							accept(key);
+						} else if (key.isReadable()) {
+							read(key, buffer);
+						} else if (key.isWritable()) {
+							write(key);
+						}
+					} catch (IOException e) {
+						Object attachment = key.attachment();
+						error(attachment instanceof Connection ? (Connection) attachment : null, e);
+						close(key);
+					}
+				}
+
+				long now = System.nanoTime();
+				if (now - nextSweep >= 0) {
+					nextSweep = now + sweepTick;
+					for (SelectionKey key : selector.keys()) {
+						Object attachment = key.attachment();
+						if (attachment instanceof Connection && now - ((Connection) attachment).deadline >= 0) {
+							Connection connection = (Connection) attachment;
+							connection.binding.metrics.timeouts.incrementAndGet();
+							if (log.isEnabled()) {
+								log.log("timeout", "port", connection.binding.getPort(), "remote", connection.protocol.getRemote());
+							}
+							close(key);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			error(null, e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException ignored) {
+			}
+			terminated.countDown();
+		}
+	}
+
+	/**
+	 * 接收一个端口上全部等待中的连接。单个连接初始化失败时只关闭该连接；accept 本身失败（例如文件描述符耗尽）时
+	 * 暂停该端口的 accept，由 selectLoop 在 JRMPServer.ACCEPT_BACKOFF_MILLIS 之后恢复，端口只在 Binding 关闭时关闭
+	 */
+	private void accept(SelectionKey key) {
+		Binding binding = (Binding) key.attachment();
+		for (; ; ) {
+			SocketChannel channel;
+			try {
+				channel = binding.channel.accept();
+			} catch (IOException e) {
+				if (binding.channel.isOpen()) {
+					binding.metrics.errors.incrementAndGet();
+					if (log.isEnabled()) {
+						log.log("error", "port", binding.getPort(), "error", e);
+					}
+					key.interestOps(0);
+					acceptResume = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(JRMPServer.ACCEPT_BACKOFF_MILLIS);
+				}
+				return;
+			}
+			if (channel == null) {
+				return;
+			}
+
+			long       accepted   = System.nanoTime();
+			Connection connection = new Connection();
+			connection.binding = binding;
+			binding.metrics.connections.incrementAndGet();
+			try {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				connection.protocol = new JRMPConnection((InetSocketAddress) channel.getRemoteAddress(), binding.responder, accepted);
+				connection.deadline = accepted + timeoutNanos;
+				channel.register(selector, SelectionKey.OP_READ, connection);
+				connection.protocol.startedAt = System.nanoTime();
+			} catch (IOException e) {
+				error(connection, e);
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * 恢复所有暂停的端口
+	 */
+	private void resumeAccept() {
+		for (SelectionKey key : selector.keys()) {
+			if (key.isValid() && key.attachment() instanceof Binding && key.interestOps() == 0) {
+				key.interestOps(SelectionKey.OP_ACCEPT);
+			}
+		}
+	}
+
+	/**
+	 * 读取数据后暂停读事件，把协议处理交给工作线程
+	 */
+	private void read(final SelectionKey key, ByteBuffer buffer) throws IOException {
+		SocketChannel    channel    = (SocketChannel) key.channel();
+		final Connection connection = (Connection) key.attachment();
+
+		buffer.clear();
+		int n = channel.read(buffer);
+		if (n < 0) {
+			close(key);
+			return;
+		}
+		buffer.flip();
+		connection.binding.metrics.bytesRead.addAndGet(n);
+		connection.protocol.append(buffer);
+
+		key.interestOps(0);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				process(key, connection);
+			}
+		});
+	}
+
+	/**
+	 * 工作线程中推进状态机，结果交回 selector 线程
+	 */
+	private void process(final SelectionKey key, final Connection connection) {
+		IOException failure = null;
+		ByteBuffer  output  = null;
+		try {
+			connection.done = connection.protocol.process();
+			if (connection.protocol.hasOutput()) {
+				output = connection.protocol.takeOutput();
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+
+		final IOException failed  = failure;
+		final ByteBuffer  pending = output;
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				if (!key.isValid()) {
+					return;
+				}
+				if (failed != null) {
+					error(connection, failed);
+					close(key);
+					return;
+				}
+				try {
+					if (pending != null) {
+						connection.pending = pending;
+						write(key);
+					} else if (connection.done) {
+						finish(key, connection);
+					} else {
+						key.interestOps(SelectionKey.OP_READ);
+					}
+				} catch (IOException e) {
+					error(connection, e);
+					close(key);
+				}
+			}
+		});
+	}
+
+	private void write(SelectionKey key) throws IOException {
+		SocketChannel channel    = (SocketChannel) key.channel();
+		Connection    connection = (Connection) key.attachment();
+
+		connection.binding.metrics.bytesWritten.addAndGet(channel.write(connection.pending));
+		if (connection.pending.hasRemaining()) {
+			key.interestOps(SelectionKey.OP_WRITE);
+			return;
+		}
+		connection.pending = null;
+		if (connection.done) {
+			finish(key, connection);
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * 返回数据已经写出，统计并在第一次 Call 时完成 Future，回调交给工作线程执行
+	 */
+	private void finish(SelectionKey key, Connection connection) {
+		final Binding binding = connection.binding;
+		binding.metrics.complete(connection.protocol);
+		close(key);
+
+		final JRMPCall call = connection.protocol.getCall();
+		if (call != null && !binding.isDone()) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					binding.complete(call);
+				}
+			});
+		}
+	}
+
+	private void error(Connection connection, IOException e) {
+		if (connection != null) {
+			connection.binding.metrics.errors.incrementAndGet();
+		}
+		if (log.isEnabled()) {
+			log.log("error", "port", connection == null ? null : connection.binding.getPort(),
+					"remote", connection == null || connection.protocol == null ? null : connection.protocol.getRemote(), "error", e);
+		}
+	}
+
+	private static void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	private static final class Connection {
+
+		Binding binding;
+
+		JRMPConnection protocol;
+
+		ByteBuffer pending;
+
+		long deadline;
+
+		boolean done;
+	}
+
+	/**
+	 * 一个监听端口，本身是一个 Future，第一个 Call 的返回数据写出后完成，结果为该 Call
+	 */
+	public static final class Binding extends FutureTask<JRMPCall> implements Closeable {
+
+		private static final Callable<JRMPCall> NOTHING = new Callable<JRMPCall>() {
+			@Override
+			public JRMPCall call() {
+				return null;
+			}
+		};
+
+		private final JRMPHost host;
+
+		private final ServerSocketChannel channel;
+
+		private final Responder responder;
+
+		private final int port;
+
+		private final JRMPMetrics metrics;
+
+		private final List<Callback> callbacks = new ArrayList<Callback>();
+
+		private ObjectName objectName;
+
+		Binding(JRMPHost host, ServerSocketChannel channel, Responder responder) {
+			super(NOTHING);
+			this.host = host;
+			this.channel = channel;
+			this.responder = responder;
+			this.port = channel.socket().getLocalPort();
+			this.metrics = new JRMPMetrics(host.log);
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public Responder getResponder() {
+			return responder;
+		}
+
+		public JRMPMetrics getMetrics() {
+			return metrics;
+		}
+
+		/**
+		 * 添加回调，已经完成时立即在当前线程执行
+		 */
+		public void addCallback(Callback callback) {
+			synchronized (callbacks) {
+				if (!isDone()) {
+					callbacks.add(callback);
+					return;
+				}
+			}
+			JRMPCall call = result();
+			if (call != null) {
+				callback.served(this, call);
+			}
+		}
+
+		void complete(JRMPCall call) {
+			set(call);
+		}
+
+		@Override
+		protected void done() {
+			List<Callback> list;
+			synchronized (callbacks) {
+				list = new ArrayList<Callback>(callbacks);
+				callbacks.clear();
+			}
+			JRMPCall call = result();
+			if (call == null) {
+				return;
+			}
+			for (Callback callback : list) {
+				try {
+					callback.served(this, call);
+				} catch (RuntimeException e) {
+					host.log.log("callback-error", "port", port, "error", e);
+				}
+			}
+		}
+
+		private JRMPCall result() {
+			try {
+				return isCancelled() ? null : get();
+			} catch (Exception e) {
+				return null;
+			}
+		}
+
+		/**
+		 * 停止监听该端口，已建立的连接继续处理，未完成的 Future 被取消
+		 */
+		@Override
+		public void close() {
+			if (host.bindings.remove(port) == null) {
+				return;
+			}
+			JRMPMetrics.unregister(objectName);
+			objectName = null;
+			cancel(false);
+			host.submit(new Runnable() {
+				@Override
+				public void run() {
+					SelectionKey key = channel.keyFor(host.selector);
+					if (key != null) {
+						key.cancel();
+					}
+				}
+			});
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Binding[" + port + (isDone() ? ", served" : "") + "]";
+		}
+	}
+}
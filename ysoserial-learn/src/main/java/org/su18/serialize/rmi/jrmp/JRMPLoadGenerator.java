@@ -0,0 +1,235 @@
+package org.su18.serialize.rmi.jrmp;
+
+import org.su18.serialize.lab.LatencyRecorder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JRMP 服务端的压测工具，每个会话完成 StreamProtocol 握手、发送一个 DGC dirty Call 并读取 Return，统计吞吐与延迟分位数
+ * <p>
+ * 两种方式：
+ * 闭环  -c 个连接各自循环发起会话，上一个完成后立即开始下一个
+ * 开环  -rate n 按每秒 n 个会话的固定节奏发起，由 -c 个线程执行，延迟从计划发起时间开始计算，
+ * 服务端变慢时排队时间也计入延迟；积压超过队列长度的会话直接丢弃并计为 missed
+ * <p>
+ * 不指定目标时在进程内启动 JRMPListener（listener）或 EvilServer（evil）同样的服务端压测，并输出服务端各阶段的统计；
+ * -reuse 在会话之间复用连接，只对不会在一条消息后关闭连接的真实 RMI 服务有意义
+ * <p>
+ * 用法：java JRMPLoadGenerator [listener|evil|host:port] [-mode pool|nio|virtual] [-c 连接数] [-rate n] [-d 秒数] [-reuse]
+ *
+ * @author su18
+ */
+public class JRMPLoadGenerator {
+
+	private final InetSocketAddress target;
+
+	private final PreparedCall call;
+
+	private final int connections;
+
+	private final long durationNanos;
+
+	private final boolean reuse;
+
+	private final AtomicLong sessions = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong missed = new AtomicLong();
+
+
+	public JRMPLoadGenerator(InetSocketAddress target, PreparedCall call, int connections, long durationMillis, boolean reuse) {
+		this.target = target;
+		this.call = call;
+		this.connections = connections;
+		this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		this.reuse = reuse;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String          target      = args.length > 0 && !args[0].startsWith("-") ? args[0] : "listener";
+		JRMPServer.Mode mode        = JRMPServer.Mode.NIO;
+		int             connections = 32;
+		double          rate        = 0;
+		long            seconds     = 10;
+		boolean         reuse       = false;
+		for (int i = 0; i < args.length; i++) {
+			if ("-mode".equals(args[i])) {
+				mode = JRMPServer.Mode.valueOf(args[++i].toUpperCase());
+			} else if ("-c".equals(args[i])) {
+				connections = Integer.parseInt(args[++i]);
+			} else if ("-rate".equals(args[i])) {
+				rate = Double.parseDouble(args[++i]);
+			} else if ("-d".equals(args[i])) {
+				seconds = Long.parseLong(args[++i]);
+			} else if ("-reuse".equals(args[i])) {
+				reuse = true;
+			}
+		}
+
+		JRMPServer        server = null;
+		InetSocketAddress address;
+		if ("listener".equals(target) || "evil".equals(target)) {
+			ReturnResponder.Wrapper wrapper   = "evil".equals(target) ? ReturnResponder.RAW : ReturnResponder.BAD_ATTRIBUTE_VALUE;
+			ReturnResponder         responder = new ReturnResponder("jrmp-load", wrapper, null);
+			server = new JRMPServer(new InetSocketAddress("127.0.0.1", 0), responder, mode,
+					Math.max(16, connections), 5000).start();
+			address = server.getAddress();
+		} else {
+			int colon = target.lastIndexOf(':');
+			address = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+		}
+
+		try {
+			JRMPLoadGenerator generator = new JRMPLoadGenerator(address, PreparedCall.DGC_DIRTY.prepare("jrmp-load"),
+					connections, seconds * 1000, reuse);
+			LatencyRecorder recorder = new LatencyRecorder();
+			long            elapsed  = rate > 0 ? generator.runOpenLoop(rate, recorder) : generator.run(recorder);
+
+			String name = target + (server != null ? " " + mode : "") + (rate > 0 ? " rate=" + rate : " c=" + connections);
+			System.out.println(recorder.summary(name, elapsed) + ", errors=" + generator.getErrors() + ", missed=" + generator.getMissed());
+		} finally {
+			if (server != null) {
+				server.close();
+				System.out.println(server.getMetrics().getSummary());
+			}
+		}
+	}
+
+	/**
+	 * 闭环压测，阻塞直到时间结束
+	 *
+	 * @param recorder 延迟记录
+	 * @return 返回实际耗时（纳秒）
+	 * @throws InterruptedException 中断异常
+	 */
+	public long run(final LatencyRecorder recorder) throws InterruptedException {
+		final long           start    = System.nanoTime();
+		final long           deadline = start + durationNanos;
+		final CountDownLatch done     = new CountDownLatch(connections);
+
+		for (int i = 0; i < connections; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					JRMPClient client = new JRMPClient(target, 5000);
+					try {
+						while (System.nanoTime() < deadline) {
+							long begin = System.nanoTime();
+							session(client, begin, recorder);
+						}
+					} finally {
+						client.close();
+						done.countDown();
+					}
+				}
+			}, "jrmp-load-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		done.await();
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * 开环压测，按固定节奏发起会话
+	 *
+	 * @param rate     每秒会话数
+	 * @param recorder 延迟记录
+	 * @return 返回实际耗时（纳秒）
+	 * @throws InterruptedException 中断异常
+	 */
+	public long runOpenLoop(double rate, final LatencyRecorder recorder) throws InterruptedException {
+		final BlockingQueue<Long> queue    = new ArrayBlockingQueue<Long>(Math.max(1024, connections * 64));
+		final long                start    = System.nanoTime();
+		final long                deadline = start + durationNanos;
+		final CountDownLatch      done     = new CountDownLatch(connections);
+
+		for (int i = 0; i < connections; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					JRMPClient client = new JRMPClient(target, 5000);
+					try {
+						for (; ; ) {
+							long scheduled = queue.take();
+							if (scheduled == Long.MIN_VALUE) {
+								break;
+							}
+							session(client, scheduled, recorder);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						client.close();
+						done.countDown();
+					}
+				}
+			}, "jrmp-load-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		double interval = 1e9 / rate;
+		for (long n = 0; ; n++) {
+			long scheduled = start + (long) (n * interval);
+			if (scheduled - deadline >= 0) {
+				break;
+			}
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			if (!queue.offer(scheduled)) {
+				missed.incrementAndGet();
+			}
+		}
+
+		for (int i = 0; i < connections; i++) {
+			queue.put(Long.MIN_VALUE);
+		}
+		done.await();
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * 完成一次会话，不复用连接时每次重新握手
+	 */
+	private void session(JRMPClient client, long begin, LatencyRecorder recorder) {
+		try {
+			if (client.call(call).isUnreadable()) {
+				// Return 没有被读取，连接已经重建，不算完成的会话
+				errors.incrementAndGet();
+				return;
+			}
+			recorder.record(System.nanoTime() - begin);
+			sessions.incrementAndGet();
+		} catch (IOException e) {
+			errors.incrementAndGet();
+		} finally {
+			if (!reuse) {
+				client.close();
+			}
+		}
+	}
+
+	public long getSessions() {
+		return sessions.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getMissed() {
+		return missed.get();
+	}
+}
@@ -0,0 +1,267 @@
+package org.su18.serialize.rmi.jrmp;
+
+import org.su18.serialize.lab.AsyncLog;
+import org.su18.serialize.lab.LatencyRecorder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JRMPServer 的计数器和分阶段延迟，全部为原子操作，不加锁
+ * <p>
+ * 连接被分为四个阶段：
+ * accept    accept 返回到开始处理，阻塞模式下即线程池排队时间
+ * handshake 收到第一个字节到握手完成（StreamProtocol 包含客户端回送地址）
+ * call      握手完成到 Call 头部解析完成
+ * response  Call 解析完成到返回数据写入 socket
+ *
+ * @author su18
+ */
+public class JRMPMetrics implements JRMPMetricsMBean {
+
+	final AtomicLong connections = new AtomicLong();
+
+	final AtomicLong calls = new AtomicLong();
+
+	final AtomicLong pings = new AtomicLong();
+
+	final AtomicLong timeouts = new AtomicLong();
+
+	final AtomicLong errors = new AtomicLong();
+
+	final AtomicLong rejected = new AtomicLong();
+
+	final AtomicLong bytesRead = new AtomicLong();
+
+	final AtomicLong bytesWritten = new AtomicLong();
+
+	private final LatencyRecorder accept = new LatencyRecorder();
+
+	private final LatencyRecorder handshake = new LatencyRecorder();
+
+	private final LatencyRecorder call = new LatencyRecorder();
+
+	private final LatencyRecorder response = new LatencyRecorder();
+
+	private volatile long created = System.nanoTime();
+
+	private final AsyncLog log;
+
+
+	public JRMPMetrics(AsyncLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * 注册到平台 MBeanServer，同一端口已经注册过时跳过，不影响服务启动
+	 *
+	 * @param type 类型名
+	 * @param port 端口
+	 * @return 注册成功时返回名称，否则返回 null
+	 */
+	ObjectName register(String type, int port) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName  name   = new ObjectName(getClass().getPackage().getName() + ":type=" + type + ",port=" + port);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+				return name;
+			}
+		} catch (JMException e) {
+			log.log("jmx-error", "error", e);
+		}
+		return null;
+	}
+
+	static void unregister(ObjectName name) {
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * 连接结束时按照状态机记录的时间点统计各阶段耗时，未到达的阶段不记录
+	 */
+	void complete(JRMPConnection connection) {
+		long now = System.nanoTime();
+		accept.record(connection.startedAt - connection.acceptedAt);
+		if (connection.messageAt != 0) {
+			handshake.record(connection.messageAt - connection.firstByteAt);
+		}
+		if (connection.callAt != 0) {
+			call.record(connection.callAt - connection.messageAt);
+			response.record(now - connection.callAt);
+			calls.incrementAndGet();
+		} else if (connection.isPing()) {
+			pings.incrementAndGet();
+		}
+	}
+
+	public LatencyRecorder getAcceptLatency() {
+		return accept;
+	}
+
+	public LatencyRecorder getHandshakeLatency() {
+		return handshake;
+	}
+
+	public LatencyRecorder getCallLatency() {
+		return call;
+	}
+
+	public LatencyRecorder getResponseLatency() {
+		return response;
+	}
+
+	@Override
+	public long getConnections() {
+		return connections.get();
+	}
+
+	@Override
+	public long getCalls() {
+		return calls.get();
+	}
+
+	@Override
+	public long getPings() {
+		return pings.get();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	@Override
+	public long getAcceptP50Micros() {
+		return micros(accept.getPercentile(50));
+	}
+
+	@Override
+	public long getAcceptP99Micros() {
+		return micros(accept.getPercentile(99));
+	}
+
+	@Override
+	public long getAcceptMaxMicros() {
+		return micros(accept.getMax());
+	}
+
+	@Override
+	public long getHandshakeP50Micros() {
+		return micros(handshake.getPercentile(50));
+	}
+
+	@Override
+	public long getHandshakeP99Micros() {
+		return micros(handshake.getPercentile(99));
+	}
+
+	@Override
+	public long getHandshakeMaxMicros() {
+		return micros(handshake.getMax());
+	}
+
+	@Override
+	public long getCallP50Micros() {
+		return micros(call.getPercentile(50));
+	}
+
+	@Override
+	public long getCallP99Micros() {
+		return micros(call.getPercentile(99));
+	}
+
+	@Override
+	public long getCallMaxMicros() {
+		return micros(call.getMax());
+	}
+
+	@Override
+	public long getResponseP50Micros() {
+		return micros(response.getPercentile(50));
+	}
+
+	@Override
+	public long getResponseP99Micros() {
+		return micros(response.getPercentile(99));
+	}
+
+	@Override
+	public long getResponseMaxMicros() {
+		return micros(response.getMax());
+	}
+
+	@Override
+	public boolean isLogEnabled() {
+		return log.isEnabled();
+	}
+
+	@Override
+	public void setLogEnabled(boolean enabled) {
+		log.setEnabled(enabled);
+	}
+
+	@Override
+	public long getLogDropped() {
+		return log.getDropped();
+	}
+
+	@Override
+	public String getSummary() {
+		long elapsed = System.nanoTime() - created;
+		return String.format("connections=%d, calls=%d, pings=%d, timeouts=%d, errors=%d, rejected=%d, in=%dB, out=%dB%n%s%n%s%n%s%n%s",
+				getConnections(), getCalls(), getPings(), getTimeouts(), getErrors(), getRejected(), getBytesRead(), getBytesWritten(),
+				accept.summary("accept", elapsed), handshake.summary("handshake", elapsed),
+				call.summary("call", elapsed), response.summary("response", elapsed));
+	}
+
+	@Override
+	public void reset() {
+		connections.set(0);
+		calls.set(0);
+		pings.set(0);
+		timeouts.set(0);
+		errors.set(0);
+		rejected.set(0);
+		bytesRead.set(0);
+		bytesWritten.set(0);
+		accept.reset();
+		handshake.reset();
+		call.reset();
+		response.reset();
+		created = System.nanoTime();
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,60 @@
+package org.su18.serialize.rmi.jrmp;
+
+/**
+ * JRMPServer 的 JMX 接口，注册为 org.su18.serialize.rmi.jrmp:type=JRMPServer,port=端口
+ * 延迟单位为微秒
+ *
+ * @author su18
+ */
+public interface JRMPMetricsMBean {
+
+	long getConnections();
+
+	long getCalls();
+
+	long getPings();
+
+	long getTimeouts();
+
+	long getErrors();
+
+	long getRejected();
+
+	long getBytesRead();
+
+	long getBytesWritten();
+
+	long getAcceptP50Micros();
+
+	long getAcceptP99Micros();
+
+	long getAcceptMaxMicros();
+
+	long getHandshakeP50Micros();
+
+	long getHandshakeP99Micros();
+
+	long getHandshakeMaxMicros();
+
+	long getCallP50Micros();
+
+	long getCallP99Micros();
+
+	long getCallMaxMicros();
+
+	long getResponseP50Micros();
+
+	long getResponseP99Micros();
+
+	long getResponseMaxMicros();
+
+	boolean isLogEnabled();
+
+	void setLogEnabled(boolean enabled);
+
+	long getLogDropped();
+
+	String getSummary();
+
+	void reset();
+}
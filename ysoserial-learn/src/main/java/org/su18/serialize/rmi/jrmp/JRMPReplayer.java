@@ -0,0 +1,286 @@
+package org.su18.serialize.rmi.jrmp;
+
+import org.su18.serialize.lab.LatencyRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 回放 JRMPCapture 抓到的会话，把每个会话的客户端数据重新发给目标服务，对比响应长度和首字节，用于回归和压测
+ * <p>
+ * 三种节奏：
+ * -rate n   开环，按每秒 n 个会话的固定节奏发起，延迟从计划发起时间开始计算，排队时间也计入
+ * -speed x  开环，按抓包中的原始时间间隔发起，x 为倍速
+ * 都不指定  闭环，每个线程回放完一个会话立即开始下一个
+ * <p>
+ * 用法：java JRMPReplayer 抓包文件 [host:port] [-rate n] [-speed x] [-c 线程数] [-n 重复次数]
+ * 不指定目标时只打印抓包内容
+ *
+ * @author su18
+ */
+public class JRMPReplayer {
+
+	private final InetSocketAddress target;
+
+	private final List<Session> sessions;
+
+	private final int threads;
+
+	private final int timeoutMillis;
+
+	private final AtomicLong matched = new AtomicLong();
+
+	private final AtomicLong mismatched = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+
+	public JRMPReplayer(InetSocketAddress target, List<Session> sessions, int threads, int timeoutMillis) {
+		this.target = target;
+		this.sessions = sessions;
+		this.threads = threads;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: JRMPReplayer <capture> [host:port] [-rate n] [-speed x] [-c threads] [-n repeat]");
+			return;
+		}
+
+		List<JRMPCapture.Record> records = JRMPCapture.read(new File(args[0]));
+		List<Session>            list    = sessions(records);
+		if (args.length == 1 || args[1].startsWith("-")) {
+			for (JRMPCapture.Record record : records) {
+				System.out.println(record);
+			}
+			System.out.println(list.size() + " sessions");
+			return;
+		}
+
+		String target  = args[1];
+		double rate    = 0;
+		double speed   = 0;
+		int    threads = 16;
+		int    repeat  = 1;
+		for (int i = 2; i + 1 < args.length; i += 2) {
+			if ("-rate".equals(args[i])) {
+				rate = Double.parseDouble(args[i + 1]);
+			} else if ("-speed".equals(args[i])) {
+				speed = Double.parseDouble(args[i + 1]);
+			} else if ("-c".equals(args[i])) {
+				threads = Integer.parseInt(args[i + 1]);
+			} else if ("-n".equals(args[i])) {
+				repeat = Integer.parseInt(args[i + 1]);
+			}
+		}
+
+		int               colon    = target.lastIndexOf(':');
+		InetSocketAddress address  = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+		JRMPReplayer      replayer = new JRMPReplayer(address, list, threads, 5000);
+		LatencyRecorder   recorder = new LatencyRecorder();
+		long              elapsed  = replayer.run(rate, speed, repeat, recorder);
+
+		System.out.println(recorder.summary("replay " + address, elapsed) + ", matched=" + replayer.getMatched()
+				+ ", mismatched=" + replayer.getMismatched() + ", failed=" + replayer.getFailed());
+	}
+
+	/**
+	 * 按会话编号整理抓包记录，只保留有客户端数据的会话
+	 *
+	 * @param records 抓包记录
+	 * @return 按会话开始时间排序
+	 */
+	public static List<Session> sessions(List<JRMPCapture.Record> records) {
+		Map<Long, Session> map = new LinkedHashMap<Long, Session>();
+		for (JRMPCapture.Record record : records) {
+			Session session = map.get(record.getSession());
+			if (session == null) {
+				session = new Session(record.getSession(), record.getTime());
+				map.put(record.getSession(), session);
+			}
+			if (record.getType() == JRMPCapture.INBOUND) {
+				session.inbound.add(record.getData());
+			} else if (record.getType() == JRMPCapture.OUTBOUND && record.getData().length > 0) {
+				if (session.outboundBytes == 0) {
+					session.firstOutbound = record.getData()[0] & 0xff;
+				}
+				session.outboundBytes += record.getData().length;
+			}
+		}
+
+		List<Session> list = new ArrayList<Session>();
+		for (Session session : map.values()) {
+			if (!session.inbound.isEmpty()) {
+				list.add(session);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 回放全部会话
+	 *
+	 * @param rate     每秒会话数，大于 0 时使用固定节奏
+	 * @param speed    原始节奏的倍速，rate 为 0 且 speed 大于 0 时使用
+	 * @param repeat   重复次数
+	 * @param recorder 延迟记录
+	 * @return 返回总耗时（纳秒）
+	 * @throws InterruptedException 中断异常
+	 */
+	public long run(double rate, double speed, int repeat, final LatencyRecorder recorder) throws InterruptedException {
+		final int total = sessions.size() * repeat;
+		if (total == 0) {
+			return 0;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new JRMPServer.DaemonThreadFactory("jrmp-replay"));
+		long            start    = System.nanoTime();
+		try {
+			if (rate <= 0 && speed <= 0) {
+				final AtomicInteger next = new AtomicInteger();
+				for (int i = 0; i < threads; i++) {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							int index;
+							while ((index = next.getAndIncrement()) < total) {
+								replay(sessions.get(index % sessions.size()), System.nanoTime(), recorder);
+							}
+						}
+					});
+				}
+			} else {
+				long first = sessions.get(0).start;
+				long span  = sessions.get(sessions.size() - 1).start - first + TimeUnit.MILLISECONDS.toNanos(1);
+				for (int i = 0; i < total; i++) {
+					final Session session = sessions.get(i % sessions.size());
+					long          offset;
+					if (rate > 0) {
+						offset = (long) (i * 1e9 / rate);
+					} else {
+						offset = (long) (((long) (i / sessions.size()) * span + session.start - first) / speed);
+					}
+
+					final long scheduled = start + offset;
+					long       wait      = scheduled - System.nanoTime();
+					if (wait > 0) {
+						LockSupport.parkNanos(wait);
+					}
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							replay(session, scheduled, recorder);
+						}
+					});
+				}
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.DAYS);
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * 回放一个会话，读取响应直到服务端关闭连接
+	 */
+	private void replay(Session session, long scheduled, LatencyRecorder recorder) {
+		Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeoutMillis);
+			socket.connect(target, timeoutMillis);
+
+			OutputStream out = socket.getOutputStream();
+			for (byte[] data : session.inbound) {
+				out.write(data);
+			}
+			out.flush();
+
+			InputStream in       = socket.getInputStream();
+			byte[]      buffer   = new byte[8192];
+			int         received = 0;
+			int         first    = -1;
+			int         n;
+			while ((n = in.read(buffer)) > 0) {
+				if (received == 0) {
+					first = buffer[0] & 0xff;
+				}
+				received += n;
+			}
+			recorder.record(System.nanoTime() - scheduled);
+
+			// UID 和端口每次不同，但长度固定，因此只比较长度和首字节
+			if (received == session.outboundBytes && first == session.firstOutbound) {
+				matched.incrementAndGet();
+			} else {
+				mismatched.incrementAndGet();
+			}
+		} catch (IOException e) {
+			failed.incrementAndGet();
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	public long getMatched() {
+		return matched.get();
+	}
+
+	public long getMismatched() {
+		return mismatched.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * 抓包中的一个会话
+	 */
+	public static final class Session {
+
+		private final long id;
+
+		private final long start;
+
+		private final List<byte[]> inbound = new ArrayList<byte[]>();
+
+		private int outboundBytes;
+
+		private int firstOutbound = -1;
+
+		Session(long id, long start) {
+			this.id = id;
+			this.start = start;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public List<byte[]> getInbound() {
+			return inbound;
+		}
+
+		public int getOutboundBytes() {
+			return outboundBytes;
+		}
+	}
+}
@@ -0,0 +1,614 @@
+package org.su18.serialize.rmi.jrmp;
+
+import org.su18.serialize.lab.AsyncLog;
+
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JRMP 服务端核心，负责接收连接并驱动 JRMPConnection 状态机，具体的返回内容由 Responder 决定
+ * <p>
+ * 支持三种并发方式：
+ * POOL    有界线程池，每个连接占用一个线程，队列满时直接关闭新连接
+ * NIO     单个 selector 线程处理所有连接，数据不完整时缓存在连接中，直到 Call 头部可以完整解析
+ * VIRTUAL 每个连接一个虚拟线程，需要 JDK 21 及以上，通过反射创建
+ * <p>
+ * 每个连接有独立的截止时间，超时后关闭，一个不发送数据的客户端不会影响其它连接。
+ * shutdown 停止接收新连接并等待已有连接处理完毕，shutdownNow 立即关闭全部连接
+ * <p>
+ * 计数和分阶段延迟见 JRMPMetrics，启动后注册到平台 MBeanServer，超时和错误写入 AsyncLog；
+ * 设置 JRMPCapture 后收发的原始字节会被写入抓包文件
+ *
+ * @author su18
+ */
+public class JRMPServer implements Closeable {
+
+	public enum Mode {
+		POOL, NIO, VIRTUAL
+	}
+
+	/**
+	 * accept 队列以及线程池等待队列的长度，排队的时间计入连接的超时时间
+	 */
+	private static final int BACKLOG = 1024;
+
+	/**
+	 * accept 失败（例如文件描述符耗尽）后暂停接收新连接的时间，已建立的连接不受影响
+	 */
+	static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+	private final InetSocketAddress bindAddress;
+
+	private final Responder responder;
+
+	private final Mode mode;
+
+	private final int threads;
+
+	private final long timeoutNanos;
+
+	private final AsyncLog log = AsyncLog.getDefault();
+
+	private final JRMPMetrics metrics = new JRMPMetrics(log);
+
+	private ObjectName objectName;
+
+	private volatile JRMPCapture capture;
+
+	/**
+	 * 阻塞模式下正在处理的连接，用于 shutdownNow
+	 */
+	private final Set<Socket> active = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+	private final CountDownLatch terminated = new CountDownLatch(1);
+
+	private ServerSocket serverSocket;
+
+	private ServerSocketChannel server;
+
+	private ExecutorService executor;
+
+	private Selector selector;
+
+	private SelectionKey acceptKey;
+
+	/**
+	 * NIO 模式下暂停 accept 时恢复的时间，0 表示没有暂停
+	 */
+	private long acceptResume;
+
+	private Thread acceptor;
+
+	private volatile boolean shutdown;
+
+	private volatile boolean shutdownNow;
+
+
+	public JRMPServer(InetSocketAddress bindAddress, Responder responder, Mode mode, int threads, long timeoutMillis) {
+		this.bindAddress = bindAddress;
+		this.responder = responder;
+		this.mode = mode;
+		this.threads = threads;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	public JRMPServer(int port, Responder responder, Mode mode) {
+		this(new InetSocketAddress(port), responder, mode, Math.max(16, Runtime.getRuntime().availableProcessors() * 4), 5000);
+	}
+
+	/**
+	 * 绑定端口并启动接收线程
+	 *
+	 * @return 返回自身
+	 * @throws IOException 绑定失败
+	 */
+	public JRMPServer start() throws IOException {
+		if (mode == Mode.NIO) {
+			server = ServerSocketChannel.open();
+			server.socket().setReuseAddress(true);
+			server.bind(bindAddress, BACKLOG);
+			serverSocket = server.socket();
+			selector = Selector.open();
+			server.configureBlocking(false);
+			acceptKey = server.register(selector, SelectionKey.OP_ACCEPT);
+			acceptor = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					selectLoop();
+				}
+			}, "jrmp-selector-" + getPort());
+		} else {
+			serverSocket = new ServerSocket();
+			serverSocket.setReuseAddress(true);
+			serverSocket.bind(bindAddress, BACKLOG);
+			executor = mode == Mode.VIRTUAL ? newVirtualThreadExecutor() : new ThreadPoolExecutor(threads, threads,
+					60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(BACKLOG), new DaemonThreadFactory("jrmp-worker-" + getPort()));
+			acceptor = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					acceptLoop();
+				}
+			}, "jrmp-acceptor-" + getPort());
+		}
+
+		acceptor.setDaemon(true);
+		acceptor.start();
+		objectName = metrics.register("JRMPServer", getPort());
+		return this;
+	}
+
+	/**
+	 * 通过反射调用 Executors.newVirtualThreadPerTaskExecutor，源码保持 JDK 7 兼容
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			throw new IllegalStateException("virtual threads require JDK 21+, running " + System.getProperty("java.version"), e);
+		}
+	}
+
+	public InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * 开启或关闭抓包，只对之后建立的连接生效
+	 *
+	 * @param capture 抓包文件，null 表示关闭
+	 * @return 返回自身
+	 */
+	public JRMPServer setCapture(JRMPCapture capture) {
+		this.capture = capture;
+		return this;
+	}
+
+	public JRMPMetrics getMetrics() {
+		return metrics;
+	}
+
+	public long getConnections() {
+		return metrics.getConnections();
+	}
+
+	public long getCalls() {
+		return metrics.getCalls();
+	}
+
+	public long getTimeouts() {
+		return metrics.getTimeouts();
+	}
+
+	public long getErrors() {
+		return metrics.getErrors();
+	}
+
+	/**
+	 * 停止接收新连接，已建立的连接继续处理到完成或超时
+	 */
+	public void shutdown() {
+		shutdown = true;
+		closeQuietly(serverSocket);
+		if (selector != null) {
+			selector.wakeup();
+		}
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * 立即关闭全部连接
+	 */
+	public void shutdownNow() {
+		shutdown();
+		shutdownNow = true;
+		if (selector != null) {
+			selector.wakeup();
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		for (Socket socket : active) {
+			closeQuietly(socket);
+		}
+	}
+
+	/**
+	 * 等待全部连接处理完毕
+	 *
+	 * @return 超时前结束时返回 true
+	 * @throws InterruptedException 中断异常
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		if (executor != null) {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			if (!executor.awaitTermination(timeout, unit)) {
+				return false;
+			}
+			return terminated.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+		return terminated.await(timeout, unit);
+	}
+
+	/**
+	 * 先优雅关闭，超过一个连接超时时间仍未结束时强制关闭
+	 */
+	@Override
+	public void close() {
+		shutdown();
+		try {
+			if (!awaitTermination(timeoutNanos, TimeUnit.NANOSECONDS)) {
+				shutdownNow();
+				awaitTermination(1, TimeUnit.SECONDS);
+			}
+		} catch (InterruptedException e) {
+			shutdownNow();
+			Thread.currentThread().interrupt();
+		} finally {
+			JRMPMetrics.unregister(objectName);
+			objectName = null;
+		}
+	}
+
+	private void acceptLoop() {
+		try {
+			while (!shutdown) {
+				final Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (IOException e) {
+					if (shutdown) {
+						// shutdown 关闭了 server
+						break;
+					}
+					error(null, e);
+					try {
+						Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+					} catch (InterruptedException ignored) {
+					}
+					continue;
+				}
+				metrics.connections.incrementAndGet();
+				final long accepted = System.nanoTime();
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							handle(socket, accepted);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					metrics.rejected.incrementAndGet();
+					if (log.isEnabled()) {
+						log.log("rejected", "remote", socket.getRemoteSocketAddress());
+					}
+					closeQuietly(socket);
+				}
+			}
+		} finally {
+			terminated.countDown();
+		}
+	}
+
+	/**
+	 * 阻塞模式下处理一个连接，每次读取前按照剩余时间设置 soTimeout，截止时间从 accept 开始计算
+	 */
+	private void handle(Socket socket, long accepted) {
+		long           deadline   = accepted + timeoutNanos;
+		byte[]         buffer     = new byte[1024];
+		JRMPConnection connection = new JRMPConnection((InetSocketAddress) socket.getRemoteSocketAddress(), responder, accepted);
+		connection.startedAt = System.nanoTime();
+		openCapture(connection);
+		active.add(socket);
+		try {
+			socket.setTcpNoDelay(true);
+			InputStream  in  = socket.getInputStream();
+			OutputStream out = socket.getOutputStream();
+
+			for (; ; ) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					timeout(connection);
+					break;
+				}
+				socket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+
+				int n = in.read(buffer);
+				if (n < 0) {
+					break;
+				}
+				metrics.bytesRead.addAndGet(n);
+				if (connection.capture != null) {
+					connection.capture.record(connection.session, JRMPCapture.INBOUND, buffer, 0, n);
+				}
+				connection.append(buffer, 0, n);
+
+				boolean done = connection.process();
+				if (connection.hasOutput()) {
+					metrics.bytesWritten.addAndGet(connection.outputSize());
+					if (connection.capture != null) {
+						ByteBuffer output = connection.takeOutput();
+						connection.capture.record(connection.session, JRMPCapture.OUTBOUND, output);
+						out.write(output.array(), output.arrayOffset() + output.position(), output.remaining());
+					} else {
+						connection.writeOutput(out);
+					}
+					out.flush();
+				}
+				if (done) {
+					metrics.complete(connection);
+					break;
+				}
+			}
+		} catch (SocketTimeoutException e) {
+			timeout(connection);
+		} catch (IOException e) {
+			if (!shutdownNow) {
+				error(connection, e);
+			}
+		} finally {
+			if (connection.capture != null) {
+				connection.capture.close(connection.session);
+			}
+			active.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+
+	/**
+	 * NIO 模式的事件循环，读缓冲由所有连接共用
+	 */
+	private void selectLoop() {
+		ByteBuffer buffer    = ByteBuffer.allocateDirect(16 * 1024);
+		long       sweepTick = Math.max(TimeUnit.MILLISECONDS.toNanos(10), timeoutNanos / 10);
+		long       nextSweep = System.nanoTime() + sweepTick;
+
+		try {
+			while (!shutdownNow) {
+				if (shutdown && selector.keys().isEmpty()) {
+					break;
+				}
+
+				long wakeup = acceptResume != 0 && acceptResume - nextSweep < 0 ? acceptResume : nextSweep;
+				long wait   = TimeUnit.NANOSECONDS.toMillis(wakeup - System.nanoTime());
+				selector.select(Math.max(1, wait));
+				if (acceptResume != 0 && System.nanoTime() - acceptResume >= 0) {
+					acceptResume = 0;
+					if (acceptKey.isValid()) {
+						acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+					}
+				}
+
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					try {
+						if (key.isAcceptable()) {
+							accept();
+						} else if (key.isReadable()) {
+							read(key, buffer);
+						} else if (key.isWritable()) {
+							write(key);
+						}
+					} catch (IOException e) {
+						Object attachment = key.attachment();
+						error(attachment instanceof NioConnection ? ((NioConnection) attachment).protocol : null, e);
+						close(key);
+					}
+				}
+
+				long now = System.nanoTime();
+				if (now - nextSweep >= 0) {
+					nextSweep = now + sweepTick;
+					for (SelectionKey key : selector.keys()) {
+						Object attachment = key.attachment();
+						if (attachment instanceof NioConnection && now - ((NioConnection) attachment).deadline >= 0) {
+							timeout(((NioConnection) attachment).protocol);
+							close(key);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			error(null, e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			closeQuietly(selector);
+			terminated.countDown();
+		}
+	}
+
+	/**
+	 * 接收全部等待中的连接。单个连接初始化失败时只关闭该连接；server.accept 失败时暂停接收，
+	 * 由 selectLoop 在 ACCEPT_BACKOFF_MILLIS 之后恢复，监听只在 shutdown 时关闭
+	 */
+	private void accept() {
+		while (!shutdown) {
+			SocketChannel channel;
+			try {
+				channel = server.accept();
+			} catch (IOException e) {
+				if (!shutdown) {
+					error(null, e);
+					acceptKey.interestOps(0);
+					acceptResume = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_BACKOFF_MILLIS);
+				}
+				return;
+			}
+			if (channel == null) {
+				return;
+			}
+
+			long          accepted   = System.nanoTime();
+			NioConnection connection = new NioConnection();
+			metrics.connections.incrementAndGet();
+			try {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				connection.protocol = new JRMPConnection((InetSocketAddress) channel.getRemoteAddress(), responder, accepted);
+				connection.deadline = accepted + timeoutNanos;
+				openCapture(connection.protocol);
+				channel.register(selector, SelectionKey.OP_READ, connection);
+				connection.protocol.startedAt = System.nanoTime();
+			} catch (IOException e) {
+				error(connection.protocol, e);
+				if (connection.protocol != null && connection.protocol.capture != null) {
+					connection.protocol.capture.close(connection.protocol.session);
+				}
+				closeQuietly(channel);
+			}
+		}
+	}
+
+	private void read(SelectionKey key, ByteBuffer buffer) throws IOException {
+		SocketChannel channel    = (SocketChannel) key.channel();
+		NioConnection connection = (NioConnection) key.attachment();
+
+		buffer.clear();
+		int n = channel.read(buffer);
+		if (n < 0) {
+			close(key);
+			return;
+		}
+		buffer.flip();
+		metrics.bytesRead.addAndGet(n);
+		if (connection.protocol.capture != null) {
+			connection.protocol.capture.record(connection.protocol.session, JRMPCapture.INBOUND, buffer);
+		}
+		connection.protocol.append(buffer);
+
+		connection.done = connection.protocol.process();
+		if (connection.protocol.hasOutput()) {
+			connection.pending = connection.protocol.takeOutput();
+			if (connection.protocol.capture != null) {
+				connection.protocol.capture.record(connection.protocol.session, JRMPCapture.OUTBOUND, connection.pending);
+			}
+			write(key);
+		} else if (connection.done) {
+			metrics.complete(connection.protocol);
+			close(key);
+		}
+	}
+
+	private void write(SelectionKey key) throws IOException {
+		SocketChannel channel    = (SocketChannel) key.channel();
+		NioConnection connection = (NioConnection) key.attachment();
+
+		metrics.bytesWritten.addAndGet(channel.write(connection.pending));
+		if (connection.pending.hasRemaining()) {
+			key.interestOps(SelectionKey.OP_WRITE);
+			return;
+		}
+		connection.pending = null;
+		if (connection.done) {
+			metrics.complete(connection.protocol);
+			close(key);
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	private void openCapture(JRMPConnection connection) {
+		JRMPCapture current = capture;
+		if (current != null) {
+			connection.capture = current;
+			connection.session = current.open(connection.getRemote());
+		}
+	}
+
+	private void timeout(JRMPConnection connection) {
+		metrics.timeouts.incrementAndGet();
+		if (log.isEnabled()) {
+			log.log("timeout", "remote", connection.getRemote(), "read", connection.firstByteAt != 0);
+		}
+	}
+
+	private void error(JRMPConnection connection, IOException e) {
+		metrics.errors.incrementAndGet();
+		if (log.isEnabled()) {
+			log.log("error", "remote", connection == null ? null : connection.getRemote(), "error", e);
+		}
+	}
+
+	private void close(SelectionKey key) {
+		Object attachment = key.attachment();
+		if (key.isValid() && attachment instanceof NioConnection) {
+			JRMPConnection protocol = ((NioConnection) attachment).protocol;
+			if (protocol.capture != null) {
+				protocol.capture.close(protocol.session);
+			}
+		}
+		key.cancel();
+		closeQuietly(key.channel());
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private static final class NioConnection {
+
+		JRMPConnection protocol;
+
+		ByteBuffer pending;
+
+		long deadline;
+
+		boolean done;
+	}
+
+	/**
+	 * 守护线程，进程退出时不需要等待，线程名为 前缀-序号
+	 */
+	public static final class DaemonThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+
+		private final AtomicLong count = new AtomicLong();
+
+		public DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
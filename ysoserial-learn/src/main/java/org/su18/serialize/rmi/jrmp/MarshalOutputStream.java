@@ -0,0 +1,84 @@
+package org.su18.serialize.rmi.jrmp;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 与 sun.rmi.server.MarshalOutputStream 行为一致的输出流，在类描述符后写入 codebase 注解
+ * 指定 sendUrl 时所有类都使用该地址，否则使用类加载器的 URL
+ * <p>
+ * 类加载器对应的注解只计算一次，按类加载器弱引用缓存，类加载器被回收后缓存自动清除；
+ * 同一个流中连续的类通常来自同一个类加载器，再用实例字段缓存上一次的结果，避免每个类描述符都查询全局缓存
+ *
+ * @author su18
+ */
+public class MarshalOutputStream extends ObjectOutputStream {
+
+	private static final Map<ClassLoader, String> ANNOTATIONS = Collections.synchronizedMap(new WeakHashMap<ClassLoader, String>());
+
+	private final String sendUrl;
+
+	private ClassLoader lastLoader;
+
+	private String lastAnnotation;
+
+	public MarshalOutputStream(OutputStream out, URL u) throws IOException {
+		super(out);
+		this.sendUrl = u == null ? null : u.toString();
+	}
+
+	public MarshalOutputStream(OutputStream out) throws IOException {
+		this(out, null);
+	}
+
+	@Override
+	protected void annotateClass(Class<?> cl) throws IOException {
+		if (this.sendUrl != null) {
+			writeObject(this.sendUrl);
+			return;
+		}
+
+		ClassLoader loader = cl.getClassLoader();
+		if (!(loader instanceof URLClassLoader)) {
+			writeObject(null);
+			return;
+		}
+
+		if (loader != lastLoader) {
+			lastAnnotation = getAnnotation((URLClassLoader) loader);
+			lastLoader = loader;
+		}
+		writeObject(lastAnnotation);
+	}
+
+	/**
+	 * 类加载器全部 URL 直接拼接的结果，与原实现保持一致
+	 */
+	static String getAnnotation(URLClassLoader loader) {
+		String annotation = ANNOTATIONS.get(loader);
+		if (annotation == null) {
+			StringBuilder sb = new StringBuilder();
+			for (URL u : loader.getURLs()) {
+				sb.append(u);
+			}
+			annotation = sb.toString();
+			ANNOTATIONS.put(loader, annotation);
+		}
+		return annotation;
+	}
+
+
+	/**
+	 * Serializes a location from which to load the specified class.
+	 */
+	@Override
+	protected void annotateProxyClass(Class<?> cl) throws IOException {
+		annotateClass(cl);
+	}
+}
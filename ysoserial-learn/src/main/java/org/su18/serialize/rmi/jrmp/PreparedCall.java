@@ -0,0 +1,136 @@
+package org.su18.serialize.rmi.jrmp;
+
+import sun.rmi.transport.TransportConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.rmi.server.ObjID;
+import java.util.Arrays;
+
+/**
+ * 预先编码好的 JRMP Call 消息，可以在同一个连接上重复发送
+ * <p>
+ * 一条 Call 由 Call 字节、流头、包含 ObjID/方法编号/hash 的 TC_BLOCKDATA 和参数对象组成。Header 缓存前三部分，
+ * 其中没有分配任何 handle，参数单独用新的 MarshalOutputStream 编码后去掉流头拼接在后面，
+ * 因此同一个方法换参数时只需要序列化参数
+ *
+ * @author su18
+ */
+public final class PreparedCall {
+
+	/**
+	 * DGC dirty(ObjID[], long, Lease)，与 JRMPClientExploitDGC 一致，只写出第一个参数
+	 */
+	public static final Header DGC_DIRTY = new Header(new ObjID(ObjID.DGC_ID), 1, -669196253586618813L, true);
+
+	/**
+	 * Registry bind(String, Remote)
+	 */
+	public static final Header REGISTRY_BIND = new Header(new ObjID(ObjID.REGISTRY_ID), 0, 4905912898345647071L, false);
+
+	private static final int STREAM_HEADER = 4;
+
+	private final Header header;
+
+	private final byte[] args;
+
+	private PreparedCall(Header header, byte[] args) {
+		this.header = header;
+		this.args = args;
+	}
+
+	public Header getHeader() {
+		return header;
+	}
+
+	/**
+	 * 正常返回时是否有返回值，void 方法的 Return 中只有返回类型和 UID
+	 */
+	public boolean returnsValue() {
+		return header.returnsValue;
+	}
+
+	public int size() {
+		return header.encoded.length + args.length;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(header.encoded);
+		out.write(args);
+	}
+
+	/**
+	 * 缓存的 Call 头部
+	 */
+	public static final class Header {
+
+		private final ObjID objID;
+
+		private final int op;
+
+		private final long hash;
+
+		private final boolean returnsValue;
+
+		private final byte[] encoded;
+
+		/**
+		 * @param objID        目标对象
+		 * @param op           方法编号，接口 hash 模式下为 -1
+		 * @param hash         方法或接口 hash
+		 * @param returnsValue 方法是否有返回值
+		 */
+		public Header(ObjID objID, int op, long hash, boolean returnsValue) {
+			this.objID = objID;
+			this.op = op;
+			this.hash = hash;
+			this.returnsValue = returnsValue;
+
+			try {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+				bos.write(TransportConstants.Call);
+				ObjectOutputStream oos = new MarshalOutputStream(bos);
+				objID.write(oos);
+				oos.writeInt(op);
+				oos.writeLong(hash);
+				oos.flush();
+				this.encoded = bos.toByteArray();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * 编码参数，生成完整的 Call
+		 *
+		 * @param args 参数，依次 writeObject
+		 * @return 返回 PreparedCall
+		 * @throws IOException 序列化失败
+		 */
+		public PreparedCall prepare(Object... args) throws IOException {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+			ObjectOutputStream    oos = new MarshalOutputStream(bos);
+			for (Object arg : args) {
+				oos.writeObject(arg);
+			}
+			oos.flush();
+
+			byte[] bytes = bos.toByteArray();
+			return new PreparedCall(this, Arrays.copyOfRange(bytes, STREAM_HEADER, bytes.length));
+		}
+
+		public ObjID getObjID() {
+			return objID;
+		}
+
+		public int getOp() {
+			return op;
+		}
+
+		public long getHash() {
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.su18.serialize.rmi.jrmp;
+
+import sun.rmi.transport.TransportConstants;
+
+import java.io.*;
+import java.rmi.server.UID;
+
+import static java.io.ObjectStreamConstants.*;
+
+/**
+ * 预先编码好的 Return 数据，每次响应只替换其中的 UID
+ * <p>
+ * 返回数据由 ObjectOutputStream 写出，开头固定为：流头（4 字节）、TC_BLOCKDATA 及长度（2 字节）、
+ * 返回类型（1 字节）、UID（14 字节），之后才是返回值对象，因此 UID 总是位于第 7 个字节，
+ * 返回值只需要序列化一次，响应时拼接流头、新的 UID 和缓存的对象数据即可
+ *
+ * @author su18
+ */
+public final class PreparedReturn {
+
+	private static final int UID_OFFSET = 7;
+
+	private static final int UID_SIZE = 14;
+
+	private final byte[] encoded;
+
+	/**
+	 * @param encoded 按照 writeByte(返回类型)、new UID().write、writeObject 顺序写出的完整数据
+	 * @throws StreamCorruptedException 数据不是预期的格式
+	 */
+	public PreparedReturn(byte[] encoded) throws StreamCorruptedException {
+		if (encoded.length < UID_OFFSET + UID_SIZE
+				|| (encoded[0] & 0xff) != (STREAM_MAGIC >>> 8 & 0xff) || (encoded[1] & 0xff) != (STREAM_MAGIC & 0xff)
+				|| encoded[2] != 0 || encoded[3] != STREAM_VERSION
+				|| encoded[4] != TC_BLOCKDATA || (encoded[5] & 0xff) < 1 + UID_SIZE
+				|| (encoded[6] != TransportConstants.ExceptionalReturn && encoded[6] != TransportConstants.NormalReturn)) {
+			throw new StreamCorruptedException("unexpected return header");
+		}
+		this.encoded = encoded;
+	}
+
+	/**
+	 * 写出数据，UID 使用新生成的值
+	 *
+	 * @param out 输出
+	 * @throws IOException 抛出异常
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		ByteArrayOutputStream uid = new ByteArrayOutputStream(UID_SIZE);
+		new UID().write(new DataOutputStream(uid));
+
+		out.write(encoded, 0, UID_OFFSET);
+		uid.writeTo(out);
+		out.write(encoded, UID_OFFSET + UID_SIZE, encoded.length - UID_OFFSET - UID_SIZE);
+	}
+
+	public boolean isExceptional() {
+		return encoded[6] == TransportConstants.ExceptionalReturn;
+	}
+
+	public int size() {
+		return encoded.length;
+	}
+}
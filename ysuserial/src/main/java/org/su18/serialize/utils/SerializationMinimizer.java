@@ -0,0 +1,468 @@
+package org.su18.serialize.utils;
+
+import javassist.bytecode.AttributeInfo;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.MethodInfo;
+
+import java.io.*;
+import java.util.*;
+
+import static java.io.ObjectStreamConstants.*;
+
+/**
+ * 序列化数据压缩工具，在不改变反序列化结果的前提下减小 payload 体积，用于 header / 参数长度受限的场景
+ * <p>
+ * 流级别：
+ * 1. 值相同的字符串只保留第一个，其余改为 TC_REFERENCE，包括类描述符中重复的字段类型签名；
+ * 2. 去掉 TC_RESET，reset 之后重复写出的相同类描述符改为 TC_REFERENCE；
+ * 3. 按照实际写出的对象重新编号 handle。
+ * <p>
+ * 字节码级别：流中以 0xCAFEBABE 开头的 byte[]（例如 TemplatesImpl 的 _bytecodes）会去掉 SourceFile、
+ * LineNumberTable、LocalVariableTable 等调试信息，并通过 ClassFile.compact 去掉不再使用的常量，保留 StackMapTable
+ * <p>
+ * 改写在一次解析中完成，没有变化的部分原样复制。包含 TC_EXCEPTION 的流原样返回。
+ * 注意字符串去重会让原本不同的两个相等字符串变为同一个对象，对依赖字符串对象身份的链需要自行确认
+ * <p>
+ * 用法：java SerializationMinimizer 输入文件 [输出文件]，默认输出到 输入文件.min
+ *
+ * @author su18
+ */
+public class SerializationMinimizer {
+
+	/**
+	 * 去掉的类属性
+	 */
+	private static final String[] CLASS_ATTRIBUTES = {"SourceFile", "SourceDebugExtension", "Deprecated"};
+
+	/**
+	 * 去掉的 Code 属性，StackMapTable 是校验所需的，需要保留
+	 */
+	private static final String[] CODE_ATTRIBUTES = {"LineNumberTable", "LocalVariableTable", "LocalVariableTypeTable"};
+
+	private long originalSize;
+
+	private long minimizedSize;
+
+	private int strings;
+
+	private long stringBytes;
+
+	private int descriptors;
+
+	private long descriptorBytes;
+
+	private int resets;
+
+	private int classes;
+
+	private long classBytes;
+
+	private long minimizedClassBytes;
+
+	private String skipped;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: SerializationMinimizer <in> [out]");
+			return;
+		}
+
+		byte[]                 input     = MappedInput.readAll(new File(args[0]));
+		SerializationMinimizer minimizer = new SerializationMinimizer();
+		byte[]                 output    = minimizer.minimize(input);
+		String                 target    = args.length > 1 ? args[1] : args[0] + ".min";
+
+		// 结果需要能够重新完整解析，并且再压缩一次不会继续变化
+		new SerializationParser(new SerializationParser.Visitor() {
+		}).parse(MappedInput.wrap(output));
+		if (!Arrays.equals(new SerializationMinimizer().minimize(output), output)) {
+			System.err.println("! minimized output is not stable");
+		}
+
+		FileOutputStream fos = new FileOutputStream(target);
+		try {
+			fos.write(output);
+		} finally {
+			fos.close();
+		}
+
+		Writer out = new OutputStreamWriter(System.out, "UTF-8");
+		minimizer.report(out);
+		out.write("* written to " + target + "\n");
+		out.flush();
+	}
+
+	/**
+	 * 压缩一段序列化数据
+	 *
+	 * @param stream 以 0xACED0005 开头的序列化数据
+	 * @return 返回压缩后的数据，无法压缩时返回原数据
+	 * @throws IOException 数据格式错误
+	 */
+	public byte[] minimize(byte[] stream) throws IOException {
+		Rewriter            rewriter = new Rewriter();
+		SerializationParser parser   = new SerializationParser(rewriter);
+		MappedInput         input    = MappedInput.wrap(stream);
+		rewriter.in = input;
+		rewriter.parser = parser;
+
+		originalSize = stream.length;
+		try {
+			parser.parse(input);
+		} catch (UnsupportedOperationException e) {
+			skipped = e.getMessage();
+			minimizedSize = stream.length;
+			return stream;
+		}
+		rewriter.copyTo(input.size());
+
+		byte[] result = Arrays.copyOf(rewriter.out, rewriter.count);
+		minimizedSize = result.length;
+		return result;
+	}
+
+	/**
+	 * 去掉 class 文件中的调试信息和无用常量
+	 *
+	 * @param bytes class 文件
+	 * @return 返回处理后的 class 文件
+	 * @throws IOException 格式错误
+	 */
+	public static byte[] minimizeClass(byte[] bytes) throws IOException {
+		ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+
+		// 兼容 3.18 的 javassist，getAttributes、getMethods 返回原始类型的 List，没有 ClassFile.removeAttribute
+		removeAttributes(classFile.getAttributes(), CLASS_ATTRIBUTES);
+		for (Object m : classFile.getMethods()) {
+			MethodInfo method = (MethodInfo) m;
+			removeAttributes(method.getAttributes(), new String[]{"Deprecated"});
+			CodeAttribute code = method.getCodeAttribute();
+			if (code != null) {
+				removeAttributes(code.getAttributes(), CODE_ATTRIBUTES);
+			}
+		}
+
+		// 重建常量池，只保留仍被引用的常量
+		classFile.compact();
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length);
+		DataOutputStream      dos = new DataOutputStream(bos);
+		classFile.write(dos);
+		dos.flush();
+		return bos.toByteArray();
+	}
+
+	private static void removeAttributes(List<?> attributes, String[] names) {
+		Iterator<?> iterator = attributes.iterator();
+		while (iterator.hasNext()) {
+			String name = ((AttributeInfo) iterator.next()).getName();
+			for (String remove : names) {
+				if (remove.equals(name)) {
+					iterator.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	public void report(Writer out) throws IOException {
+		if (skipped != null) {
+			out.write("* not minimized: " + skipped + "\n");
+		}
+		out.write(String.format("== %d -> %d bytes (-%.1f%%)%n", originalSize, minimizedSize,
+				originalSize == 0 ? 0 : (originalSize - minimizedSize) * 100.0 / originalSize));
+		out.write(String.format("   strings deduplicated     %6d  -%d B%n", strings, stringBytes));
+		out.write(String.format("   descriptors deduplicated %6d  -%d B%n", descriptors, descriptorBytes));
+		out.write(String.format("   TC_RESET removed         %6d  -%d B%n", resets, resets));
+		out.write(String.format("   class files minimized    %6d  %d -> %d B%n", classes, classBytes, minimizedClassBytes));
+		out.flush();
+	}
+
+	public long getOriginalSize() {
+		return originalSize;
+	}
+
+	public long getMinimizedSize() {
+		return minimizedSize;
+	}
+
+	/**
+	 * 改写流的 Visitor，输入中没有变化的区间延迟复制到输出
+	 * <p>
+	 * 新 handle 需要按照反序列化时的分配顺序编号，而类描述符的回调晚于其字段类型字符串，
+	 * 所以遇到跳过的旧 handle 时先为它们预留新编号
+	 */
+	private class Rewriter extends SerializationParser.Visitor {
+
+		MappedInput in;
+
+		SerializationParser parser;
+
+		byte[] out = new byte[4096];
+
+		int count;
+
+		private long copied;
+
+		/**
+		 * 旧 handle 序号到新 handle 序号的映射
+		 */
+		private int[] mapping = new int[256];
+
+		private int nextOld;
+
+		private int nextNew;
+
+		private final Map<String, Integer> stringHandles = new HashMap<>();
+
+		private final Map<String, Integer> descHandles = new HashMap<>();
+
+		/**
+		 * 正在解析的类描述符：在输出中的起始位置，以及类注解是否为空
+		 */
+		private int[] descStarts = new int[16];
+
+		private boolean[] emptyAnnotations = new boolean[16];
+
+		private int descDepth;
+
+		private boolean enumName;
+
+		private final StringBuilder text = new StringBuilder(64);
+
+		@Override
+		public void exceptionStart(long offset) {
+			throw new UnsupportedOperationException("stream contains TC_EXCEPTION at " + offset);
+		}
+
+		@Override
+		public void reference(long offset, int handle) throws IOException {
+			copyTo(offset);
+			writeReference(mapping[handle - SerializationParser.BASE_HANDLE]);
+			copied = offset + 5;
+		}
+
+		@Override
+		public void reset(long offset) throws IOException {
+			copyTo(offset);
+			copied = offset + 1;
+			resets++;
+			// 旧编号从头开始，新编号和已有的对象继续有效
+			nextOld = 0;
+		}
+
+		@Override
+		public void string(long offset, int handle, long dataOffset, long length) throws IOException {
+			text.setLength(0);
+			parser.appendString(dataOffset, length, text, Integer.MAX_VALUE);
+
+			String  value    = text.toString();
+			Integer existing = stringHandles.get(value);
+
+			// readEnum 只接受 TC_STRING 形式的常量名
+			if (existing == null || enumName) {
+				enumName = false;
+				if (existing == null) {
+					stringHandles.put(value, allocate(handle));
+				} else {
+					allocate(handle);
+				}
+				return;
+			}
+
+			copyTo(offset);
+			writeReference(existing);
+			copied = dataOffset + length;
+			map(handle, existing);
+			strings++;
+			stringBytes += dataOffset + length - offset - 5;
+		}
+
+		@Override
+		public void classDescBegin(long offset) throws IOException {
+			copyTo(offset);
+			if (descDepth == descStarts.length) {
+				descStarts = Arrays.copyOf(descStarts, descDepth * 2);
+				emptyAnnotations = Arrays.copyOf(emptyAnnotations, descDepth * 2);
+			}
+			descStarts[descDepth++] = count;
+		}
+
+		@Override
+		public void classDesc(long offset, int handle, SerializationParser.ClassDesc desc) throws IOException {
+			int index = handle - SerializationParser.BASE_HANDLE;
+			if (index >= nextOld) {
+				allocate(handle);
+			}
+			emptyAnnotations[descDepth - 1] = in.peek() == TC_ENDBLOCKDATA;
+		}
+
+		@Override
+		public void classDescEnd(long offset, SerializationParser.ClassDesc desc) throws IOException {
+			copyTo(offset);
+			int start = descStarts[--descDepth];
+			if (!emptyAnnotations[descDepth]) {
+				return;
+			}
+
+			int     index    = desc.handle - SerializationParser.BASE_HANDLE;
+			String  key      = descKey(desc);
+			Integer existing = descHandles.get(key);
+			if (existing == null) {
+				descHandles.put(key, mapping[index]);
+				return;
+			}
+
+			// 只有描述符本身分配了新 handle 时才能整体替换为引用，否则后续编号会错位
+			if (nextNew == mapping[index] + 1) {
+				descriptors++;
+				descriptorBytes += count - start - 5;
+				count = start;
+				nextNew--;
+				mapping[index] = existing;
+				writeReference(existing);
+			}
+		}
+
+		@Override
+		public void objectStart(long offset, int handle, SerializationParser.ClassDesc desc) {
+			allocate(handle);
+		}
+
+		@Override
+		public void classObject(long offset, int handle, SerializationParser.ClassDesc desc) {
+			allocate(handle);
+		}
+
+		@Override
+		public void enumStart(long offset, int handle, SerializationParser.ClassDesc desc) {
+			allocate(handle);
+			enumName = true;
+		}
+
+		@Override
+		public void arrayStart(long offset, int handle, SerializationParser.ClassDesc desc, int size, long dataOffset) throws IOException {
+			allocate(handle);
+			if (!"[B".equals(desc.name) || size < 10) {
+				return;
+			}
+
+			long position = in.position();
+			in.position(dataOffset);
+			boolean isClass = in.readInt() == 0xcafebabe;
+			in.position(position);
+			if (!isClass) {
+				return;
+			}
+
+			byte[] bytes = new byte[size];
+			in.position(dataOffset);
+			in.readFully(bytes, 0, size);
+			in.position(position);
+
+			byte[] minimized;
+			try {
+				minimized = minimizeClass(bytes);
+			} catch (Exception e) {
+				return;
+			}
+			if (minimized.length >= size) {
+				return;
+			}
+
+			copyTo(dataOffset - 4);
+			writeInt(minimized.length);
+			write(minimized, 0, minimized.length);
+			copied = dataOffset + size;
+
+			classes++;
+			classBytes += size;
+			minimizedClassBytes += minimized.length;
+		}
+
+		private String descKey(SerializationParser.ClassDesc desc) {
+			StringBuilder key = new StringBuilder(64);
+			if (desc.proxy) {
+				key.append("proxy ").append(Arrays.toString(desc.interfaces));
+			} else {
+				key.append(desc.name).append(' ').append(desc.suid).append(' ').append(desc.flags);
+				for (int i = 0; i < desc.fieldTypes.length; i++) {
+					key.append(' ').append(desc.fieldTypes[i]).append(desc.fieldNames[i]);
+					if (desc.fieldClassNames[i] != null) {
+						key.append(' ').append(desc.fieldClassNames[i]);
+					}
+				}
+			}
+			key.append(" super ").append(desc.superDesc == null ? -1 : mapping[desc.superDesc.handle - SerializationParser.BASE_HANDLE]);
+			return key.toString();
+		}
+
+		/**
+		 * 为旧 handle 分配新编号，中间被跳过的旧 handle（尚未回调的类描述符）依次预留编号
+		 */
+		private int allocate(int handle) {
+			int index = handle - SerializationParser.BASE_HANDLE;
+			reserve(index);
+			mapping[index] = nextNew++;
+			nextOld = index + 1;
+			return mapping[index];
+		}
+
+		private void map(int handle, int target) {
+			int index = handle - SerializationParser.BASE_HANDLE;
+			reserve(index);
+			mapping[index] = target;
+			nextOld = index + 1;
+		}
+
+		private void reserve(int index) {
+			if (index >= mapping.length) {
+				mapping = Arrays.copyOf(mapping, Math.max(mapping.length * 2, index + 1));
+			}
+			while (nextOld < index) {
+				mapping[nextOld++] = nextNew++;
+			}
+		}
+
+		void copyTo(long position) throws IOException {
+			if (position <= copied) {
+				return;
+			}
+			int length = (int) (position - copied);
+			ensure(length);
+			long current = in.position();
+			in.position(copied);
+			in.readFully(out, count, length);
+			in.position(current);
+			count += length;
+			copied = position;
+		}
+
+		private void writeReference(int index) {
+			ensure(5);
+			out[count++] = TC_REFERENCE;
+			writeInt(SerializationParser.BASE_HANDLE + index);
+		}
+
+		private void writeInt(int v) {
+			ensure(4);
+			out[count++] = (byte) (v >>> 24);
+			out[count++] = (byte) (v >>> 16);
+			out[count++] = (byte) (v >>> 8);
+			out[count++] = (byte) v;
+		}
+
+		private void write(byte[] bytes, int offset, int length) {
+			ensure(length);
+			System.arraycopy(bytes, offset, out, count, length);
+			count += length;
+		}
+
+		private void ensure(int length) {
+			if (count + length > out.length) {
+				out = Arrays.copyOf(out, Math.max(out.length * 2, count + length));
+			}
+		}
+	}
+}
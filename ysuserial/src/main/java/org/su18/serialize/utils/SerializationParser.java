@@ -0,0 +1,890 @@
+package org.su18.serialize.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import static java.io.ObjectStreamConstants.*;
+
+/**
+ * Java 原生序列化流的语法解析器，不加载任何类，按照 Object Serialization Stream Protocol 增量解析
+ * 支持 block data、handle 引用、动态代理类描述符、TC_RESET、TC_EXCEPTION 等语法
+ * <p>
+ * 有 writeObject 的类，字段值是否写在自定义数据之前无法从类描述符得知。先按字段试解析，失败时把这一层的数据
+ * 整体作为自定义数据解析到 TC_ENDBLOCKDATA，并回调 customData，此时不会输出字段值。试解析无法区分恰好也能按字段
+ * 解析成功的自定义数据，这种情况下结果可能不正确
+ * <p>
+ * 解析结果以回调的方式交给 Visitor，回调参数只有偏移量和 handle 等基本类型，解析过程中不会为每个 token 创建对象，
+ * 只有类描述符（ClassDesc）会被创建，同时在 ClassDesc 上累计每个类的实例数和字节数
+ * <p>
+ * 同一个 parser 可以反复用于解析不同的输入，handle 表等内部状态会被复用
+ *
+ * @author su18
+ */
+public class SerializationParser {
+
+	/**
+	 * handle 编号的起始值
+	 */
+	public static final int BASE_HANDLE = baseWireHandle;
+
+	private static final int MAX_DEPTH = 10000;
+
+	/**
+	 * 类描述符，每个 TC_CLASSDESC / TC_PROXYCLASSDESC 创建一个
+	 */
+	public static final class ClassDesc {
+
+		public String name;
+
+		public long suid;
+
+		public int flags;
+
+		public boolean proxy;
+
+		public String[] interfaces;
+
+		public char[] fieldTypes;
+
+		public String[] fieldNames;
+
+		public String[] fieldClassNames;
+
+		public ClassDesc superDesc;
+
+		public int handle;
+
+		/**
+		 * 描述符在流中的位置和长度
+		 */
+		public long offset;
+
+		public long length;
+
+		/**
+		 * 统计信息：该类实例个数、实例总字节数（包含嵌套对象）、实例自身字节数（不包含嵌套对象）
+		 */
+		public long instances;
+
+		public long totalBytes;
+
+		public long selfBytes;
+
+		/**
+		 * 有 writeObject 时试解析的结果，同一个类每个实例的数据布局相同，每个描述符只需要试解析一次。
+		 * trialEpoch 与 parser 当前的 epoch 不同时表示还没有结果
+		 */
+		boolean fieldsWritten;
+
+		int trialEpoch;
+
+		public String getName() {
+			return proxy ? "$Proxy" : name;
+		}
+	}
+
+	/**
+	 * 解析回调，默认实现全部为空，按需覆盖
+	 */
+	public static abstract class Visitor {
+
+		public void streamStart(long offset) throws IOException {
+		}
+
+		public void streamEnd(long offset) throws IOException {
+		}
+
+		public void nullReference(long offset) throws IOException {
+		}
+
+		public void reference(long offset, int handle) throws IOException {
+		}
+
+		public void reset(long offset) throws IOException {
+		}
+
+		/**
+		 * @param dataOffset 字符串数据（modified UTF-8）的位置
+		 * @param length     字符串数据的字节数
+		 */
+		public void string(long offset, int handle, long dataOffset, long length) throws IOException {
+		}
+
+		public void blockData(long offset, long dataOffset, int length) throws IOException {
+		}
+
+		public void endBlockData(long offset) throws IOException {
+		}
+
+		/**
+		 * 进入类描述符，随后回调的 string / reference 属于字段类型签名
+		 */
+		public void classDescBegin(long offset) throws IOException {
+		}
+
+		/**
+		 * 类描述符头部（名称、字段）解析完成，随后回调的内容属于类注解，然后是父类描述符
+		 */
+		public void classDesc(long offset, int handle, ClassDesc desc) throws IOException {
+		}
+
+		public void classDescEnd(long offset, ClassDesc desc) throws IOException {
+		}
+
+		/**
+		 * 读到 TC_OBJECT / TC_ARRAY / TC_CLASS / TC_ENUM，随后是类描述符，
+		 * 描述符解析完成后才会回调 objectStart / arrayStart / classObject / enumStart
+		 */
+		public void objectBegin(long offset, int tc) throws IOException {
+		}
+
+		public void objectStart(long offset, int handle, ClassDesc desc) throws IOException {
+		}
+
+		/**
+		 * 开始某个类层级的数据，按照从父类到子类的顺序回调
+		 */
+		public void classData(ClassDesc desc) throws IOException {
+		}
+
+		public void primitiveField(ClassDesc owner, int index, long offset) throws IOException {
+		}
+
+		public void objectField(ClassDesc owner, int index) throws IOException {
+		}
+
+		/**
+		 * 开始 writeObject / writeExternal 写入的自定义数据
+		 */
+		public void annotation(ClassDesc owner) throws IOException {
+		}
+
+		/**
+		 * writeObject 没有调用 defaultWriteObject / writeFields，这一层的数据全部是自定义数据，没有字段值。
+		 * 默认按 annotation 处理
+		 */
+		public void customData(ClassDesc owner) throws IOException {
+			annotation(owner);
+		}
+
+		public void objectEnd(long offset, long length, ClassDesc desc) throws IOException {
+		}
+
+		public void arrayStart(long offset, int handle, ClassDesc desc, int size, long dataOffset) throws IOException {
+		}
+
+		public void arrayElement(int index) throws IOException {
+		}
+
+		public void arrayEnd(long offset, long length, ClassDesc desc) throws IOException {
+		}
+
+		public void classObject(long offset, int handle, ClassDesc desc) throws IOException {
+		}
+
+		public void enumStart(long offset, int handle, ClassDesc desc) throws IOException {
+		}
+
+		public void enumEnd(long offset, ClassDesc desc) throws IOException {
+		}
+
+		public void exceptionStart(long offset) throws IOException {
+		}
+
+		public void exceptionEnd(long offset) throws IOException {
+		}
+
+		/**
+		 * 扫描模式下某个流解析失败，会继续扫描下一个流
+		 */
+		public void error(long offset, String message) throws IOException {
+		}
+	}
+
+	/**
+	 * 试解析时使用的空 Visitor
+	 */
+	private static final Visitor SKIP = new Visitor() {
+	};
+
+	private Visitor visitor;
+
+	private MappedInput in;
+
+	/**
+	 * handle 表，只保存类描述符和描述符中用到的类型字符串，其它对象只记录编号
+	 */
+	private ClassDesc[] descs = new ClassDesc[64];
+
+	private String[] strings = new String[64];
+
+	/**
+	 * 普通字符串的位置，被类型签名引用时才解码
+	 */
+	private long[] stringOffsets = new long[64];
+
+	private int nextHandle;
+
+	private int depth;
+
+	/**
+	 * 对象嵌套栈，记录每一层中嵌套对象占用的字节数，用来计算 selfBytes
+	 */
+	private long[] nested = new long[64];
+
+	/**
+	 * ClassDesc 上试解析结果的版本，试解析失败时递增，使之前的结果全部失效
+	 */
+	private int epoch = 1;
+
+	/**
+	 * 正在试解析，不回调 Visitor，也不累计统计信息
+	 */
+	private boolean trial;
+
+	private final StringBuilder utf = new StringBuilder(64);
+
+
+	public SerializationParser(Visitor visitor) {
+		this.visitor = visitor;
+	}
+
+	public MappedInput getInput() {
+		return in;
+	}
+
+	/**
+	 * 严格模式：输入从流头 0xACED0005 开始，一直解析到末尾
+	 *
+	 * @param input 输入
+	 * @throws IOException 格式错误时抛出异常
+	 */
+	public void parse(MappedInput input) throws IOException {
+		this.in = input;
+		long start = in.position();
+		if (in.readUnsignedShort() != (STREAM_MAGIC & 0xffff) || in.readUnsignedShort() != STREAM_VERSION) {
+			throw new StreamCorruptedException("invalid stream header at " + start);
+		}
+		stream(start, false);
+	}
+
+	/**
+	 * 扫描模式：在输入中查找所有的流头并依次解析，适用于 JRMP 抓包等流前后夹杂其它数据的情况
+	 * 流遇到无法识别的 type code 时视为结束，解析失败时从下一个位置继续扫描
+	 *
+	 * @param input 输入
+	 * @return 返回成功解析的流的个数
+	 * @throws IOException Visitor 抛出的异常
+	 */
+	public int scan(MappedInput input) throws IOException {
+		this.in = input;
+		int  streams = 0;
+		long size    = in.size();
+		long pos     = in.position();
+
+		while (pos + 4 <= size) {
+			in.position(pos);
+			if (in.read() != 0xac || in.read() != 0xed || in.read() != 0x00 || in.read() != STREAM_VERSION) {
+				pos++;
+				continue;
+			}
+			try {
+				stream(pos, true);
+				streams++;
+				pos = in.position();
+			} catch (IOException e) {
+				visitor.error(in.position(), e.getMessage());
+				pos += 2;
+			}
+		}
+		return streams;
+	}
+
+	private void stream(long start, boolean lenient) throws IOException {
+		resetHandles();
+		depth = 0;
+		visitor.streamStart(start);
+		while (in.hasRemaining()) {
+			int tc = in.peek();
+			if (lenient && (tc < TC_NULL || tc > TC_ENUM || tc == TC_ENDBLOCKDATA)) {
+				break;
+			}
+			content();
+		}
+		visitor.streamEnd(in.position());
+	}
+
+	/**
+	 * content := object | blockdata
+	 */
+	private void content() throws IOException {
+		long start = in.position();
+		int  tc    = in.read();
+
+		if (++depth > MAX_DEPTH) {
+			throw new StreamCorruptedException("nesting too deep at " + start);
+		}
+
+		switch (tc) {
+			case TC_NULL:
+				visitor.nullReference(start);
+				break;
+			case TC_REFERENCE:
+				visitor.reference(start, readHandle());
+				break;
+			case TC_CLASSDESC:
+			case TC_PROXYCLASSDESC:
+				newClassDesc(tc, start);
+				break;
+			case TC_OBJECT:
+				newObject(start);
+				break;
+			case TC_STRING:
+			case TC_LONGSTRING:
+				newString(tc, start);
+				break;
+			case TC_ARRAY:
+				newArray(start);
+				break;
+			case TC_CLASS: {
+				visitor.objectBegin(start, tc);
+				ClassDesc desc   = classDesc();
+				int       handle = newHandle(null);
+				visitor.classObject(start, handle, desc);
+				break;
+			}
+			case TC_ENUM: {
+				visitor.objectBegin(start, tc);
+				ClassDesc desc   = classDesc();
+				int       handle = newHandle(null);
+				visitor.enumStart(start, handle, desc);
+				content();
+				visitor.enumEnd(start, desc);
+				break;
+			}
+			case TC_BLOCKDATA: {
+				int length = in.read();
+				visitor.blockData(start, in.position(), length);
+				in.skip(length);
+				break;
+			}
+			case TC_BLOCKDATALONG: {
+				int length = in.readInt();
+				if (length < 0) {
+					throw new StreamCorruptedException("negative block data length at " + start);
+				}
+				visitor.blockData(start, in.position(), length);
+				in.skip(length);
+				break;
+			}
+			case TC_RESET:
+				checkTrial(start);
+				resetHandles();
+				visitor.reset(start);
+				break;
+			case TC_EXCEPTION:
+				checkTrial(start);
+				resetHandles();
+				visitor.exceptionStart(start);
+				content();
+				resetHandles();
+				visitor.exceptionEnd(in.position());
+				break;
+			default:
+				throw new StreamCorruptedException(String.format("invalid type code 0x%02x at %d", tc, start));
+		}
+		depth--;
+	}
+
+	/**
+	 * classDesc := newClassDesc | nullReference | prevObject
+	 */
+	private ClassDesc classDesc() throws IOException {
+		long start = in.position();
+		int  tc    = in.read();
+
+		switch (tc) {
+			case TC_NULL:
+				visitor.nullReference(start);
+				return null;
+			case TC_REFERENCE: {
+				int       handle = readHandle();
+				ClassDesc desc   = lookupDesc(handle);
+				if (desc == null) {
+					throw new StreamCorruptedException("reference to non class descriptor at " + start);
+				}
+				visitor.reference(start, handle);
+				return desc;
+			}
+			case TC_CLASSDESC:
+			case TC_PROXYCLASSDESC:
+				return newClassDesc(tc, start);
+			default:
+				throw new StreamCorruptedException(String.format("invalid class descriptor type code 0x%02x at %d", tc, start));
+		}
+	}
+
+	private ClassDesc newClassDesc(int tc, long start) throws IOException {
+		ClassDesc desc = new ClassDesc();
+		desc.offset = start;
+		visitor.classDescBegin(start);
+
+		if (tc == TC_CLASSDESC) {
+			desc.name = readUtf(in.readUnsignedShort());
+			desc.suid = in.readLong();
+			desc.handle = newHandle(desc);
+			desc.flags = in.read();
+
+			int count = in.readUnsignedShort();
+			desc.fieldTypes = new char[count];
+			desc.fieldNames = new String[count];
+			desc.fieldClassNames = new String[count];
+			for (int i = 0; i < count; i++) {
+				desc.fieldTypes[i] = (char) in.read();
+				desc.fieldNames[i] = readUtf(in.readUnsignedShort());
+				if (desc.fieldTypes[i] == 'L' || desc.fieldTypes[i] == '[') {
+					desc.fieldClassNames[i] = typeString();
+				} else if (primitiveSize(desc.fieldTypes[i]) == 0) {
+					throw new StreamCorruptedException("invalid field type '" + desc.fieldTypes[i] + "' at " + start);
+				}
+			}
+		} else {
+			desc.proxy = true;
+			desc.handle = newHandle(desc);
+			desc.flags = SC_SERIALIZABLE;
+			desc.fieldTypes = new char[0];
+			desc.fieldNames = new String[0];
+			desc.fieldClassNames = desc.fieldNames;
+
+			// 每个接口名至少占 2 字节长度，一个类最多实现 65535 个接口
+			int count = in.readInt();
+			if (count < 0 || count > 65535 || count * 2L > in.remaining()) {
+				throw new StreamCorruptedException("invalid proxy interface count " + count + " at " + start);
+			}
+			desc.interfaces = new String[count];
+			for (int i = 0; i < count; i++) {
+				desc.interfaces[i] = readUtf(in.readUnsignedShort());
+			}
+		}
+
+		visitor.classDesc(start, desc.handle, desc);
+		annotation();
+		desc.superDesc = classDesc();
+		desc.length = in.position() - start;
+		visitor.classDescEnd(in.position(), desc);
+		return desc;
+	}
+
+	/**
+	 * 字段的类型签名，只可能是字符串或者指向字符串的引用
+	 */
+	private String typeString() throws IOException {
+		long start = in.position();
+		int  tc    = in.read();
+
+		switch (tc) {
+			case TC_NULL:
+				visitor.nullReference(start);
+				return null;
+			case TC_REFERENCE: {
+				int handle = readHandle();
+				int index  = handle - BASE_HANDLE;
+				visitor.reference(start, handle);
+				return index >= 0 && index < nextHandle ? stringAt(index) : null;
+			}
+			case TC_STRING:
+			case TC_LONGSTRING: {
+				long length = tc == TC_STRING ? in.readUnsignedShort() : in.readLong();
+				if (length > Integer.MAX_VALUE) {
+					throw new StreamCorruptedException("type string too long at " + start);
+				}
+				long   dataOffset = in.position();
+				String value      = readUtf((int) length);
+				int    handle     = newHandle(null);
+				strings[handle - BASE_HANDLE] = value;
+				visitor.string(start, handle, dataOffset, length);
+				return value;
+			}
+			default:
+				throw new StreamCorruptedException(String.format("invalid type string type code 0x%02x at %d", tc, start));
+		}
+	}
+
+	/**
+	 * classAnnotation / objectAnnotation := endBlockData | contents endBlockData
+	 */
+	private void annotation() throws IOException {
+		while (in.peek() != TC_ENDBLOCKDATA) {
+			content();
+		}
+		visitor.endBlockData(in.position());
+		in.read();
+	}
+
+	private void newString(int tc, long start) throws IOException {
+		long length = tc == TC_STRING ? in.readUnsignedShort() : in.readLong();
+		if (length < 0) {
+			throw new StreamCorruptedException("negative string length at " + start);
+		}
+		int handle = newHandle(null);
+		stringOffsets[handle - BASE_HANDLE] = start;
+		visitor.string(start, handle, in.position(), length);
+		in.skip(length);
+	}
+
+	/**
+	 * handle 对应的字符串，普通字符串在第一次使用时从原位置解码
+	 */
+	private String stringAt(int index) throws IOException {
+		if (strings[index] == null && stringOffsets[index] >= 0) {
+			long position = in.position();
+			in.position(stringOffsets[index]);
+			long length = in.read() == TC_STRING ? in.readUnsignedShort() : in.readLong();
+			if (length <= Integer.MAX_VALUE) {
+				strings[index] = readUtf((int) length);
+			}
+			in.position(position);
+		}
+		return strings[index];
+	}
+
+	private void newObject(long start) throws IOException {
+		visitor.objectBegin(start, TC_OBJECT);
+		ClassDesc desc = classDesc();
+		if (desc == null) {
+			throw new StreamCorruptedException("object without class descriptor at " + start);
+		}
+		int handle = newHandle(null);
+		visitor.objectStart(start, handle, desc);
+
+		enter();
+		classData(desc);
+		leave(start, desc);
+
+		visitor.objectEnd(start, in.position() - start, desc);
+	}
+
+	/**
+	 * 按照从父类到子类的顺序读取每一层的数据
+	 */
+	private void classData(ClassDesc desc) throws IOException {
+		if (desc.superDesc != null) {
+			classData(desc.superDesc);
+		}
+		visitor.classData(desc);
+
+		if ((desc.flags & SC_SERIALIZABLE) != 0) {
+			if ((desc.flags & SC_WRITE_METHOD) != 0 && desc.fieldTypes.length > 0 && !fieldsWritten(desc)) {
+				visitor.customData(desc);
+				annotation();
+				return;
+			}
+			fields(desc);
+			if ((desc.flags & SC_WRITE_METHOD) != 0) {
+				visitor.annotation(desc);
+				annotation();
+			}
+		} else if ((desc.flags & SC_EXTERNALIZABLE) != 0) {
+			if ((desc.flags & SC_BLOCK_DATA) == 0) {
+				throw new StreamCorruptedException("externalizable data written with PROTOCOL_VERSION_1 cannot be parsed: " + desc.name);
+			}
+			visitor.annotation(desc);
+			annotation();
+		}
+	}
+
+	private void fields(ClassDesc desc) throws IOException {
+		for (int i = 0; i < desc.fieldTypes.length; i++) {
+			char type = desc.fieldTypes[i];
+			if (type == 'L' || type == '[') {
+				visitor.objectField(desc, i);
+				content();
+			} else {
+				long offset = in.position();
+				in.skip(primitiveSize(type));
+				visitor.primitiveField(desc, i, offset);
+			}
+		}
+	}
+
+	/**
+	 * 判断 writeObject 是否先写入了字段值。例如 C3P0 的 PoolBackedDataSourceBase 直接写入版本号和各个字段对象，
+	 * 按字段解析会把版本号当作 int 字段，之后在 TC_ENDBLOCKDATA 的位置出错
+	 * <p>
+	 * 用空 Visitor 按字段解析这一层直到 TC_ENDBLOCKDATA，结束后恢复位置和 handle 表。结果保存在描述符上，
+	 * 嵌套对象和同一个类的其它实例不会重复试解析
+	 */
+	private boolean fieldsWritten(ClassDesc desc) throws IOException {
+		if (desc.trialEpoch == epoch) {
+			return desc.fieldsWritten;
+		}
+		long start = in.position();
+
+		// 对象字段不可能以 block data 开始
+		int  tc    = in.peek();
+		char first = desc.fieldTypes[0];
+		if ((first == 'L' || first == '[') && (tc == TC_BLOCKDATA || tc == TC_BLOCKDATALONG || tc == TC_ENDBLOCKDATA)) {
+			return false;
+		}
+
+		Visitor current = visitor;
+		boolean outer   = trial;
+		int     handles = nextHandle;
+		int     level   = depth;
+		boolean written;
+		visitor = SKIP;
+		trial = true;
+		try {
+			fields(desc);
+			annotation();
+			written = true;
+		} catch (TrialAborted e) {
+			// 无法试解析，按协议的默认格式处理
+			written = true;
+		} catch (IOException e) {
+			written = false;
+		} finally {
+			visitor = current;
+			trial = outer;
+			nextHandle = handles;
+			depth = level;
+			in.position(start);
+		}
+
+		if (!written) {
+			// 失败的试解析中得到的结果对应另一种解析方式，不能再使用
+			epoch++;
+		}
+		desc.fieldsWritten = written;
+		desc.trialEpoch = epoch;
+		return written;
+	}
+
+	/**
+	 * TC_RESET / TC_EXCEPTION 会清空 handle 表，试解析之后无法恢复
+	 */
+	private void checkTrial(long start) throws IOException {
+		if (trial) {
+			throw new TrialAborted(start);
+		}
+	}
+
+	private void newArray(long start) throws IOException {
+		visitor.objectBegin(start, TC_ARRAY);
+		ClassDesc desc = classDesc();
+		if (desc == null || desc.name == null || desc.name.length() < 2 || desc.name.charAt(0) != '[') {
+			throw new StreamCorruptedException("array without array class descriptor at " + start);
+		}
+		int handle = newHandle(null);
+		int size   = in.readInt();
+		if (size < 0) {
+			throw new StreamCorruptedException("negative array size at " + start);
+		}
+		visitor.arrayStart(start, handle, desc, size, in.position());
+
+		enter();
+		char type = desc.name.charAt(1);
+		if (type == 'L' || type == '[') {
+			for (int i = 0; i < size; i++) {
+				visitor.arrayElement(i);
+				content();
+			}
+		} else {
+			int elementSize = primitiveSize(type);
+			if (elementSize == 0) {
+				throw new StreamCorruptedException("invalid array type " + desc.name + " at " + start);
+			}
+			in.skip((long) size * elementSize);
+		}
+		leave(start, desc);
+
+		visitor.arrayEnd(start, in.position() - start, desc);
+	}
+
+	private void enter() {
+		if (depth >= nested.length) {
+			long[] grown = new long[nested.length * 2];
+			System.arraycopy(nested, 0, grown, 0, nested.length);
+			nested = grown;
+		}
+		nested[depth] = 0;
+	}
+
+	/**
+	 * 累计类的统计信息，并把自身大小计入外层对象的嵌套字节数
+	 */
+	private void leave(long start, ClassDesc desc) {
+		if (trial) {
+			return;
+		}
+		long length = in.position() - start;
+		desc.instances++;
+		desc.totalBytes += length;
+		desc.selfBytes += length - nested[depth];
+		if (depth > 0) {
+			nested[depth - 1] += length;
+		}
+	}
+
+	private int readHandle() throws IOException {
+		int handle = in.readInt();
+		int index  = handle - BASE_HANDLE;
+		if (index < 0 || index >= nextHandle) {
+			throw new StreamCorruptedException(String.format("invalid handle 0x%08x at %d", handle, in.position() - 5));
+		}
+		return handle;
+	}
+
+	private int newHandle(ClassDesc desc) {
+		if (nextHandle >= descs.length) {
+			ClassDesc[] grownDescs = new ClassDesc[descs.length * 2];
+			System.arraycopy(descs, 0, grownDescs, 0, descs.length);
+			descs = grownDescs;
+			String[] grownStrings = new String[strings.length * 2];
+			System.arraycopy(strings, 0, grownStrings, 0, strings.length);
+			strings = grownStrings;
+			long[] grownOffsets = new long[stringOffsets.length * 2];
+			System.arraycopy(stringOffsets, 0, grownOffsets, 0, stringOffsets.length);
+			stringOffsets = grownOffsets;
+		}
+		descs[nextHandle] = desc;
+		strings[nextHandle] = null;
+		stringOffsets[nextHandle] = -1;
+		return BASE_HANDLE + nextHandle++;
+	}
+
+	private ClassDesc lookupDesc(int handle) {
+		return descs[handle - BASE_HANDLE];
+	}
+
+	private void resetHandles() {
+		for (int i = 0; i < nextHandle; i++) {
+			descs[i] = null;
+			strings[i] = null;
+		}
+		nextHandle = 0;
+	}
+
+	private String readUtf(int length) throws IOException {
+		utf.setLength(0);
+		decodeUtf(length, utf, Integer.MAX_VALUE);
+		return utf.toString();
+	}
+
+	/**
+	 * 解码 modified UTF-8 数据，最多向 sb 写入 maxChars 个字符，其余只跳过
+	 */
+	private void decodeUtf(long length, StringBuilder sb, int maxChars) throws IOException {
+		long end = in.position() + length;
+		while (in.position() < end) {
+			int b = in.read();
+			int c;
+			if (b < 0x80) {
+				c = b;
+			} else if ((b & 0xe0) == 0xc0) {
+				c = ((b & 0x1f) << 6) | (in.read() & 0x3f);
+			} else {
+				c = ((b & 0x0f) << 12) | ((in.read() & 0x3f) << 6) | (in.read() & 0x3f);
+			}
+			if (sb.length() < maxChars) {
+				sb.append((char) c);
+			}
+		}
+		if (in.position() != end) {
+			throw new StreamCorruptedException("malformed modified UTF-8 data before " + end);
+		}
+	}
+
+	/**
+	 * 读取指定位置的字符串内容，不改变当前解析位置，供 Visitor 输出字符串值
+	 *
+	 * @param dataOffset 字符串数据位置
+	 * @param length     数据字节数
+	 * @param sb         输出
+	 * @param maxChars   最多输出的字符数
+	 * @throws IOException 抛出异常
+	 */
+	public void appendString(long dataOffset, long length, StringBuilder sb, int maxChars) throws IOException {
+		long position = in.position();
+		in.position(dataOffset);
+		decodeUtf(length, sb, sb.length() + maxChars);
+		in.position(position);
+	}
+
+	/**
+	 * 读取指定位置的基本类型值并追加到 sb，不改变当前解析位置
+	 *
+	 * @param type   类型代码 B C D F I J S Z
+	 * @param offset 位置
+	 * @param sb     输出
+	 * @throws IOException 抛出异常
+	 */
+	public void appendPrimitive(char type, long offset, StringBuilder sb) throws IOException {
+		long position = in.position();
+		in.position(offset);
+		switch (type) {
+			case 'B':
+				sb.append((byte) in.read());
+				break;
+			case 'C':
+				sb.append('\'').append((char) in.readUnsignedShort()).append('\'');
+				break;
+			case 'D':
+				sb.append(Double.longBitsToDouble(in.readLong()));
+				break;
+			case 'F':
+				sb.append(Float.intBitsToFloat(in.readInt()));
+				break;
+			case 'I':
+				sb.append(in.readInt());
+				break;
+			case 'J':
+				sb.append(in.readLong());
+				break;
+			case 'S':
+				sb.append((short) in.readUnsignedShort());
+				break;
+			case 'Z':
+				sb.append(in.read() != 0);
+				break;
+			default:
+				throw new EOFException("unknown primitive type " + type);
+		}
+		in.position(position);
+	}
+
+	/**
+	 * 基本类型占用的字节数，对象类型返回 0
+	 *
+	 * @param type 类型代码
+	 * @return 返回字节数
+	 */
+	public static int primitiveSize(char type) {
+		switch (type) {
+			case 'B':
+			case 'Z':
+				return 1;
+			case 'C':
+			case 'S':
+				return 2;
+			case 'I':
+			case 'F':
+				return 4;
+			case 'J':
+			case 'D':
+				return 8;
+			default:
+				return 0;
+		}
+	}
+
+	private static final class TrialAborted extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		TrialAborted(long offset) {
+			super("handle table reset at " + offset);
+		}
+	}
+}
@@ -13,6 +13,53 @@ import java.util.HashSet;
  */
 public class SerializeUtil {
 
+	/**
+	 * 当前线程处于捕获模式时不为 null，见 beginCapture
+	 */
+	private static final ThreadLocal<byte[][]> CAPTURE = new ThreadLocal<>();
+
+
+	/**
+	 * 开始捕获当前线程生成的 payload：之后第一次 writeObjectToFile 或者 HessianUtils.hessianSerialize 不再写文件，
+	 * 数据记录下来后抛出 CaptureComplete 结束链的 main 方法，跳过之后的本地反序列化和 sleep，数据由 endCapture 取回
+	 */
+	public static void beginCapture() {
+		CAPTURE.set(new byte[1][]);
+	}
+
+	/**
+	 * 结束捕获
+	 *
+	 * @return 返回捕获的序列化数据，没有时返回 null
+	 */
+	public static byte[] endCapture() {
+		byte[][] captured = CAPTURE.get();
+		CAPTURE.remove();
+		return captured != null ? captured[0] : null;
+	}
+
+	/**
+	 * 捕获模式下记录序列化数据并抛出 CaptureComplete，否则什么也不做
+	 */
+	static void capture(byte[] bytes) {
+		byte[][] captured = CAPTURE.get();
+		if (captured != null) {
+			captured[0] = bytes;
+			throw CaptureComplete.INSTANCE;
+		}
+	}
+
+	/**
+	 * 捕获完成，用来从链的 main 方法中跳出，不是错误
+	 */
+	public static final class CaptureComplete extends Error {
+
+		private static final CaptureComplete INSTANCE = new CaptureComplete();
+
+		private CaptureComplete() {
+			super("payload captured", null, false, false);
+		}
+	}
 
 	/**
 	 * 将序列化对象写入到文件中
@@ -22,6 +69,14 @@ public class SerializeUtil {
 	 */
 	public static void writeObjectToFile(Object o) throws IOException {
 
+		if (CAPTURE.get() != null) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream    oos = new ObjectOutputStream(bos);
+			oos.writeObject(o);
+			oos.close();
+			capture(bos.toByteArray());
+		}
+
 		String className = CallUtil.getCallClassName();
 
 		if (className != null) {
